@@ -0,0 +1,70 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of one {@link MergeSortJob} merging two sorted halves of
+ * generated int partitions, for each data shape. A job runs on one thread,
+ * see {@link SortPartitionsBenchmark} for scaling with threads.
+ *
+ * Usage: java -jar target/benchmarks.jar MergeSortJobBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "--add-modules=jdk.incubator.vector" })
+public class MergeSortJobBenchmark {
+
+    @Param({ "DISJOINT", "OVERLAPPING", "TIME_WINDOWS", "DUPLICATES", "SKEWED", "TINY_BLOCKS" })
+    public DataShape shape;
+    @Param({ "64" })
+    public int       partitions;
+    @Param({ "100000" })
+    public int       values;
+    @Param({ "1000" })
+    public int       blockSize;
+
+    private List<List<Partition>> halves;
+
+    @Setup
+    public void setUp() {
+        int[][][] data = shape.generate(new Random(shape.ordinal()), partitions, values, blockSize);
+        List<IntPartition> intPartitions = SortPartitionsBenchmark.toIntPartitions(data);
+        halves = new ArrayList<>();
+        for (List<IntPartition> half : Arrays.asList(intPartitions.subList(0, intPartitions.size() / 2),
+            intPartitions.subList(intPartitions.size() / 2, intPartitions.size()))) {
+            List<List<Partition>> partitionLists = half.stream()
+                .map(partition -> Arrays.asList((Partition) partition))
+                .collect(Collectors.toList());
+            KWayMergeJob job = new KWayMergeJob(partitionLists);
+            job.run();
+            halves.add(job.getOutputList());
+        }
+    }
+
+    @Benchmark
+    public List<Partition> merge() {
+        MergeSortJob job = new MergeSortJob(halves.get(0), halves.get(1));
+        job.run();
+        return job.getOutputList();
+    }
+}
@@ -0,0 +1,100 @@
+package com.company;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link MergeSortK} sorting generated partitions, for each
+ * data shape and count of threads.
+ *
+ * Usage: java -jar target/benchmarks.jar SortPartitionsBenchmark -p threads=1,2,4 -prof gc
+ *
+ * Scores are sorts per second; "-prof gc" adds bytes allocated per sort.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "--add-modules=jdk.incubator.vector" })
+public class SortPartitionsBenchmark {
+
+    @Param({ "DISJOINT", "OVERLAPPING", "TIME_WINDOWS", "DUPLICATES", "SKEWED", "TINY_BLOCKS" })
+    public DataShape     shape;
+    @Param({ "1", "4" })
+    public int           threads;
+    @Param({ "PAIRWISE" })
+    public MergeStrategy strategy;
+    @Param({ "64" })
+    public int           partitions;
+    @Param({ "100000" })
+    public int           values;
+    @Param({ "1000" })
+    public int           blockSize;
+
+    private ForkJoinPool       pool;
+    private SortConfig         config;
+    private List<Partition>    boxedPartitions;
+    private List<IntPartition> intPartitions;
+
+    @Setup
+    public void setUp() {
+        int[][][] data = shape.generate(new Random(shape.ordinal()), partitions, values, blockSize);
+        boxedPartitions = Arrays.stream(data)
+            .map(blocks -> new Partition(Arrays.stream(blocks)
+                .map(blockValues -> new Block(Arrays.stream(blockValues).boxed().collect(Collectors.toList())))
+                .collect(Collectors.toList())))
+            .collect(Collectors.toList());
+        intPartitions = toIntPartitions(data);
+
+        pool = new ForkJoinPool(threads);
+        config = new SortConfig();
+        config.setStrategy(strategy);
+        config.setForkJoinPool(pool);
+        config.setParallelism(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Sort boxed Integer blocks.
+     */
+    @Benchmark
+    public List sortPartitions() {
+        return MergeSortK.sortPartitions(boxedPartitions, config);
+    }
+
+    /**
+     * Sort int blocks.
+     */
+    @Benchmark
+    public int[] sortIntPartitions() {
+        return MergeSortK.sortIntPartitions(intPartitions, config);
+    }
+
+    static List<IntPartition> toIntPartitions(int[][][] data) {
+        return Arrays.stream(data)
+            .map(blocks -> new IntPartition(Arrays.stream(blocks).map(IntBlock::new).collect(Collectors.toList())))
+            .collect(Collectors.toList());
+    }
+}
@@ -3,39 +3,64 @@ package com.company;
 import java.util.List;
 
 /**
- * Block containing sorted array.
+ * Block containing sorted array. The values must not be modified after
+ * they are set, because the bounds are cached.
  */
 public class Block<T extends Comparable> extends ComparableContainer<T> {
 
     private List<T> values;
+    private T       first, last;
 
     public Block(List<T> values){
         this.values = values;
+        updateBounds();
+    }
+
+    /**
+     * Build a block of records, which are sorted by the order.
+     */
+    public static <V> Block<KeyedValue<V>> of(List<? extends V> values, KeyOrder<V> order) {
+        return new Block<>(order.wrap(values));
     }
 
     public List<T> getValues() {
         return values;
     }
 
+    /**
+     * @return a block of values [from, to), which shares the values of this block
+     */
+    public Block<T> slice(int from, int to) {
+        return new Block<>(values.subList(from, to));
+    }
+
     public void setValues(List<T> values) {
         this.values = values;
+        updateBounds();
     }
 
-    @Override
-    public T getFirst() {
+    private void updateBounds() {
         if (values.isEmpty()) {
-            return null;
+            first = null;
+            last = null;
         } else {
-            return values.get(0);
+            first = values.get(0);
+            last = values.get(values.size() - 1);
         }
     }
 
+    @Override
+    public T getFirst() {
+        return first;
+    }
+
     @Override
     public T getLast() {
-        if (values.isEmpty()) {
-            return null;
-        } else {
-            return values.get(values.size() - 1);
-        }
+        return last;
+    }
+
+    @Override
+    public int getValueCount() {
+        return values.size();
     }
 }
@@ -0,0 +1,134 @@
+package com.company;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Per-thread pool of scratch arrays for value merges.
+ *
+ * A degraded merge copies the values of its input blocks into two scratch
+ * arrays, merges them into an output array, and is done with the scratch
+ * arrays. So the inputs are taken from the arena of the merging thread and
+ * given back right after the merge, and the output array is the only array
+ * allocated for the merge. Output arrays can't be pooled, because the blocks
+ * of the sorted result share them.
+ *
+ * Arrays taken and not yet given back are never handed out again, so a
+ * thread can start another merge while it waits, e.g. when a ForkJoinPool
+ * worker helps other tasks during a join.
+ *
+ * Each arena keeps at most MAX_RETAINED_BYTES, so pool threads which live
+ * forever don't hold big buffers: older arrays of the same type are dropped
+ * to make room for a given back array, or the array itself is dropped.
+ */
+public class BufferArena {
+
+    /* Arrays longer than this are never kept, so idle threads don't hold big buffers */
+    private static final int  MAX_POOLED_LENGTH = 1 << 20;
+    /* Arrays of each type kept for each thread */
+    private static final int  MAX_POOLED_COUNT = 4;
+    /* Bytes of all arrays kept for each thread, counting 8 bytes for each reference */
+    static final long         MAX_RETAINED_BYTES = 8L << 20;
+
+    private static final ThreadLocal<BufferArena> ARENAS = ThreadLocal.withInitial(BufferArena::new);
+
+    private final Deque<int[]>        intArrays = new ArrayDeque<>();
+    private final Deque<long[]>       longArrays = new ArrayDeque<>();
+    private final Deque<Comparable[]> valueArrays = new ArrayDeque<>();
+    private long                      retainedBytes;
+
+    /**
+     * @return the arena of the current thread
+     */
+    public static BufferArena current() {
+        return ARENAS.get();
+    }
+
+    /**
+     * @return an int array of at least minLength, whose content is undefined
+     */
+    public int[] takeInts(int minLength) {
+        return take(intArrays, minLength, Integer.BYTES, array -> array.length, int[]::new);
+    }
+
+    public void giveBack(int[] array) {
+        giveBack(intArrays, array, Integer.BYTES, pooled -> pooled.length);
+    }
+
+    /**
+     * @return a long array of at least minLength, whose content is undefined
+     */
+    public long[] takeLongs(int minLength) {
+        return take(longArrays, minLength, Long.BYTES, array -> array.length, long[]::new);
+    }
+
+    public void giveBack(long[] array) {
+        giveBack(longArrays, array, Long.BYTES, pooled -> pooled.length);
+    }
+
+    /**
+     * @return an array of at least minLength, which is filled with null
+     */
+    public Comparable[] takeValues(int minLength) {
+        return take(valueArrays, minLength, Long.BYTES, array -> array.length, Comparable[]::new);
+    }
+
+    /**
+     * Give back an array of values, whose references in [0, usedLength) are
+     * cleared, so the pool doesn't keep values alive.
+     */
+    public void giveBack(Comparable[] array, int usedLength) {
+        Arrays.fill(array, 0, usedLength, null);
+        giveBack(valueArrays, array, Long.BYTES, pooled -> pooled.length);
+    }
+
+    /**
+     * Take the first pooled array which is long enough, or allocate one. New
+     * arrays are rounded up to a power of 2, so they fit later merges of
+     * similar sizes.
+     */
+    private <A> A take(Deque<A> pool, int minLength, int elementBytes, ToIntFunction<A> length,
+                       IntFunction<A> allocate) {
+        for (Iterator<A> iterator = pool.iterator(); iterator.hasNext(); ) {
+            A array = iterator.next();
+            if (length.applyAsInt(array) >= minLength) {
+                iterator.remove();
+                retainedBytes -= (long) length.applyAsInt(array) * elementBytes;
+                return array;
+            }
+        }
+        if (minLength <= 1 || minLength > MAX_POOLED_LENGTH) {
+            return allocate.apply(minLength);
+        }
+        return allocate.apply(Integer.highestOneBit(minLength - 1) << 1);
+    }
+
+    private <A> void giveBack(Deque<A> pool, A array, int elementBytes, ToIntFunction<A> length) {
+        int arrayLength = length.applyAsInt(array);
+        long bytes = (long) arrayLength * elementBytes;
+        if (arrayLength > MAX_POOLED_LENGTH || bytes > MAX_RETAINED_BYTES) {
+            return;
+        }
+        // Keep the newer array, whose size fits the current merges.
+        while (!pool.isEmpty() && (pool.size() >= MAX_POOLED_COUNT || retainedBytes + bytes > MAX_RETAINED_BYTES)) {
+            retainedBytes -= (long) length.applyAsInt(pool.pollLast()) * elementBytes;
+        }
+        if (retainedBytes + bytes > MAX_RETAINED_BYTES) {
+            // The arrays of other types fill the arena.
+            return;
+        }
+        pool.addFirst(array);
+        retainedBytes += bytes;
+    }
+
+    /**
+     * @return bytes of the arrays kept by the arena, counting 8 bytes for each reference
+     */
+    long getRetainedBytes() {
+        return retainedBytes;
+    }
+}
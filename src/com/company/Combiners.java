@@ -0,0 +1,32 @@
+package com.company;
+
+import java.util.function.BinaryOperator;
+
+/**
+ * Combiners for {@link SortConfig#setCombiner(BinaryOperator)}.
+ */
+public class Combiners {
+
+    /**
+     * Keep the value of the earliest partition.
+     */
+    public static <T extends Comparable> BinaryOperator<T> keepFirst() {
+        return (earlier, later) -> earlier;
+    }
+
+    /**
+     * Keep the value of the latest partition.
+     */
+    public static <T extends Comparable> BinaryOperator<T> keepLast() {
+        return (earlier, later) -> later;
+    }
+
+    /**
+     * Reduce records with the same key into one, e.g. sum their counts.
+     *
+     * @param reducer reduces the earlier record and the later one into a record with the same key
+     */
+    public static <T> BinaryOperator<KeyedValue<T>> reducing(BinaryOperator<T> reducer) {
+        return (earlier, later) -> earlier.withValue(reducer.apply(earlier.getValue(), later.getValue()));
+    }
+}
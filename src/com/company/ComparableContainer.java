@@ -1,10 +1,25 @@
 package com.company;
 
+/**
+ * Container of sorted values. Bounds are computed once when the container
+ * is built, so the getters are cheap to call in merge loops.
+ */
 public abstract class ComparableContainer<T extends Comparable> implements Comparable<ComparableContainer<T>> {
+    /**
+     * @return the least value, or null if empty
+     */
     public abstract T getFirst();
 
+    /**
+     * @return the biggest value, or null if empty
+     */
     public abstract T getLast();
 
+    /**
+     * @return the count of values
+     */
+    public abstract int getValueCount();
+
     /**
      * If this.least > other.biggest, this > other;
      * If this.biggest < other.least, this < other;
@@ -0,0 +1,134 @@
+package com.company;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Shapes of generated partitions for the JMH benchmarks in benchmarks/.
+ * Each shape generates partitions -> blocks -> sorted values, the same
+ * layout as the data of {@link TestCase}.
+ */
+public enum DataShape {
+    /**
+     * Partitions never overlap: the best case.
+     */
+    DISJOINT {
+        @Override
+        int[][][] generate(Random random, int partitionCount, int valuesPerPartition, int blockSize) {
+            int[][][] partitions = new int[partitionCount][][];
+            for (int i = 0; i < partitionCount; i++) {
+                int base = (int) ((long) i * valuesPerPartition);
+                partitions[i] = cutIntoBlocks(sortedValues(random, valuesPerPartition, base, base + valuesPerPartition),
+                    blockSize);
+            }
+            shuffle(random, partitions);
+            return partitions;
+        }
+    },
+    /**
+     * Every block of every partition overlaps: the worst case.
+     */
+    OVERLAPPING {
+        @Override
+        int[][][] generate(Random random, int partitionCount, int valuesPerPartition, int blockSize) {
+            int[][][] partitions = new int[partitionCount][][];
+            for (int i = 0; i < partitionCount; i++) {
+                partitions[i] = cutIntoBlocks(sortedValues(random, valuesPerPartition, 0, Integer.MAX_VALUE), blockSize);
+            }
+            return partitions;
+        }
+    },
+    /**
+     * Sliding time windows: each partition overlaps half of the next one.
+     */
+    TIME_WINDOWS {
+        @Override
+        int[][][] generate(Random random, int partitionCount, int valuesPerPartition, int blockSize) {
+            int[][][] partitions = new int[partitionCount][][];
+            for (int i = 0; i < partitionCount; i++) {
+                int base = (int) ((long) i * valuesPerPartition / 2);
+                partitions[i] = cutIntoBlocks(sortedValues(random, valuesPerPartition, base, base + valuesPerPartition),
+                    blockSize);
+            }
+            shuffle(random, partitions);
+            return partitions;
+        }
+    },
+    /**
+     * Overlapping partitions with only a few distinct values.
+     */
+    DUPLICATES {
+        @Override
+        int[][][] generate(Random random, int partitionCount, int valuesPerPartition, int blockSize) {
+            int[][][] partitions = new int[partitionCount][][];
+            for (int i = 0; i < partitionCount; i++) {
+                partitions[i] = cutIntoBlocks(sortedValues(random, valuesPerPartition, 0, 16), blockSize);
+            }
+            return partitions;
+        }
+    },
+    /**
+     * Overlapping partitions whose sizes follow 1/rank: a few huge partitions
+     * and many tiny ones, with the same total count of values.
+     */
+    SKEWED {
+        @Override
+        int[][][] generate(Random random, int partitionCount, int valuesPerPartition, int blockSize) {
+            double harmonic = 0;
+            for (int i = 1; i <= partitionCount; i++) {
+                harmonic += 1.0 / i;
+            }
+            int[][][] partitions = new int[partitionCount][][];
+            for (int i = 0; i < partitionCount; i++) {
+                int size = (int) ((long) valuesPerPartition * partitionCount / (i + 1) / harmonic);
+                partitions[i] = cutIntoBlocks(sortedValues(random, size, 0, Integer.MAX_VALUE), blockSize);
+            }
+            shuffle(random, partitions);
+            return partitions;
+        }
+    },
+    /**
+     * Sliding time windows cut into blocks of 4 values, whatever the block size is.
+     */
+    TINY_BLOCKS {
+        @Override
+        int[][][] generate(Random random, int partitionCount, int valuesPerPartition, int blockSize) {
+            return TIME_WINDOWS.generate(random, partitionCount, valuesPerPartition, 4);
+        }
+    };
+
+    /**
+     * @param random random source
+     * @param partitionCount count of partitions
+     * @param valuesPerPartition average count of values in each partition
+     * @param blockSize count of values in each block
+     * @return partitions -> blocks -> sorted values
+     */
+    abstract int[][][] generate(Random random, int partitionCount, int valuesPerPartition, int blockSize);
+
+    private static int[] sortedValues(Random random, int count, int origin, int bound) {
+        int[] values = random.ints(count, origin, bound).toArray();
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Blocks in a partition don't intersect, so cut one sorted array into blocks.
+     */
+    private static int[][] cutIntoBlocks(int[] values, int blockSize) {
+        int[][] blocks = new int[(values.length + blockSize - 1) / blockSize][];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = Arrays.copyOfRange(values, i * blockSize, Math.min((i + 1) * blockSize, values.length));
+        }
+        return blocks;
+    }
+
+    private static void shuffle(Random random, int[][][] partitions) {
+        for (int i = partitions.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int[][] partition = partitions[i];
+            partitions[i] = partitions[j];
+            partitions[j] = partition;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.company;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Coordinator of a sort over several worker processes, each of which owns
+ * some partition files. See {@link DistributedSortWorker}.
+ *
+ * Workers send the footers of their files, i.e. the bounds and value counts
+ * of their blocks, to the coordinator over a socket. The coordinator picks
+ * one key range for each worker, so that ranges hold about as many values,
+ * and sends the splitters back. Each worker cuts its blocks at the splitters
+ * and writes the slices of range r to shuffle files in a new directory of
+ * this sort within the shared work directory, so files left by a failed
+ * sort are never merged. When all workers are done shuffling, worker r
+ * merges the shuffle files of range r with {@link PartitionFileSort}. The
+ * coordinator deletes the shuffle directory when the sort ends or fails.
+ *
+ * The output files of workers 0 to N-1 are sorted, and don't intersect each
+ * other, so together they are the sorted result. No process ever holds more
+ * than its own range, and all workers merge at the same time.
+ *
+ * <pre>
+ * worker -> coordinator: worker id (4 bytes), block count (4 bytes), blocks of
+ *     min (8 bytes), max (8 bytes), count (4 bytes)
+ * coordinator -> worker: splitter count (4 bytes), splitters (8 bytes each),
+ *     name of the shuffle directory (modified UTF-8)
+ * worker -> coordinator: SHUFFLED (4 bytes)
+ * coordinator -> worker: MERGE (4 bytes)
+ * worker -> coordinator: count of values in its output file (8 bytes)
+ * </pre>
+ */
+public class DistributedSort {
+
+    static final int SHUFFLED = 1;
+    static final int MERGE = 2;
+
+    /* Milliseconds to wait for workers to connect, or to reply */
+    private static final int TIMEOUT_MILLIS = 120000;
+
+    /**
+     * Launch one worker process on this machine for each group of input
+     * files, and sort all of them.
+     *
+     * @param workerInputs partition files owned by each worker
+     * @param workDirectory directory for shuffle and output files
+     * @param blockSize count of values in each merged block of the outputs
+     * @return output files in the order of their values
+     * @throws IOException if a worker fails, or files can't be read or written
+     */
+    public static List<Path> sort(List<List<Path>> workerInputs, Path workDirectory, int blockSize)
+        throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, workerInputs.size(), InetAddress.getLoopbackAddress())) {
+            List<Process> processes = new ArrayList<>(workerInputs.size());
+            try {
+                for (int workerId = 0; workerId < workerInputs.size(); workerId++) {
+                    processes.add(launchWorker(serverSocket.getLocalPort(), workerId, workDirectory, blockSize,
+                        workerInputs.get(workerId)));
+                }
+                List<Path> outputPaths = coordinate(serverSocket, workerInputs.size(), workDirectory);
+                for (Process process : processes) {
+                    if (!process.waitFor(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || process.exitValue() != 0) {
+                        throw new IOException("Worker failed: " + process);
+                    }
+                }
+                return outputPaths;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for workers", e);
+            } finally {
+                processes.forEach(Process::destroy);
+            }
+        }
+    }
+
+    /**
+     * Run the protocol with workers which connect to the server socket,
+     * e.g. workers on other machines which share the work directory.
+     *
+     * @param serverSocket socket which workers connect to
+     * @param workerCount count of workers
+     * @param workDirectory directory for shuffle and output files
+     * @return output files in the order of their values
+     * @throws IOException if a worker fails or doesn't reply in time
+     */
+    public static List<Path> coordinate(ServerSocket serverSocket, int workerCount, Path workDirectory)
+        throws IOException {
+        serverSocket.setSoTimeout(TIMEOUT_MILLIS);
+        Socket[] sockets = new Socket[workerCount];
+        Path shuffleDirectory = null;
+        try {
+            // Block bounds of all workers
+            List<PartitionFileReader.BlockIndex> blockIndexes = new ArrayList<>();
+            for (int i = 0; i < workerCount; i++) {
+                Socket socket = serverSocket.accept();
+                socket.setSoTimeout(TIMEOUT_MILLIS);
+                DataInputStream input = new DataInputStream(socket.getInputStream());
+                int workerId = input.readInt();
+                if (workerId < 0 || workerId >= workerCount || sockets[workerId] != null) {
+                    socket.close();
+                    throw new IOException("Unexpected worker id: " + workerId);
+                }
+                sockets[workerId] = socket;
+                for (int blockCount = input.readInt(); blockCount > 0; blockCount--) {
+                    long min = input.readLong(), max = input.readLong();
+                    blockIndexes.add(new PartitionFileReader.BlockIndex(null, 0, 0, input.readInt(), min, max));
+                }
+            }
+
+            List<Long> splitters = pickSplitters(blockIndexes, workerCount);
+            shuffleDirectory = Files.createTempDirectory(workDirectory, "shuffle");
+            for (Socket socket : sockets) {
+                DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                output.writeInt(splitters.size());
+                for (long splitter : splitters) {
+                    output.writeLong(splitter);
+                }
+                output.writeUTF(shuffleDirectory.getFileName().toString());
+                output.flush();
+            }
+
+            // All shuffle files are written before any of them is merged.
+            for (Socket socket : sockets) {
+                if (new DataInputStream(socket.getInputStream()).readInt() != SHUFFLED) {
+                    throw new IOException("Unexpected reply from worker: " + socket);
+                }
+            }
+            for (Socket socket : sockets) {
+                DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+                output.writeInt(MERGE);
+                output.flush();
+            }
+
+            List<Path> outputPaths = new ArrayList<>(workerCount);
+            for (int workerId = 0; workerId < workerCount; workerId++) {
+                new DataInputStream(sockets[workerId].getInputStream()).readLong();
+                outputPaths.add(outputPath(workDirectory, workerId));
+            }
+            return outputPaths;
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+            if (shuffleDirectory != null) {
+                deleteShuffleDirectory(shuffleDirectory);
+            }
+        }
+    }
+
+    /**
+     * Delete the shuffle directory, with the files which weren't merged if
+     * the sort failed.
+     */
+    private static void deleteShuffleDirectory(Path shuffleDirectory) throws IOException {
+        try (Stream<Path> paths = Files.list(shuffleDirectory)) {
+            for (Path path : paths.collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.delete(shuffleDirectory);
+    }
+
+    /**
+     * Pick splitters which cut the values into ranges of about the same
+     * size. Values are assumed to be spread evenly within each block, so the
+     * count of values less than a key is estimated from block bounds alone.
+     *
+     * @return at most rangeCount-1 distinct splitters in ascending order
+     */
+    static List<Long> pickSplitters(List<PartitionFileReader.BlockIndex> blockIndexes, int rangeCount) {
+        long valueCount = 0, low = Long.MAX_VALUE, high = Long.MIN_VALUE;
+        for (PartitionFileReader.BlockIndex blockIndex : blockIndexes) {
+            if (blockIndex.getValueCount() > 0) {
+                valueCount += blockIndex.getValueCount();
+                low = Math.min(low, blockIndex.getMin());
+                high = Math.max(high, blockIndex.getMax());
+            }
+        }
+        if (valueCount == 0) {
+            return Collections.emptyList();
+        }
+
+        List<Long> splitters = new ArrayList<>(rangeCount - 1);
+        for (int range = 1; range < rangeCount; range++) {
+            double rank = (double) valueCount * range / rangeCount;
+            // The least key which has at least rank values before it
+            long from = low, to = high;
+            while (from < to) {
+                long middle = (from & to) + ((from ^ to) >> 1);
+                if (estimateRank(blockIndexes, middle) < rank) {
+                    from = middle + 1;
+                } else {
+                    to = middle;
+                }
+            }
+            if (from > low && (splitters.isEmpty() || splitters.get(splitters.size() - 1) < from)) {
+                splitters.add(from);
+            }
+        }
+        return splitters;
+    }
+
+    /**
+     * @return estimated count of values less than key
+     */
+    private static double estimateRank(List<PartitionFileReader.BlockIndex> blockIndexes, long key) {
+        double rank = 0;
+        for (PartitionFileReader.BlockIndex blockIndex : blockIndexes) {
+            if (blockIndex.getValueCount() == 0 || key <= blockIndex.getMin()) {
+                continue;
+            } else if (key > blockIndex.getMax()) {
+                rank += blockIndex.getValueCount();
+            } else {
+                double width = (double) blockIndex.getMax() - blockIndex.getMin() + 1;
+                rank += blockIndex.getValueCount() * (((double) key - blockIndex.getMin()) / width);
+            }
+        }
+        return rank;
+    }
+
+    static Path outputPath(Path workDirectory, int workerId) {
+        return workDirectory.resolve("output-" + workerId);
+    }
+
+    /**
+     * Start a worker with the class path and module options of this JVM.
+     */
+    private static Process launchWorker(int port, int workerId, Path workDirectory, int blockSize,
+                                        List<Path> inputPaths) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("--add-") || argument.startsWith("-Xm") || argument.equals("-ea")) {
+                command.add(argument);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DistributedSortWorker.class.getName());
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(workerId));
+        command.add(workDirectory.toString());
+        command.add(String.valueOf(blockSize));
+        for (Path inputPath : inputPaths) {
+            command.add(inputPath.toString());
+        }
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+}
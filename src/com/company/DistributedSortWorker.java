@@ -0,0 +1,159 @@
+package com.company;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Worker process of a {@link DistributedSort}. It owns some partition files,
+ * and merges the key range whose index is its worker id.
+ *
+ * Usage: java com.company.DistributedSortWorker port workerId workDirectory blockSize inputPath...
+ */
+public class DistributedSortWorker {
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.parseInt(args[0]);
+        int workerId = Integer.parseInt(args[1]);
+        Path workDirectory = Paths.get(args[2]);
+        int blockSize = Integer.parseInt(args[3]);
+        List<Path> inputPaths = Arrays.stream(args, 4, args.length).map(Paths::get).collect(Collectors.toList());
+        run(new Socket(InetAddress.getLoopbackAddress(), port), workerId, workDirectory, blockSize, inputPaths);
+    }
+
+    /**
+     * Run the protocol of {@link DistributedSort} on a socket connected to the coordinator.
+     */
+    public static void run(Socket socket, int workerId, Path workDirectory, int blockSize, List<Path> inputPaths)
+        throws IOException {
+        try (Socket coordinator = socket) {
+            DataInputStream input = new DataInputStream(coordinator.getInputStream());
+            DataOutputStream output = new DataOutputStream(coordinator.getOutputStream());
+
+            List<PartitionFileReader> readers = new ArrayList<>(inputPaths.size());
+            // Created by the coordinator for this sort only, and deleted by it.
+            Path shuffleDirectory;
+            try {
+                output.writeInt(workerId);
+                List<PartitionFileReader.BlockIndex> blockIndexes = new ArrayList<>();
+                for (Path inputPath : inputPaths) {
+                    PartitionFileReader reader = new PartitionFileReader(inputPath);
+                    readers.add(reader);
+                    blockIndexes.addAll(reader.getBlockIndexes());
+                }
+                output.writeInt(blockIndexes.size());
+                for (PartitionFileReader.BlockIndex blockIndex : blockIndexes) {
+                    output.writeLong(blockIndex.getMin());
+                    output.writeLong(blockIndex.getMax());
+                    output.writeInt(blockIndex.getValueCount());
+                }
+                output.flush();
+
+                List<Comparable> splitters = new ArrayList<>();
+                for (int splitterCount = input.readInt(); splitterCount > 0; splitterCount--) {
+                    splitters.add(input.readLong());
+                }
+                shuffleDirectory = workDirectory.resolve(input.readUTF());
+                for (int i = 0; i < readers.size(); i++) {
+                    shuffle(readers.get(i), splitters, shuffleDirectory, workerId + "-" + i);
+                }
+            } finally {
+                for (PartitionFileReader reader : readers) {
+                    reader.close();
+                }
+            }
+            output.writeInt(DistributedSort.SHUFFLED);
+            output.flush();
+
+            if (input.readInt() != DistributedSort.MERGE) {
+                throw new IOException("Unexpected command from coordinator");
+            }
+            List<Path> shufflePaths;
+            try (Stream<Path> paths = Files.list(shuffleDirectory)) {
+                String prefix = "shuffle-" + workerId + "-";
+                shufflePaths = paths.filter(path -> path.getFileName().toString().startsWith(prefix))
+                    .sorted()
+                    .collect(Collectors.toList());
+            }
+            Path outputPath = DistributedSort.outputPath(workDirectory, workerId);
+            PartitionFileSort.sort(shufflePaths, outputPath, blockSize);
+            for (Path shufflePath : shufflePaths) {
+                Files.delete(shufflePath);
+            }
+
+            long valueCount = 0;
+            try (PartitionFileReader reader = new PartitionFileReader(outputPath)) {
+                for (PartitionFileReader.BlockIndex blockIndex : reader.getBlockIndexes()) {
+                    valueCount += blockIndex.getValueCount();
+                }
+            }
+            output.writeLong(valueCount);
+            output.flush();
+        }
+    }
+
+    /**
+     * Write the slices of each range of a partition file to the shuffle file
+     * "shuffle-range-source". A block within one range is copied without
+     * decoding, and a block across splitters is decoded and cut.
+     */
+    private static void shuffle(PartitionFileReader reader, List<Comparable> splitters, Path shuffleDirectory,
+                                String source) throws IOException {
+        PartitionFileWriter[] writers = new PartitionFileWriter[splitters.size() + 1];
+        try {
+            for (PartitionFileReader.BlockIndex blockIndex : reader.getBlockIndexes()) {
+                if (blockIndex.getValueCount() == 0) {
+                    continue;
+                }
+                int range = rangeOf(splitters, blockIndex.getMin());
+                if (range == rangeOf(splitters, blockIndex.getMax())) {
+                    writer(writers, range, shuffleDirectory, source)
+                        .writeRawBlock(blockIndex, reader.readRawBlock(blockIndex));
+                    continue;
+                }
+                List<List<Block>> rangeBlocks = RangePartitionedMerge.sliceByRanges(
+                    Collections.singletonList(reader.readBlock(blockIndex)), splitters);
+                for (range = 0; range < rangeBlocks.size(); range++) {
+                    for (Block block : rangeBlocks.get(range)) {
+                        writer(writers, range, shuffleDirectory, source).writeBlock((LongBlock) block);
+                    }
+                }
+            }
+        } finally {
+            for (PartitionFileWriter writer : writers) {
+                if (writer != null) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the writer of the shuffle file of a range, which is created on demand
+     */
+    private static PartitionFileWriter writer(PartitionFileWriter[] writers, int range, Path shuffleDirectory,
+                                              String source) throws IOException {
+        if (writers[range] == null) {
+            writers[range] = new PartitionFileWriter(shuffleDirectory.resolve("shuffle-" + range + "-" + source));
+        }
+        return writers[range];
+    }
+
+    /**
+     * @return the range of a value, i.e. the count of splitters which are less than or equal to it
+     */
+    private static int rangeOf(List<Comparable> splitters, long value) {
+        return PartitionQuery.upperBound(splitters, value);
+    }
+}
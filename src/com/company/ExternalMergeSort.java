@@ -0,0 +1,212 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sort memory-mapped long partitions which don't fit on the heap, into a
+ * memory-mapped output file.
+ *
+ * 1. Plan the partitions into clusters of intersecting partitions.
+ * 2. Copy partitions which don't intersect any other to the output as they are.
+ * 3. Merge each cluster with a loser tree. A block which doesn't intersect the
+ *    other heads is copied to the output as a whole.
+ * 4. If a cluster has more partitions than the heap budget allows to merge at
+ *    once, merge groups of them into temporary files first.
+ *
+ * Values are only read and written through mapped buffers, and mapped blocks
+ * are created when a cursor reaches them, see {@link MappedLongPartition}.
+ * So the heap holds O(fan-in) cursors and a few objects for each mapped
+ * segment, no matter how many values or blocks there are.
+ */
+public class ExternalMergeSort {
+
+    /* Estimated heap bytes for each merged partition: its cursor, current block, mapping and node in the loser tree */
+    private static final int BYTES_PER_SOURCE = 1024;
+
+    private final Path workDirectory;
+    private final long heapBudget;
+    private final int  blockSize;
+
+    /**
+     * @param workDirectory directory for temporary files
+     * @param heapBudget heap bytes which merging may use
+     * @param blockSize count of values in each block of the output
+     */
+    public ExternalMergeSort(Path workDirectory, long heapBudget, int blockSize){
+        this.workDirectory = workDirectory;
+        this.heapBudget = heapBudget;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return the count of partitions merged at once
+     */
+    public int getMaxFanIn() {
+        return (int) Math.max(2, Math.min(Integer.MAX_VALUE, heapBudget / BYTES_PER_SOURCE));
+    }
+
+    /**
+     * Sort partitions into the output file.
+     *
+     * @param partitions partitions to be sorted
+     * @param outputPath the output file
+     * @return the output file mapped as a partition
+     * @throws IOException if files can't be mapped or written
+     */
+    public MappedLongPartition sort(List<MappedLongPartition> partitions, Path outputPath) throws IOException {
+        List<Path> tempPaths = new ArrayList<>();
+        try {
+            List<List<Partition>> clusters = OverlapPlanner.plan(partitions);
+            long valueCount = 0;
+            for (int i = 0; i < clusters.size(); i++) {
+                while (clusters.get(i).size() > getMaxFanIn()) {
+                    clusters.set(i, mergePass(clusters.get(i), tempPaths));
+                }
+                for (Partition partition : clusters.get(i)) {
+                    valueCount += partition.getValueCount();
+                }
+            }
+
+            try (MappedLongWriter writer = new MappedLongWriter(outputPath, valueCount)) {
+                for (List<Partition> cluster : clusters) {
+                    merge(cluster, writer);
+                }
+            }
+        } finally {
+            for (Path tempPath : tempPaths) {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+        return MappedLongPartition.open(outputPath, blockSize);
+    }
+
+    /**
+     * Merge each group of getMaxFanIn() partitions into a temporary file.
+     *
+     * @return the merged partitions
+     */
+    private List<Partition> mergePass(List<Partition> partitions, List<Path> tempPaths) throws IOException {
+        List<Partition> outputList = new ArrayList<>();
+        for (int from = 0; from < partitions.size(); from += getMaxFanIn()) {
+            List<Partition> group = partitions.subList(from, Math.min(from + getMaxFanIn(), partitions.size()));
+            long valueCount = 0;
+            for (Partition partition : group) {
+                valueCount += partition.getValueCount();
+            }
+
+            Path tempPath = Files.createTempFile(workDirectory, "merge", ".tmp");
+            tempPaths.add(tempPath);
+            try (MappedLongWriter writer = new MappedLongWriter(tempPath, valueCount)) {
+                merge(group, writer);
+            }
+            outputList.add(MappedLongPartition.open(tempPath, blockSize));
+        }
+        return outputList;
+    }
+
+    /**
+     * Merge partitions into the writer with a loser tree.
+     */
+    private static void merge(List<Partition> partitions, MappedLongWriter writer) throws IOException {
+        MappedLongLoserTree tree = new MappedLongLoserTree(partitions);
+        for (int winner; (winner = tree.winner()) >= 0; ) {
+            // Copy the whole block if it doesn't intersect the other heads.
+            if (tree.isAtBlockStart(winner)) {
+                int runnerUp = tree.runnerUp();
+                if (runnerUp < 0 || tree.getBlock(winner).getLastLong() <= tree.head(runnerUp)) {
+                    writer.write(tree.getBlock(winner), tree.getBlock(winner).getFrom());
+                    tree.skipBlock(winner);
+                    continue;
+                }
+            }
+            writer.write(tree.head(winner));
+            tree.advance(winner);
+        }
+    }
+
+    /**
+     * Loser tree over the head values of K mapped partitions.
+     */
+    private static class MappedLongLoserTree extends LoserTree {
+
+        // Block lists of the partitions, whose blocks are created when they are read.
+        private final List<?>[]           sourceBlocks;
+        private final MappedLongBlock[]   blocks;
+        private final int[]               blockIndexes, positions;
+        private final long[]              heads;
+        private final boolean[]           exhausted;
+
+        MappedLongLoserTree(List<Partition> partitions){
+            super(partitions.size());
+            int sourceCount = partitions.size();
+            this.sourceBlocks = new List<?>[sourceCount];
+            this.blocks = new MappedLongBlock[sourceCount];
+            this.blockIndexes = new int[sourceCount];
+            this.positions = new int[sourceCount];
+            this.heads = new long[sourceCount];
+            this.exhausted = new boolean[sourceCount];
+            for (int source = 0; source < sourceCount; source++) {
+                sourceBlocks[source] = partitions.get(source).getBlockList();
+                blockIndexes[source] = -1;
+                nextBlock(source);
+            }
+            init();
+        }
+
+        long head(int source) {
+            return heads[source];
+        }
+
+        MappedLongBlock getBlock(int source) {
+            return blocks[source];
+        }
+
+        boolean isAtBlockStart(int source) {
+            return positions[source] == getBlock(source).getFrom();
+        }
+
+        void advance(int source) {
+            MappedLongBlock block = getBlock(source);
+            if (++positions[source] < block.getTo()) {
+                heads[source] = block.getBuffer().get(positions[source]);
+            } else {
+                nextBlock(source);
+            }
+            adjust();
+        }
+
+        void skipBlock(int source) {
+            nextBlock(source);
+            adjust();
+        }
+
+        private void nextBlock(int source) {
+            List<?> blockList = sourceBlocks[source];
+            while (++blockIndexes[source] < blockList.size()) {
+                MappedLongBlock block = (MappedLongBlock) blockList.get(blockIndexes[source]);
+                if (!block.isEmpty()) {
+                    blocks[source] = block;
+                    positions[source] = block.getFrom();
+                    heads[source] = block.getFirstLong();
+                    return;
+                }
+            }
+            blocks[source] = null;
+            exhausted[source] = true;
+        }
+
+        @Override
+        protected boolean isExhausted(int source) {
+            return exhausted[source];
+        }
+
+        @Override
+        protected int compare(int source1, int source2) {
+            return Long.compare(heads[source1], heads[source2]);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.company;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Block containing a sorted slice of an int array. Values are only boxed
+ * when they are read through the generic {@link Block} interface.
+ */
+public class IntBlock extends Block<Integer> {
+
+    private final int[] array;
+    private final int   from, to;
+
+    public IntBlock(int[] array){
+        this(array, 0, array.length);
+    }
+
+    public IntBlock(int[] array, int from, int to){
+        super(new IntSliceList(array, from, to));
+        this.array = array;
+        this.from = from;
+        this.to = to;
+    }
+
+    public int[] getArray() {
+        return array;
+    }
+
+    @Override
+    public IntBlock slice(int from, int to) {
+        return new IntBlock(array, this.from + from, this.from + to);
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public int getValueCount() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return to == from;
+    }
+
+    public int getFirstInt() {
+        return array[from];
+    }
+
+    public int getLastInt() {
+        return array[to - 1];
+    }
+
+    /**
+     * Copy the values into dest, starting at offset.
+     *
+     * @return the offset after the copied values
+     */
+    public int copyTo(int[] dest, int offset) {
+        System.arraycopy(array, from, dest, offset, to - from);
+        return offset + to - from;
+    }
+
+    @Override
+    public void setValues(List<Integer> values) {
+        throw new UnsupportedOperationException("IntBlock is backed by an int array");
+    }
+
+    /**
+     * Read-only boxed view of an int array slice.
+     */
+    private static class IntSliceList extends AbstractList<Integer> implements RandomAccess {
+
+        private final int[] array;
+        private final int   from, to;
+
+        IntSliceList(int[] array, int from, int to){
+            this.array = array;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return array[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.company;
+
+import java.util.List;
+
+/**
+ * Partition containing sorted int blocks.
+ */
+public class IntPartition extends Partition<Integer> {
+
+    @SuppressWarnings("unchecked")
+    public IntPartition(List<IntBlock> blockList){
+        super((List) blockList);
+    }
+
+    /**
+     * Copy the values into dest, starting at offset.
+     *
+     * @return the offset after the copied values
+     */
+    public int copyTo(int[] dest, int offset) {
+        for (Block<Integer> block : getBlockList()) {
+            offset = ((IntBlock) block).copyTo(dest, offset);
+        }
+        return offset;
+    }
+
+    public int[] toIntArray() {
+        int[] values = new int[getValueCount()];
+        copyTo(values, 0);
+        return values;
+    }
+}
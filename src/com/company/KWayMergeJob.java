@@ -0,0 +1,480 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Job for sorting K partition lists at once with a loser tree.
+ *
+ * Like {@link MergeSortJob}, a container which doesn't intersect any other
+ * head is output as a whole. Intersecting containers are collected until the
+ * next head is bigger than all of them, and then Partition merging is
+ * transformed to Block merging, and Block merging to Value merging. Unlike the
+ * pairwise merge tree, each value is moved only once.
+ */
+public class KWayMergeJob implements Runnable {
+
+    private List<List<Partition>>   inputLists;
+    private List<Partition>         outputList;
+    private final MergeSortListener listener;
+    private final SortCancellation  cancellation;
+    private final MergeSortMetrics  metrics = new MergeSortMetrics();
+    // Time when the job is put into the queue, or forked.
+    private final long              queuedNanos;
+
+    public KWayMergeJob(List<List<Partition>> inputLists){
+        this(inputLists, null);
+    }
+
+    public KWayMergeJob(List<List<Partition>> inputLists, MergeSortListener listener){
+        this(inputLists, listener, SortCancellation.NONE);
+    }
+
+    public KWayMergeJob(List<List<Partition>> inputLists, MergeSortListener listener, SortCancellation cancellation){
+        this(inputLists, listener, cancellation, System.nanoTime());
+    }
+
+    /**
+     * @param queuedNanos System.nanoTime() when the job is queued or forked,
+     *                    for jobs which are created when they start
+     */
+    KWayMergeJob(List<List<Partition>> inputLists, MergeSortListener listener, SortCancellation cancellation,
+                 long queuedNanos){
+        this.queuedNanos = queuedNanos;
+        this.inputLists = inputLists;
+        this.listener = listener;
+        this.cancellation = cancellation;
+    }
+
+    public List<Partition> getOutputList() {
+        return outputList;
+    }
+
+    /**
+     * @return counters of this job, available after it's finished
+     */
+    public MergeSortMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void run() {
+        MergeJobEvent event = new MergeJobEvent();
+        event.begin();
+        long startNanos = System.nanoTime();
+
+        outputList = mergeSortContainers(inputLists, metrics, cancellation);
+
+        long endNanos = System.nanoTime();
+        metrics.recordJob(startNanos - queuedNanos, endNanos - startNanos, Thread.currentThread().getName());
+        event.end();
+        if (event.shouldCommit()) {
+            event.jobType = "k-way";
+            event.inputContainers = inputLists.stream().mapToInt(List::size).sum();
+            event.outputContainers = outputList.size();
+            event.shortcuts = metrics.getPartitionShortcuts() + metrics.getBlockShortcuts();
+            event.degradedMerges = metrics.getPartitionMerges() + metrics.getBlockMerges();
+            event.valuesCopied = metrics.getValuesCopied();
+            event.queueWait = startNanos - queuedNanos;
+            event.commit();
+        }
+        if (listener != null) {
+            listener.onJobFinished(metrics);
+        }
+    }
+
+    /**
+     * Merge sort K block lists or K partition lists.
+     *
+     * @param inputLists block lists or partition lists
+     * @param metrics counters of the job
+     * @param cancellation checked before each container
+     * @return output block list or partition list
+     */
+    static List mergeSortContainers(List<? extends List<? extends ComparableContainer>> inputLists,
+                                    MergeSortMetrics metrics, SortCancellation cancellation) {
+        List outputList = new ArrayList<>();
+        ContainerLoserTree tree = new ContainerLoserTree(inputLists);
+        List<List<ComparableContainer>> tempLists = new ArrayList<>(inputLists.size());
+        for (int i = 0; i < inputLists.size(); i++) {
+            tempLists.add(new ArrayList<>());
+        }
+
+        while (tree.winner() >= 0) {
+            cancellation.check();
+            ComparableContainer container = pollNext(tree, tempLists, metrics);
+            if (container != null) {
+                outputList.add(container);
+            } else {
+                outputList.addAll(mergeIntersectingContainers(tempLists, metrics, cancellation));
+                tempLists.forEach(List::clear);
+            }
+        }
+        return outputList;
+    }
+
+    /**
+     * Take the next container from the tree if it doesn't intersect any other
+     * head. Otherwise, collect intersecting containers into tempLists until
+     * the next head is bigger than all of them.
+     *
+     * @param tree tree which has at least one head
+     * @param tempLists one empty list for each source
+     * @param metrics counters of the job
+     * @return the container to be output directly, or null if tempLists are filled
+     */
+    static ComparableContainer pollNext(ContainerLoserTree tree, List<List<ComparableContainer>> tempLists,
+                                        MergeSortMetrics metrics) {
+        int winner = tree.winner();
+        ComparableContainer container = tree.head(winner);
+        int runnerUp = tree.runnerUp();
+
+        // The least container doesn't intersect any other head, output it directly.
+        if (runnerUp < 0 || container.getLast().compareTo(tree.head(runnerUp).getFirst()) <= 0) {
+            metrics.recordShortcut(container);
+            tree.advance(winner);
+            return container;
+        }
+
+        // Collect conflicting containers until the next head is bigger than all of them.
+        Comparable lastBiggest = container.getLast();
+        tempLists.get(winner).add(container);
+        tree.advance(winner);
+        while ((winner = tree.winner()) >= 0) {
+            ComparableContainer next = tree.head(winner);
+            if (next.getFirst().compareTo(lastBiggest) >= 0) {
+                break;
+            }
+            tempLists.get(winner).add(next);
+            Comparable biggest = next.getLast();
+            lastBiggest = lastBiggest.compareTo(biggest) <= 0 ? biggest : lastBiggest;
+            tree.advance(winner);
+        }
+        metrics.recordMerge(container, tempLists.stream().mapToInt(List::size).sum());
+        return null;
+    }
+
+    /**
+     * Merge K lists of intersecting containers. Partition merging is
+     * transformed to Block merging, and Block merging is transformed to
+     * Value merging.
+     */
+    static List<Comparable> mergeIntersectingContainers(List<List<ComparableContainer>> inputLists,
+                                                        MergeSortMetrics metrics, SortCancellation cancellation) {
+        List<List<ComparableContainer>> sourceLists = new ArrayList<>();
+        int containerCount = 0;
+        for (List<ComparableContainer> inputList : inputLists) {
+            if (!inputList.isEmpty()) {
+                sourceLists.add(inputList);
+                containerCount += inputList.size();
+            }
+        }
+
+        ComparableContainer sample = sourceLists.get(0).get(0);
+        if (sample instanceof Partition) {
+            List<List<Block>> blockLists = new ArrayList<>(sourceLists.size());
+            for (List<ComparableContainer> sourceList : sourceLists) {
+                List<Block> blockList = new ArrayList<>();
+                sourceList.forEach(partition -> blockList.addAll(((Partition) partition).getBlockList()));
+                blockLists.add(blockList);
+            }
+            List<Comparable> outputBlockList = mergeSortContainers(blockLists, metrics, cancellation);
+            return MergeSortJob.splitIntoContainers(outputBlockList, containerCount);
+        } else if (sample instanceof IntBlock) {
+            IntValueLoserTree tree = new IntValueLoserTree(sourceLists);
+            metrics.recordValuesCopied(tree.getTotalSize());
+            int[] outputValues = new int[tree.getTotalSize()];
+            for (int i = 0, winner; (winner = tree.winner()) >= 0; i++) {
+                outputValues[i] = tree.head(winner);
+                tree.advance(winner);
+            }
+            return MergeSortJob.splitIntoIntBlocks(outputValues, containerCount);
+        } else if (sample instanceof LongBlock) {
+            LongValueLoserTree tree = new LongValueLoserTree(sourceLists);
+            metrics.recordValuesCopied(tree.getTotalSize());
+            long[] outputValues = new long[tree.getTotalSize()];
+            for (int i = 0, winner; (winner = tree.winner()) >= 0; i++) {
+                outputValues[i] = tree.head(winner);
+                tree.advance(winner);
+            }
+            return MergeSortJob.splitIntoLongBlocks(outputValues, containerCount);
+        } else {
+            ValueLoserTree tree = new ValueLoserTree(sourceLists);
+            metrics.recordValuesCopied(tree.getTotalSize());
+            List<Comparable> outputValues = new ArrayList<>(tree.getTotalSize());
+            for (int winner; (winner = tree.winner()) >= 0; ) {
+                outputValues.add(tree.head(winner));
+                tree.advance(winner);
+            }
+            return MergeSortJob.splitIntoContainers(outputValues, containerCount);
+        }
+    }
+
+    /**
+     * Loser tree over the head containers of K lists, ordered by the least
+     * value. Empty containers are skipped.
+     */
+    static class ContainerLoserTree extends LoserTree {
+
+        private final List<? extends List<? extends ComparableContainer>> sourceLists;
+        private final int[]                                              positions;
+        private final Comparable[]                                       heads;
+
+        ContainerLoserTree(List<? extends List<? extends ComparableContainer>> sourceLists){
+            super(sourceLists.size());
+            this.sourceLists = sourceLists;
+            this.positions = new int[sourceLists.size()];
+            this.heads = new Comparable[sourceLists.size()];
+            for (int source = 0; source < sourceLists.size(); source++) {
+                positions[source] = -1;
+                moveToNext(source);
+            }
+            init();
+        }
+
+        ComparableContainer head(int source) {
+            return sourceLists.get(source).get(positions[source]);
+        }
+
+        void advance(int source) {
+            moveToNext(source);
+            adjust();
+        }
+
+        private void moveToNext(int source) {
+            List<? extends ComparableContainer> sourceList = sourceLists.get(source);
+            heads[source] = null;
+            while (++positions[source] < sourceList.size()) {
+                Comparable first = sourceList.get(positions[source]).getFirst();
+                if (first != null) {
+                    heads[source] = first;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        protected boolean isExhausted(int source) {
+            return heads[source] == null;
+        }
+
+        @Override
+        protected int compare(int source1, int source2) {
+            return heads[source1].compareTo(heads[source2]);
+        }
+    }
+
+    /**
+     * Loser tree over the head values of K block lists.
+     */
+    private static class ValueLoserTree extends LoserTree {
+
+        private final List<List<ComparableContainer>> sourceLists;
+        private final int[]                           blockIndexes, positions;
+        private final Comparable[]                    heads;
+        private final boolean[]                       exhausted;
+        private int                                   totalSize;
+
+        ValueLoserTree(List<List<ComparableContainer>> sourceLists){
+            super(sourceLists.size());
+            int sourceCount = sourceLists.size();
+            this.sourceLists = sourceLists;
+            this.blockIndexes = new int[sourceCount];
+            this.positions = new int[sourceCount];
+            this.heads = new Comparable[sourceCount];
+            this.exhausted = new boolean[sourceCount];
+            for (int source = 0; source < sourceCount; source++) {
+                for (ComparableContainer block : sourceLists.get(source)) {
+                    totalSize += block.getValueCount();
+                }
+                blockIndexes[source] = 0;
+                positions[source] = -1;
+                moveToNext(source);
+            }
+            init();
+        }
+
+        int getTotalSize() {
+            return totalSize;
+        }
+
+        Comparable head(int source) {
+            return heads[source];
+        }
+
+        void advance(int source) {
+            moveToNext(source);
+            adjust();
+        }
+
+        private void moveToNext(int source) {
+            List<ComparableContainer> blockList = sourceLists.get(source);
+            while (blockIndexes[source] < blockList.size()) {
+                List values = ((Block) blockList.get(blockIndexes[source])).getValues();
+                if (++positions[source] < values.size()) {
+                    heads[source] = (Comparable) values.get(positions[source]);
+                    return;
+                }
+                blockIndexes[source]++;
+                positions[source] = -1;
+            }
+            exhausted[source] = true;
+        }
+
+        @Override
+        protected boolean isExhausted(int source) {
+            return exhausted[source];
+        }
+
+        @Override
+        protected int compare(int source1, int source2) {
+            return heads[source1].compareTo(heads[source2]);
+        }
+    }
+
+    /**
+     * Loser tree over the head values of K int block lists, without boxing.
+     */
+    private static class IntValueLoserTree extends LoserTree {
+
+        private final IntBlock[][] sourceBlocks;
+        private final int[]        blockIndexes, positions, ends;
+        private final int[]        heads;
+        private final boolean[]    exhausted;
+        private int                totalSize;
+
+        IntValueLoserTree(List<List<ComparableContainer>> sourceLists){
+            super(sourceLists.size());
+            int sourceCount = sourceLists.size();
+            this.sourceBlocks = new IntBlock[sourceCount][];
+            this.blockIndexes = new int[sourceCount];
+            this.positions = new int[sourceCount];
+            this.ends = new int[sourceCount];
+            this.heads = new int[sourceCount];
+            this.exhausted = new boolean[sourceCount];
+            for (int source = 0; source < sourceCount; source++) {
+                sourceBlocks[source] = sourceLists.get(source).toArray(new IntBlock[0]);
+                for (IntBlock block : sourceBlocks[source]) {
+                    totalSize += block.size();
+                }
+                blockIndexes[source] = -1;
+                nextBlock(source);
+            }
+            init();
+        }
+
+        int getTotalSize() {
+            return totalSize;
+        }
+
+        int head(int source) {
+            return heads[source];
+        }
+
+        void advance(int source) {
+            if (++positions[source] < ends[source]) {
+                heads[source] = sourceBlocks[source][blockIndexes[source]].getArray()[positions[source]];
+            } else {
+                nextBlock(source);
+            }
+            adjust();
+        }
+
+        private void nextBlock(int source) {
+            IntBlock[] blocks = sourceBlocks[source];
+            while (++blockIndexes[source] < blocks.length) {
+                IntBlock block = blocks[blockIndexes[source]];
+                if (!block.isEmpty()) {
+                    positions[source] = block.getFrom();
+                    ends[source] = block.getTo();
+                    heads[source] = block.getFirstInt();
+                    return;
+                }
+            }
+            exhausted[source] = true;
+        }
+
+        @Override
+        protected boolean isExhausted(int source) {
+            return exhausted[source];
+        }
+
+        @Override
+        protected int compare(int source1, int source2) {
+            return Integer.compare(heads[source1], heads[source2]);
+        }
+    }
+
+    /**
+     * Loser tree over the head values of K long block lists, without boxing.
+     */
+    private static class LongValueLoserTree extends LoserTree {
+
+        private final LongBlock[][] sourceBlocks;
+        private final int[]         blockIndexes, positions, ends;
+        private final long[]        heads;
+        private final boolean[]     exhausted;
+        private int                 totalSize;
+
+        LongValueLoserTree(List<List<ComparableContainer>> sourceLists){
+            super(sourceLists.size());
+            int sourceCount = sourceLists.size();
+            this.sourceBlocks = new LongBlock[sourceCount][];
+            this.blockIndexes = new int[sourceCount];
+            this.positions = new int[sourceCount];
+            this.ends = new int[sourceCount];
+            this.heads = new long[sourceCount];
+            this.exhausted = new boolean[sourceCount];
+            for (int source = 0; source < sourceCount; source++) {
+                sourceBlocks[source] = sourceLists.get(source).toArray(new LongBlock[0]);
+                for (LongBlock block : sourceBlocks[source]) {
+                    totalSize += block.size();
+                }
+                blockIndexes[source] = -1;
+                nextBlock(source);
+            }
+            init();
+        }
+
+        int getTotalSize() {
+            return totalSize;
+        }
+
+        long head(int source) {
+            return heads[source];
+        }
+
+        void advance(int source) {
+            if (++positions[source] < ends[source]) {
+                heads[source] = sourceBlocks[source][blockIndexes[source]].getArray()[positions[source]];
+            } else {
+                nextBlock(source);
+            }
+            adjust();
+        }
+
+        private void nextBlock(int source) {
+            LongBlock[] blocks = sourceBlocks[source];
+            while (++blockIndexes[source] < blocks.length) {
+                LongBlock block = blocks[blockIndexes[source]];
+                if (!block.isEmpty()) {
+                    positions[source] = block.getFrom();
+                    ends[source] = block.getTo();
+                    heads[source] = block.getFirstLong();
+                    return;
+                }
+            }
+            exhausted[source] = true;
+        }
+
+        @Override
+        protected boolean isExhausted(int source) {
+            return exhausted[source];
+        }
+
+        @Override
+        protected int compare(int source1, int source2) {
+            return Long.compare(heads[source1], heads[source2]);
+        }
+    }
+}
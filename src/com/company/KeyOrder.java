@@ -0,0 +1,106 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Order of records: a comparator, and optionally a normalized key prefix.
+ *
+ * A prefix function maps each record to a long, so that comparing the
+ * prefixes as unsigned longs never contradicts the comparator:
+ * if prefix(a) < prefix(b), then a < b. Records with equal prefixes are
+ * compared by the comparator. Without a prefix function, all prefixes are 0
+ * and the comparator decides every comparison.
+ */
+public class KeyOrder<T> {
+
+    private final Comparator<? super T>     comparator;
+    private final ToLongFunction<? super T> prefixFunction;
+
+    private KeyOrder(Comparator<? super T> comparator, ToLongFunction<? super T> prefixFunction){
+        this.comparator = comparator;
+        this.prefixFunction = prefixFunction;
+    }
+
+    /**
+     * Order records by a comparator.
+     */
+    public static <T> KeyOrder<T> of(Comparator<? super T> comparator) {
+        return new KeyOrder<>(comparator, null);
+    }
+
+    /**
+     * Order records by a key extracted from each of them.
+     */
+    public static <T, K extends Comparable<? super K>> KeyOrder<T> comparing(Function<? super T, ? extends K> keyExtractor) {
+        return of(Comparator.comparing(keyExtractor));
+    }
+
+    /**
+     * Order records by a string key, with the first chars of the key as the prefix.
+     */
+    public static <T> KeyOrder<T> comparingString(Function<? super T, String> keyExtractor) {
+        return KeyOrder.<T, String>comparing(keyExtractor).withPrefix(value -> stringPrefix(keyExtractor.apply(value)));
+    }
+
+    /**
+     * Order records by a long key, with the whole key as the prefix.
+     */
+    public static <T> KeyOrder<T> comparingLong(ToLongFunction<? super T> keyExtractor) {
+        return new KeyOrder<T>(Comparator.comparingLong(keyExtractor),
+            value -> longPrefix(keyExtractor.applyAsLong(value)));
+    }
+
+    /**
+     * @param prefixFunction maps records to prefixes which keep the order of the comparator
+     * @return the same order with cached prefixes
+     */
+    public KeyOrder<T> withPrefix(ToLongFunction<? super T> prefixFunction) {
+        return new KeyOrder<>(comparator, prefixFunction);
+    }
+
+    public Comparator<? super T> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Wrap a record with its prefix.
+     */
+    public KeyedValue<T> wrap(T value) {
+        return new KeyedValue<>(value, prefixFunction == null ? 0 : prefixFunction.applyAsLong(value), comparator);
+    }
+
+    /**
+     * Wrap sorted records.
+     */
+    public List<KeyedValue<T>> wrap(List<? extends T> values) {
+        List<KeyedValue<T>> keyedValues = new ArrayList<>(values.size());
+        for (T value : values) {
+            keyedValues.add(wrap(value));
+        }
+        return keyedValues;
+    }
+
+    /**
+     * The first 4 chars of a string, i.e. its first 8 bytes in UTF-16, padded
+     * with 0. Unsigned comparison of prefixes keeps the order of
+     * {@link String#compareTo(String)}.
+     */
+    public static long stringPrefix(String key) {
+        long prefix = 0;
+        for (int i = 0; i < 4; i++) {
+            prefix = (prefix << 16) | (i < key.length() ? key.charAt(i) : 0);
+        }
+        return prefix;
+    }
+
+    /**
+     * A signed long whose unsigned comparison keeps the signed order.
+     */
+    public static long longPrefix(long key) {
+        return key ^ Long.MIN_VALUE;
+    }
+}
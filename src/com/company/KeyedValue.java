@@ -0,0 +1,52 @@
+package com.company;
+
+import java.util.Comparator;
+
+/**
+ * A record wrapped with its order, so it can be sorted as a Comparable value.
+ *
+ * A normalized key prefix is cached for each record. Prefixes are compared
+ * as unsigned longs first, and the full comparator only runs when the
+ * prefixes are equal. See {@link KeyOrder}.
+ */
+public class KeyedValue<T> implements Comparable<KeyedValue<T>> {
+
+    private final T                     value;
+    private final long                  prefix;
+    private final Comparator<? super T> comparator;
+
+    KeyedValue(T value, long prefix, Comparator<? super T> comparator){
+        this.value = value;
+        this.prefix = prefix;
+        this.comparator = comparator;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public long getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return a record with the same key, i.e. it must compare equal to this one
+     */
+    KeyedValue<T> withValue(T value) {
+        return new KeyedValue<>(value, prefix, comparator);
+    }
+
+    @Override
+    public int compareTo(KeyedValue<T> other) {
+        int result = Long.compareUnsigned(prefix, other.prefix);
+        if (result != 0) {
+            return result;
+        }
+        return comparator.compare(value, other.value);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,104 @@
+package com.company;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Block containing a sorted slice of a long array. Values are only boxed
+ * when they are read through the generic {@link Block} interface.
+ */
+public class LongBlock extends Block<Long> {
+
+    private final long[] array;
+    private final int   from, to;
+
+    public LongBlock(long[] array){
+        this(array, 0, array.length);
+    }
+
+    public LongBlock(long[] array, int from, int to){
+        super(new LongSliceList(array, from, to));
+        this.array = array;
+        this.from = from;
+        this.to = to;
+    }
+
+    public long[] getArray() {
+        return array;
+    }
+
+    @Override
+    public LongBlock slice(int from, int to) {
+        return new LongBlock(array, this.from + from, this.from + to);
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public int getValueCount() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return to == from;
+    }
+
+    public long getFirstLong() {
+        return array[from];
+    }
+
+    public long getLastLong() {
+        return array[to - 1];
+    }
+
+    /**
+     * Copy the values into dest, starting at offset.
+     *
+     * @return the offset after the copied values
+     */
+    public int copyTo(long[] dest, int offset) {
+        System.arraycopy(array, from, dest, offset, to - from);
+        return offset + to - from;
+    }
+
+    @Override
+    public void setValues(List<Long> values) {
+        throw new UnsupportedOperationException("LongBlock is backed by a long array");
+    }
+
+    /**
+     * Read-only boxed view of a long array slice.
+     */
+    private static class LongSliceList extends AbstractList<Long> implements RandomAccess {
+
+        private final long[] array;
+        private final int   from, to;
+
+        LongSliceList(long[] array, int from, int to){
+            this.array = array;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Long get(int index) {
+            return array[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
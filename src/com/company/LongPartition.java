@@ -0,0 +1,32 @@
+package com.company;
+
+import java.util.List;
+
+/**
+ * Partition containing sorted long blocks.
+ */
+public class LongPartition extends Partition<Long> {
+
+    @SuppressWarnings("unchecked")
+    public LongPartition(List<LongBlock> blockList){
+        super((List) blockList);
+    }
+
+    /**
+     * Copy the values into dest, starting at offset.
+     *
+     * @return the offset after the copied values
+     */
+    public int copyTo(long[] dest, int offset) {
+        for (Block<Long> block : getBlockList()) {
+            offset = ((LongBlock) block).copyTo(dest, offset);
+        }
+        return offset;
+    }
+
+    public long[] toLongArray() {
+        long[] values = new long[getValueCount()];
+        copyTo(values, 0);
+        return values;
+    }
+}
@@ -0,0 +1,114 @@
+package com.company;
+
+/**
+ * Tournament tree of losers over K sorted sources.
+ *
+ * Each inner node stores the source which lost the match at that node, and
+ * the overall winner is kept at the root. After the winner's head changes,
+ * only the path from its leaf to the root is replayed, so picking the next
+ * head costs log(K) comparisons.
+ *
+ * Leaf i is the implicit node K + i, and the parent of node n is n / 2.
+ */
+public abstract class LoserTree {
+
+    private final int   sourceCount;
+    // tree[0] is the winner, tree[1..K-1] are the losers.
+    private final int[] tree;
+
+    protected LoserTree(int sourceCount){
+        this.sourceCount = sourceCount;
+        this.tree = new int[Math.max(sourceCount, 1)];
+    }
+
+    /**
+     * @return true if the source has no more heads
+     */
+    protected abstract boolean isExhausted(int source);
+
+    /**
+     * Compare the current heads of two sources which are not exhausted.
+     */
+    protected abstract int compare(int source1, int source2);
+
+    /**
+     * Build the tree. Must be called once the heads of all sources are ready.
+     */
+    protected void init() {
+        if (sourceCount > 0) {
+            tree[0] = build(1);
+        }
+    }
+
+    /**
+     * @return the source with the least head, or -1 if all are exhausted
+     */
+    public int winner() {
+        if (sourceCount == 0 || isExhausted(tree[0])) {
+            return -1;
+        }
+        return tree[0];
+    }
+
+    /**
+     * The second least head always lost directly to the winner, so it's
+     * one of the losers on the winner's path.
+     *
+     * @return the source with the second least head, or -1 if none
+     */
+    public int runnerUp() {
+        int winner = tree[0];
+        int best = -1;
+        for (int node = (winner + sourceCount) >> 1; node > 0; node >>= 1) {
+            int loser = tree[node];
+            if (!isExhausted(loser) && (best < 0 || beats(loser, best))) {
+                best = loser;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Replay the matches from the winner's leaf after its head changed.
+     */
+    protected void adjust() {
+        int winner = tree[0];
+        for (int node = (winner + sourceCount) >> 1; node > 0; node >>= 1) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    private int build(int node) {
+        if (node >= sourceCount) {
+            return node - sourceCount;
+        }
+        int left = build(node * 2), right = build(node * 2 + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        } else {
+            tree[node] = left;
+            return right;
+        }
+    }
+
+    /**
+     * Exhausted sources always lose. Equal heads are won by the lower
+     * source so that the merge is stable.
+     */
+    private boolean beats(int source1, int source2) {
+        if (isExhausted(source1)) {
+            return false;
+        }
+        if (isExhausted(source2)) {
+            return true;
+        }
+        int result = compare(source1, source2);
+        return result < 0 || (result == 0 && source1 < source2);
+    }
+}
@@ -1,9 +1,34 @@
 package com.company;
 
+import java.io.IOException;
+
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
         TestCase.cornerCasesTest();
         TestCase.randomTest();
+        TestCase.randomPrimitiveTest();
+        TestCase.schedulerTest();
+        TestCase.threadPoolOrderTest();
+        TestCase.parallelMergeTest();
+        TestCase.streamingTest();
+        TestCase.plannerTest();
+        TestCase.externalSortTest();
+        TestCase.partitionFileTest();
+        TestCase.dataShapeTest();
+        TestCase.metricsTest();
+        TestCase.recordTest();
+        TestCase.asyncTest();
+        TestCase.storeTest();
+        TestCase.queryTest();
+        TestCase.overlapTest();
+        TestCase.combineTest();
+        TestCase.rangeTest();
+        TestCase.distributedTest();
+        TestCase.virtualThreadTest();
+        TestCase.mergeKernelTest();
+        TestCase.bufferArenaTest();
+        TestCase.radixTest();
+        TestCase.outputSinkTest();
     }
 }
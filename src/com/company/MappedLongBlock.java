@@ -0,0 +1,92 @@
+package com.company;
+
+import java.nio.LongBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Block containing a sorted slice of fixed-width long keys in a memory-mapped
+ * file. The values live off-heap, and they're only boxed when they are read
+ * through the generic {@link Block} interface.
+ */
+public class MappedLongBlock extends Block<Long> {
+
+    private final LongBuffer buffer;
+    private final int        from, to;
+
+    public MappedLongBlock(LongBuffer buffer, int from, int to){
+        super(new MappedSliceList(buffer, from, to));
+        this.buffer = buffer;
+        this.from = from;
+        this.to = to;
+    }
+
+    public LongBuffer getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public MappedLongBlock slice(int from, int to) {
+        return new MappedLongBlock(buffer, this.from + from, this.from + to);
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public int getTo() {
+        return to;
+    }
+
+    public int size() {
+        return to - from;
+    }
+
+    public boolean isEmpty() {
+        return to == from;
+    }
+
+    @Override
+    public int getValueCount() {
+        return to - from;
+    }
+
+    public long getFirstLong() {
+        return buffer.get(from);
+    }
+
+    public long getLastLong() {
+        return buffer.get(to - 1);
+    }
+
+    @Override
+    public void setValues(List<Long> values) {
+        throw new UnsupportedOperationException("MappedLongBlock is backed by a mapped file");
+    }
+
+    /**
+     * Read-only boxed view of a long buffer slice.
+     */
+    private static class MappedSliceList extends AbstractList<Long> implements RandomAccess {
+
+        private final LongBuffer buffer;
+        private final int        from, to;
+
+        MappedSliceList(LongBuffer buffer, int from, int to){
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public Long get(int index) {
+            return buffer.get(from + index);
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+}
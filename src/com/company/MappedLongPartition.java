@@ -0,0 +1,126 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Partition of a memory-mapped file of sorted little-endian longs.
+ *
+ * The file is mapped in segments of at most MAX_SEGMENT_VALUES values,
+ * because one mapping can't exceed 2GB. Blocks never cross segments, and
+ * they are only created when they are read, so the heap holds a few objects
+ * for each segment, however small the blocks are.
+ */
+public class MappedLongPartition extends Partition<Long> {
+
+    /* Values in one mapped segment */
+    static final int MAX_SEGMENT_VALUES = 1 << 27;
+
+    private final Path path;
+
+    @SuppressWarnings("unchecked")
+    private MappedLongPartition(Path path, MappedBlockList blockList, Long first, Long last, long valueCount){
+        super((List) blockList, first, last, (int) valueCount);
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Map a file of sorted longs as a partition.
+     *
+     * @param path the file
+     * @param blockSize count of values in each block
+     * @return the partition
+     * @throws IOException if the file can't be mapped
+     */
+    public static MappedLongPartition open(Path path, int blockSize) throws IOException {
+        List<LongBuffer> segments = new ArrayList<>();
+        long valueCount;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            valueCount = channel.size() / Long.BYTES;
+            for (long segmentStart = 0; segmentStart < valueCount; segmentStart += MAX_SEGMENT_VALUES) {
+                int segmentSize = (int) Math.min(MAX_SEGMENT_VALUES, valueCount - segmentStart);
+                // The mapping stays valid after the channel is closed.
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart * Long.BYTES,
+                    (long) segmentSize * Long.BYTES);
+                segments.add(segment.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer());
+            }
+        }
+        if (segments.isEmpty()) {
+            return new MappedLongPartition(path, new MappedBlockList(segments, blockSize), null, null, 0);
+        }
+        LongBuffer lastSegment = segments.get(segments.size() - 1);
+        return new MappedLongPartition(path, new MappedBlockList(segments, blockSize), segments.get(0).get(0),
+            lastSegment.get(lastSegment.limit() - 1), valueCount);
+    }
+
+    /**
+     * Write sorted longs into a file, and map it as a partition.
+     *
+     * @param path the file
+     * @param values sorted values
+     * @param blockSize count of values in each block
+     * @return the partition
+     * @throws IOException if the file can't be written
+     */
+    public static MappedLongPartition create(Path path, long[] values, int blockSize) throws IOException {
+        try (MappedLongWriter writer = new MappedLongWriter(path, values.length)) {
+            for (long value : values) {
+                writer.write(value);
+            }
+        }
+        return open(path, blockSize);
+    }
+
+    /**
+     * Blocks of blockSize values of each segment, which are created when
+     * they are read. All segments but the last have MAX_SEGMENT_VALUES values.
+     */
+    private static class MappedBlockList extends AbstractList<MappedLongBlock> implements RandomAccess {
+
+        private final List<LongBuffer> segments;
+        private final int              blockSize;
+        private final int              blocksPerSegment;
+        private final int              size;
+
+        MappedBlockList(List<LongBuffer> segments, int blockSize){
+            this.segments = segments;
+            this.blockSize = blockSize;
+            this.blocksPerSegment = (MAX_SEGMENT_VALUES + blockSize - 1) / blockSize;
+            if (segments.isEmpty()) {
+                this.size = 0;
+            } else {
+                int lastSegmentSize = segments.get(segments.size() - 1).limit();
+                this.size = Math.toIntExact((long) (segments.size() - 1) * blocksPerSegment
+                    + (lastSegmentSize + blockSize - 1) / blockSize);
+            }
+        }
+
+        @Override
+        public MappedLongBlock get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Block " + index + " of " + size);
+            }
+            LongBuffer segment = segments.get(index / blocksPerSegment);
+            int from = index % blocksPerSegment * blockSize;
+            return new MappedLongBlock(segment, from, Math.min(from + blockSize, segment.limit()));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
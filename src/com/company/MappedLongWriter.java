@@ -0,0 +1,80 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Write longs sequentially into a memory-mapped file of known size. Only one
+ * window of the file is mapped at a time, and written windows are forced to
+ * the file before the next one is mapped.
+ */
+public class MappedLongWriter implements AutoCloseable {
+
+    /* Values in one mapped window */
+    private static final int WINDOW_VALUES = 1 << 20;
+
+    private final FileChannel channel;
+    private final long        valueCount;
+    private long              windowStart;
+    private MappedByteBuffer  window;
+    private LongBuffer        windowBuffer;
+
+    public MappedLongWriter(Path path, long valueCount) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.valueCount = valueCount;
+        this.windowStart = 0;
+        mapWindow();
+    }
+
+    public void write(long value) throws IOException {
+        if (!windowBuffer.hasRemaining()) {
+            nextWindow();
+        }
+        windowBuffer.put(value);
+    }
+
+    /**
+     * Copy the values of a block from index to its end, window by window.
+     */
+    public void write(MappedLongBlock block, int index) throws IOException {
+        while (index < block.getTo()) {
+            if (!windowBuffer.hasRemaining()) {
+                nextWindow();
+            }
+            int count = Math.min(windowBuffer.remaining(), block.getTo() - index);
+            LongBuffer slice = block.getBuffer().duplicate();
+            slice.limit(index + count).position(index);
+            windowBuffer.put(slice);
+            index += count;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (window != null) {
+                window.force();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void nextWindow() throws IOException {
+        window.force();
+        windowStart += windowBuffer.capacity();
+        mapWindow();
+    }
+
+    private void mapWindow() throws IOException {
+        int windowSize = (int) Math.min(WINDOW_VALUES, valueCount - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart * Long.BYTES, (long) windowSize * Long.BYTES);
+        windowBuffer = window.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+}
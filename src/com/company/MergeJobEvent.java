@@ -0,0 +1,41 @@
+package com.company;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event of a merge job. Its duration is the merge time.
+ */
+@Name("com.company.MergeJob")
+@Label("Merge Job")
+@Category("Sort Partitions")
+@Description("A merge job of the partition sort")
+public class MergeJobEvent extends jdk.jfr.Event {
+
+    @Label("Job Type")
+    String jobType;
+
+    @Label("Input Containers")
+    int inputContainers;
+
+    @Label("Output Containers")
+    int outputContainers;
+
+    @Label("Shortcuts")
+    @Description("Partitions and blocks output as a whole")
+    long shortcuts;
+
+    @Label("Degraded Merges")
+    @Description("Groups of intersecting partitions or blocks merged at the next level")
+    long degradedMerges;
+
+    @Label("Values Copied")
+    long valuesCopied;
+
+    @Label("Queue Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long queueWait;
+}
@@ -0,0 +1,149 @@
+package com.company;
+
+/**
+ * Kernels which merge slices of two sorted int or long arrays.
+ *
+ * The branchy kernel picks the next value with an if, which is mispredicted
+ * about half of the time when the inputs interleave, i.e. in the worst case
+ * where every block overlaps. The branchless kernel computes which input the
+ * next value comes from as 0 or 1, and moves both indexes by it, so the JIT
+ * compiles the choice to conditional moves. Its inner loop runs as many
+ * times as the shorter input has values left, so neither input can run out
+ * inside it, and the rest of the longer input is copied at the end.
+ *
+ * Both kernels take equal values from the first input first, so their
+ * outputs are identical. When the jdk.incubator.vector module is present,
+ * the SIMD kernel of {@link VectorMergeKernel} merges a vector of values at
+ * a time, with the same output. It's loaded reflectively, so the other
+ * kernels need no module.
+ *
+ * The system property com.company.mergeKernel picks the kernel: "vector"
+ * (the default if the module is present), "branchless" (the default
+ * otherwise) or "branchy".
+ */
+public class MergeKernel {
+
+    /**
+     * Merges slices of two sorted arrays, like {@link MergeKernel#mergeInts} and {@link MergeKernel#mergeLongs}.
+     */
+    interface Kernel {
+
+        void mergeInts(int[] inputArray1, int from1, int to1, int[] inputArray2, int from2, int to2,
+                       int[] outputArray, int outputFrom);
+
+        void mergeLongs(long[] inputArray1, int from1, int to1, long[] inputArray2, int from2, int to2,
+                        long[] outputArray, int outputFrom);
+    }
+
+    /* The SIMD kernel, or null without the jdk.incubator.vector module */
+    static final Kernel  VECTOR_KERNEL = loadVectorKernel();
+
+    private static final String KERNEL_PROPERTY = System.getProperty("com.company.mergeKernel");
+    /* Whether the SIMD kernels are used */
+    static final boolean VECTOR        = VECTOR_KERNEL != null
+        && (KERNEL_PROPERTY == null || "vector".equals(KERNEL_PROPERTY));
+    /* Whether the branchless kernels are used, when the SIMD kernels are not */
+    static final boolean BRANCHLESS    = !"branchy".equals(KERNEL_PROPERTY);
+
+    /**
+     * Merge inputArray1[from1, to1) and inputArray2[from2, to2) into outputArray from outputFrom.
+     */
+    public static void mergeInts(int[] inputArray1, int from1, int to1, int[] inputArray2, int from2, int to2,
+                                 int[] outputArray, int outputFrom) {
+        if (VECTOR) {
+            VECTOR_KERNEL.mergeInts(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+        } else if (BRANCHLESS) {
+            mergeIntsBranchless(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+        } else {
+            mergeIntsBranchy(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+        }
+    }
+
+    /**
+     * Merge inputArray1[from1, to1) and inputArray2[from2, to2) into outputArray from outputFrom.
+     */
+    public static void mergeLongs(long[] inputArray1, int from1, int to1, long[] inputArray2, int from2, int to2,
+                                  long[] outputArray, int outputFrom) {
+        if (VECTOR) {
+            VECTOR_KERNEL.mergeLongs(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+        } else if (BRANCHLESS) {
+            mergeLongsBranchless(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+        } else {
+            mergeLongsBranchy(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+        }
+    }
+
+    static void mergeIntsBranchy(int[] inputArray1, int from1, int to1, int[] inputArray2, int from2, int to2,
+                                 int[] outputArray, int outputFrom) {
+        int index1 = from1, index2 = from2, outputIndex = outputFrom;
+        while (index1 < to1 && index2 < to2) {
+            if (inputArray1[index1] <= inputArray2[index2]) {
+                outputArray[outputIndex++] = inputArray1[index1++];
+            } else {
+                outputArray[outputIndex++] = inputArray2[index2++];
+            }
+        }
+        System.arraycopy(inputArray1, index1, outputArray, outputIndex, to1 - index1);
+        System.arraycopy(inputArray2, index2, outputArray, outputIndex + to1 - index1, to2 - index2);
+    }
+
+    static void mergeIntsBranchless(int[] inputArray1, int from1, int to1, int[] inputArray2, int from2, int to2,
+                                    int[] outputArray, int outputFrom) {
+        int index1 = from1, index2 = from2, outputIndex = outputFrom;
+        while (index1 < to1 && index2 < to2) {
+            // Neither input runs out within the next count values.
+            for (int count = Math.min(to1 - index1, to2 - index2); count > 0; count--) {
+                int value1 = inputArray1[index1], value2 = inputArray2[index2];
+                int take1 = value1 <= value2 ? 1 : 0;
+                outputArray[outputIndex++] = take1 != 0 ? value1 : value2;
+                index1 += take1;
+                index2 += 1 - take1;
+            }
+        }
+        System.arraycopy(inputArray1, index1, outputArray, outputIndex, to1 - index1);
+        System.arraycopy(inputArray2, index2, outputArray, outputIndex + to1 - index1, to2 - index2);
+    }
+
+    static void mergeLongsBranchy(long[] inputArray1, int from1, int to1, long[] inputArray2, int from2, int to2,
+                                  long[] outputArray, int outputFrom) {
+        int index1 = from1, index2 = from2, outputIndex = outputFrom;
+        while (index1 < to1 && index2 < to2) {
+            if (inputArray1[index1] <= inputArray2[index2]) {
+                outputArray[outputIndex++] = inputArray1[index1++];
+            } else {
+                outputArray[outputIndex++] = inputArray2[index2++];
+            }
+        }
+        System.arraycopy(inputArray1, index1, outputArray, outputIndex, to1 - index1);
+        System.arraycopy(inputArray2, index2, outputArray, outputIndex + to1 - index1, to2 - index2);
+    }
+
+    static void mergeLongsBranchless(long[] inputArray1, int from1, int to1, long[] inputArray2, int from2, int to2,
+                                     long[] outputArray, int outputFrom) {
+        int index1 = from1, index2 = from2, outputIndex = outputFrom;
+        while (index1 < to1 && index2 < to2) {
+            // Neither input runs out within the next count values.
+            for (int count = Math.min(to1 - index1, to2 - index2); count > 0; count--) {
+                long value1 = inputArray1[index1], value2 = inputArray2[index2];
+                int take1 = value1 <= value2 ? 1 : 0;
+                outputArray[outputIndex++] = take1 != 0 ? value1 : value2;
+                index1 += take1;
+                index2 += 1 - take1;
+            }
+        }
+        System.arraycopy(inputArray1, index1, outputArray, outputIndex, to1 - index1);
+        System.arraycopy(inputArray2, index2, outputArray, outputIndex + to1 - index1, to2 - index2);
+    }
+
+    /**
+     * Load the SIMD kernel without linking this class to the jdk.incubator.vector module.
+     */
+    private static Kernel loadVectorKernel() {
+        try {
+            return (Kernel) Class.forName("com.company.VectorMergeKernel").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // The module is not added with --add-modules jdk.incubator.vector.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.company;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Long-lived engine which runs many sorts concurrently on one shared
+ * ForkJoinPool, so no thread pool is created for each sort.
+ *
+ * Each sort returns a CompletableFuture. Cancelling the future, or letting
+ * it time out, cancels the sort: its in-flight merge jobs stop before their
+ * next container. Errors of a sort complete its future exceptionally.
+ *
+ * An engine of virtual threads runs each sort, and each merge job of the
+ * sort, on its own thread, see {@link VirtualThreadMerge}. It suits many
+ * concurrent sorts of a few partitions each. Before Java 21, it runs sorts
+ * on the common pool instead.
+ */
+public class MergeSortEngine implements AutoCloseable {
+
+    // Null if sorts run on virtual threads.
+    private final ForkJoinPool pool;
+    // Whether the pool is created by this engine and shut down on close.
+    private final boolean      ownsPool;
+    private final Executor     executor;
+
+    /**
+     * Create an engine with its own pool.
+     *
+     * @param parallelism count of worker threads
+     */
+    public MergeSortEngine(int parallelism){
+        this(new ForkJoinPool(parallelism), true);
+    }
+
+    /**
+     * Create an engine on a pool which is shared with other work.
+     */
+    public MergeSortEngine(ForkJoinPool pool){
+        this(pool, false);
+    }
+
+    private MergeSortEngine(ForkJoinPool pool, boolean ownsPool){
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+        this.executor = pool;
+    }
+
+    private MergeSortEngine(){
+        this.pool = null;
+        this.ownsPool = false;
+        ThreadFactory threadFactory = VirtualThreadMerge.threadFactory();
+        this.executor = runnable -> threadFactory.newThread(runnable).start();
+    }
+
+    /**
+     * Create an engine which runs sorts on virtual threads with the
+     * VIRTUAL_THREAD scheduler. Merging of all sorts shares one permit for
+     * each processor. Before Java 21, the engine runs sorts on the common
+     * pool with the FORK_JOIN scheduler, like {@link #MergeSortEngine(ForkJoinPool)}.
+     */
+    public static MergeSortEngine ofVirtualThreads() {
+        if (!VirtualThreadMerge.isVirtual()) {
+            return new MergeSortEngine(ForkJoinPool.commonPool());
+        }
+        return new MergeSortEngine();
+    }
+
+    /**
+     * @return the pool of the engine, or null if sorts run on virtual threads
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sort partitions asynchronously. See {@link MergeSortK#sortPartitions(List, SortConfig)}.
+     */
+    public CompletableFuture<List> sortPartitionsAsync(List<Partition> partitions, SortConfig config) {
+        return sortAsync(sortConfig -> MergeSortK.sortPartitions(partitions, sortConfig), config);
+    }
+
+    /**
+     * Sort partitions asynchronously, and cancel the sort if it's not done in time.
+     */
+    public CompletableFuture<List> sortPartitionsAsync(List<Partition> partitions, SortConfig config,
+                                                       long timeout, TimeUnit unit) {
+        return sortPartitionsAsync(partitions, config).orTimeout(timeout, unit);
+    }
+
+    /**
+     * Sort int partitions asynchronously. See {@link MergeSortK#sortIntPartitions(List, SortConfig)}.
+     */
+    public CompletableFuture<int[]> sortIntPartitionsAsync(List<IntPartition> partitions, SortConfig config) {
+        return sortAsync(sortConfig -> MergeSortK.sortIntPartitions(partitions, sortConfig), config);
+    }
+
+    /**
+     * Sort long partitions asynchronously. See {@link MergeSortK#sortLongPartitions(List, SortConfig)}.
+     */
+    public CompletableFuture<long[]> sortLongPartitionsAsync(List<LongPartition> partitions, SortConfig config) {
+        return sortAsync(sortConfig -> MergeSortK.sortLongPartitions(partitions, sortConfig), config);
+    }
+
+    /**
+     * Run any sort of {@link MergeSortK} on the engine. The sort gets a copy
+     * of the config, which uses the pool of the engine and a cancellation
+     * bound to the returned future. The THREAD_POOL scheduler is replaced by
+     * FORK_JOIN, because the pool is shared, or by VIRTUAL_THREAD for an
+     * engine of virtual threads.
+     *
+     * @param sort the sort to run with the copied config
+     * @param config strategy and listener
+     * @return the future of the sort result
+     */
+    public <T> CompletableFuture<T> sortAsync(Function<SortConfig, T> sort, SortConfig config) {
+        SortCancellation cancellation = new SortCancellation();
+        SortConfig sortConfig = config.copy();
+        if (pool != null) {
+            sortConfig.setForkJoinPool(pool);
+            sortConfig.setScheduler(Scheduler.FORK_JOIN);
+        } else {
+            sortConfig.setScheduler(Scheduler.VIRTUAL_THREAD);
+        }
+        sortConfig.setCancellation(cancellation);
+
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> {
+            cancellation.check();
+            return sort.apply(sortConfig);
+        }, executor);
+        // Cancelled, timed out or failed: stop the jobs which are still running.
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                cancellation.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Shut down the pool if it's created by this engine. Running sorts are finished.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+}
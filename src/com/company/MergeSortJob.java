@@ -5,6 +5,7 @@ import com.sun.tools.javac.util.Assert;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.BinaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -12,46 +13,160 @@ import java.util.stream.Collectors;
  */
 public class MergeSortJob implements Runnable {
 
-    private List<Partition> inputList1, inputList2;
-    private List<Partition> outputList;
+    /* Count of wins in a row, from which mergeSortValues starts galloping */
+    private static final int MIN_GALLOP = 7;
+
+    private List<Partition>         inputList1, inputList2;
+    private List<Partition>         outputList;
+    private final MergeSortListener listener;
+    private final SortCancellation  cancellation;
+    // Combines values which compare equal, or null to keep all of them.
+    private final BinaryOperator<Comparable> combiner;
+    private final MergeSortMetrics  metrics = new MergeSortMetrics();
+    // Time when the job is put into the queue, or forked.
+    private final long              queuedNanos;
 
     public MergeSortJob(List<Partition> inputList1, List<Partition> inputList2){
+        this(inputList1, inputList2, null);
+    }
+
+    public MergeSortJob(List<Partition> inputList1, List<Partition> inputList2, MergeSortListener listener){
+        this(inputList1, inputList2, listener, SortCancellation.NONE);
+    }
+
+    public MergeSortJob(List<Partition> inputList1, List<Partition> inputList2, MergeSortListener listener,
+                        SortCancellation cancellation){
+        this(inputList1, inputList2, listener, cancellation, null);
+    }
+
+    /**
+     * @param combiner combines values which compare equal, the one of inputList1
+     *                 first; or null to keep all of them. Only values of
+     *                 different inputs are combined, so the values of each
+     *                 input must be combined already, see {@link #combinePartition}
+     */
+    public MergeSortJob(List<Partition> inputList1, List<Partition> inputList2, MergeSortListener listener,
+                        SortCancellation cancellation, BinaryOperator<Comparable> combiner){
+        this(inputList1, inputList2, listener, cancellation, combiner, System.nanoTime());
+    }
+
+    /**
+     * @param queuedNanos System.nanoTime() when the job is queued or forked,
+     *                    for jobs which are created when they start
+     */
+    MergeSortJob(List<Partition> inputList1, List<Partition> inputList2, MergeSortListener listener,
+                 SortCancellation cancellation, BinaryOperator<Comparable> combiner, long queuedNanos){
+        this.queuedNanos = queuedNanos;
         this.inputList1 = inputList1;
         this.inputList2 = inputList2;
+        this.listener = listener;
+        this.cancellation = cancellation;
+        this.combiner = combiner;
     }
 
     public List<Partition> getOutputList() {
         return outputList;
     }
 
+    /**
+     * @return counters of this job, available after it's finished
+     */
+    public MergeSortMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void run() {
-        outputList = mergeSortContainer(inputList1, inputList2);
+        MergeJobEvent event = new MergeJobEvent();
+        event.begin();
+        long startNanos = System.nanoTime();
+
+        outputList = mergeSortContainer(inputList1, inputList2, metrics, cancellation, combiner);
+
+        long endNanos = System.nanoTime();
+        metrics.recordJob(startNanos - queuedNanos, endNanos - startNanos, Thread.currentThread().getName());
+        event.end();
+        if (event.shouldCommit()) {
+            event.jobType = "pairwise";
+            event.inputContainers = inputList1.size() + inputList2.size();
+            event.outputContainers = outputList.size();
+            event.shortcuts = metrics.getPartitionShortcuts() + metrics.getBlockShortcuts();
+            event.degradedMerges = metrics.getPartitionMerges() + metrics.getBlockMerges();
+            event.valuesCopied = metrics.getValuesCopied();
+            event.queueWait = startNanos - queuedNanos;
+            event.commit();
+        }
+        if (listener != null) {
+            listener.onJobFinished(metrics);
+        }
     }
 
     /**
-     * Do merge-sort from two lists. inputList1 + inputList2 -> outputList.
+     * Do merge-sort from two arrays. inputArray1[0, length1) + inputArray2[0, length2) -> outputArray.
+     *
+     * Once one array wins MIN_GALLOP times in a row, the end of its run is
+     * found by an exponential search, and the whole run is copied at once.
+     * Equal values are taken from inputArray1 first.
      */
-    private static List mergeSortValues(List<? extends Comparable> inputList1, List<? extends Comparable> inputList2) {
-        List outputList = new ArrayList<>();
-        for (int index1 = 0, index2 = 0; index1 < inputList1.size() || index2 < inputList2.size();) {
-            if (index1 >= inputList1.size()) {
-                outputList.add(inputList2.get(index2++));
-            } else if (index2 >= inputList2.size()) {
-                outputList.add(inputList1.get(index1++));
+    private static void mergeSortValues(Comparable[] inputArray1, int length1, Comparable[] inputArray2, int length2,
+                                        Comparable[] outputArray) {
+        int index1 = 0, index2 = 0, outputIndex = 0, winCount1 = 0, winCount2 = 0;
+        while (index1 < length1 && index2 < length2) {
+            if (inputArray1[index1].compareTo(inputArray2[index2]) <= 0) {
+                outputArray[outputIndex++] = inputArray1[index1++];
+                winCount2 = 0;
+                if (++winCount1 >= MIN_GALLOP && index1 < length1) {
+                    int end = gallop(inputArray1, index1, length1, inputArray2[index2], true);
+                    System.arraycopy(inputArray1, index1, outputArray, outputIndex, end - index1);
+                    outputIndex += end - index1;
+                    index1 = end;
+                    winCount1 = 0;
+                }
             } else {
-                int result = inputList1.get(index1).compareTo(inputList2.get(index2));
-                if (result < 0) {
-                    outputList.add(inputList1.get(index1++));
-                } else if (result > 0) {
-                    outputList.add(inputList2.get(index2++));
-                } else {
-                    outputList.add(inputList1.get(index1++));
-                    outputList.add(inputList2.get(index2++));
+                outputArray[outputIndex++] = inputArray2[index2++];
+                winCount1 = 0;
+                if (++winCount2 >= MIN_GALLOP && index2 < length2) {
+                    int end = gallop(inputArray2, index2, length2, inputArray1[index1], false);
+                    System.arraycopy(inputArray2, index2, outputArray, outputIndex, end - index2);
+                    outputIndex += end - index2;
+                    index2 = end;
+                    winCount2 = 0;
                 }
             }
         }
-        return outputList;
+        System.arraycopy(inputArray1, index1, outputArray, outputIndex, length1 - index1);
+        System.arraycopy(inputArray2, index2, outputArray, outputIndex + length1 - index1, length2 - index2);
+    }
+
+    /**
+     * Find the end of the run in [from, to) which precedes key, by an
+     * exponential search and then a binary search.
+     *
+     * @param inclusive whether values equal to key precede it
+     * @return the least index from {@code from} whose value doesn't precede key, or to
+     */
+    private static int gallop(Comparable[] array, int from, int to, Comparable key, boolean inclusive) {
+        int low = from, high = from, step = 1;
+        while (high < to && precedes(array[high], key, inclusive)) {
+            low = high + 1;
+            high = from + step;
+            step <<= 1;
+        }
+        high = Math.min(high, to);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (precedes(array[middle], key, inclusive)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static boolean precedes(Comparable value, Comparable key, boolean inclusive) {
+        int result = value.compareTo(key);
+        return inclusive ? result <= 0 : result < 0;
     }
 
     /**
@@ -61,26 +176,40 @@ public class MergeSortJob implements Runnable {
      * the next block in the input list is bigger than all of the
      * stored list in the queue. Then merge conflicting lists.
      *
+     * When combining, containers which touch each other are also merged,
+     * so the equal values at their bounds are combined.
+     *
      * @param inputList1 block list or partition list
      * @param inputList2 block list or partition list
+     * @param metrics counters of the job
+     * @param cancellation checked before each container
+     * @param combiner combines values which compare equal, or null
      * @return output block list or partition list
      */
-    private static List mergeSortContainer(List<? extends ComparableContainer> inputList1, List<? extends ComparableContainer> inputList2) {
+    private static List mergeSortContainer(List<? extends ComparableContainer> inputList1, List<? extends ComparableContainer> inputList2,
+                                           MergeSortMetrics metrics, SortCancellation cancellation,
+                                           BinaryOperator<Comparable> combiner) {
+        boolean inclusive = combiner != null;
         List outputList = new ArrayList<>();
         List tempList1 = new ArrayList(), tempList2 = new ArrayList();
         Comparable lastBiggest = null;
         for (int index1 = 0, index2 = 0; index1 < inputList1.size() || index2 < inputList2.size(); ) {
+            cancellation.check();
             // If the queue is empty
             if (lastBiggest == null) {
                 if (index1 >= inputList1.size()) {
+                    metrics.recordShortcut(inputList2.get(index2));
                     outputList.add(inputList2.get(index2++));
                 } else if (index2 >= inputList2.size()) {
+                    metrics.recordShortcut(inputList1.get(index1));
                     outputList.add(inputList1.get(index1++));
                 } else {
-                    int result = inputList1.get(index1).compareTo(inputList2.get(index2));
+                    int result = compareContainers(inputList1.get(index1), inputList2.get(index2), inclusive);
                     if (result < 0) {
+                        metrics.recordShortcut(inputList1.get(index1));
                         outputList.add(inputList1.get(index1++));
                     } else if (result > 0) {
+                        metrics.recordShortcut(inputList2.get(index2));
                         outputList.add(inputList2.get(index2++));
                     } else {
                         Comparable biggest1 = inputList1.get(index1).getLast();
@@ -104,7 +233,7 @@ public class MergeSortJob implements Runnable {
                     if (least1 == null) {
                         index1++;
                         tempEnd = false;
-                    } else if (least1.compareTo(lastBiggest) < 0) {
+                    } else if (precedes(least1, lastBiggest, inclusive)) {
                         tempList1.add(inputList1.get(index1));
                         Comparable biggest1 = inputList1.get(index1++).getLast();
                         lastBiggest = lastBiggest.compareTo(biggest1) <= 0 ? biggest1 : lastBiggest;
@@ -116,7 +245,7 @@ public class MergeSortJob implements Runnable {
                     if (least2 == null) {
                         index2++;
                         tempEnd = false;
-                    } else if (least2.compareTo(lastBiggest) < 0) {
+                    } else if (precedes(least2, lastBiggest, inclusive)) {
                         tempList2.add(inputList2.get(index2));
                         Comparable biggest2 = inputList2.get(index2++).getLast();
                         lastBiggest = lastBiggest.compareTo(biggest2) <= 0 ? biggest2 : lastBiggest;
@@ -126,7 +255,8 @@ public class MergeSortJob implements Runnable {
 
                 // merge conflicting lists
                 if (tempEnd) {
-                    outputList.addAll(mergeIntersectingContainers(tempList1, tempList2));
+                    metrics.recordMerge(tempList1.get(0), tempList1.size() + tempList2.size());
+                    outputList.addAll(mergeIntersectingContainers(tempList1, tempList2, metrics, cancellation, combiner));
                     tempList1.clear();
                     tempList2.clear();
                     lastBiggest = null;
@@ -135,7 +265,8 @@ public class MergeSortJob implements Runnable {
         }
 
         if (lastBiggest != null) {
-            outputList.addAll(mergeIntersectingContainers(tempList1, tempList2));
+            metrics.recordMerge(tempList1.get(0), tempList1.size() + tempList2.size());
+            outputList.addAll(mergeIntersectingContainers(tempList1, tempList2, metrics, cancellation, combiner));
         }
 
         return outputList;
@@ -145,19 +276,138 @@ public class MergeSortJob implements Runnable {
      * Merge two Containers. Partition merging is transformed to Block merging,
      * and Block merging is transformed to Value merging.
      */
-    private static List<Comparable> mergeIntersectingContainers(List inputList1, List inputList2) {
+    private static List<Comparable> mergeIntersectingContainers(List inputList1, List inputList2, MergeSortMetrics metrics,
+                                                                SortCancellation cancellation,
+                                                                BinaryOperator<Comparable> combiner) {
         if (inputList1.get(0) instanceof Partition) {
             List<Block> blockList1 = new ArrayList<>(), blockList2 = new ArrayList<>();
             inputList1.forEach(partition -> blockList1.addAll(((Partition) partition).getBlockList()));
             inputList2.forEach(partition -> blockList2.addAll(((Partition) partition).getBlockList()));
-            List<Comparable> outputBlockList = mergeSortContainer(blockList1, blockList2);
+            List<Comparable> outputBlockList = mergeSortContainer(blockList1, blockList2, metrics, cancellation, combiner);
             return splitIntoContainers(outputBlockList, inputList1.size() + inputList2.size());
         } else {
-            List<Comparable> valueList1 = new ArrayList<>(), valueList2 = new ArrayList<>();
-            inputList1.forEach(block -> valueList1.addAll(((Block) block).getValues()));
-            inputList2.forEach(block -> valueList2.addAll(((Block) block).getValues()));
-            List<Comparable> outputValueList = mergeSortValues(valueList1, valueList2);
-            return splitIntoContainers(outputValueList, inputList1.size() + inputList2.size());
+            return mergeIntersectingBlocks(inputList1, inputList2, metrics, combiner);
+        }
+    }
+
+    /**
+     * Merge two groups of intersecting blocks. Only the overlap of the two
+     * groups is merged by values. The values of one group which are less
+     * than all values of the other group, and the ones which are bigger than
+     * all values of the other group, are output as slices of their blocks
+     * without copying.
+     */
+    private static List<Comparable> mergeIntersectingBlocks(List<Block> inputList1, List<Block> inputList2,
+                                                            MergeSortMetrics metrics,
+                                                            BinaryOperator<Comparable> combiner) {
+        List<Block> blocks1 = new ArrayList<>(inputList1.size()), blocks2 = new ArrayList<>(inputList2.size());
+        inputList1.stream().filter(block -> block.getFirst() != null).forEach(blocks1::add);
+        inputList2.stream().filter(block -> block.getFirst() != null).forEach(blocks2::add);
+        if (blocks1.isEmpty() || blocks2.isEmpty()) {
+            blocks1.addAll(blocks2);
+            return (List) blocks1;
+        }
+
+        // [lo, hi] is the overlap of the two groups.
+        Comparable first1 = blocks1.get(0).getFirst(), first2 = blocks2.get(0).getFirst();
+        Comparable last1 = blocks1.get(blocks1.size() - 1).getLast(), last2 = blocks2.get(blocks2.size() - 1).getLast();
+        Comparable lo = first1.compareTo(first2) >= 0 ? first1 : first2;
+        Comparable hi = last1.compareTo(last2) <= 0 ? last1 : last2;
+
+        List<Comparable> outputList = new ArrayList<>();
+        List<Block> middle1 = new ArrayList<>(), middle2 = new ArrayList<>(), after = new ArrayList<>();
+        splitAtOverlap(blocks1, lo, hi, (List) outputList, middle1, after);
+        splitAtOverlap(blocks2, lo, hi, (List) outputList, middle2, after);
+        if (middle1.isEmpty() || middle2.isEmpty()) {
+            outputList.addAll((List) middle1);
+            outputList.addAll((List) middle2);
+        } else {
+            outputList.addAll(mergeBlockValues(middle1, middle2, metrics, combiner));
+        }
+        outputList.addAll((List) after);
+        return outputList;
+    }
+
+    /**
+     * Cut sorted blocks into the slices before lo, within [lo, hi], and after hi.
+     */
+    private static void splitAtOverlap(List<Block> blocks, Comparable lo, Comparable hi,
+                                       List<Block> before, List<Block> middle, List<Block> after) {
+        for (Block block : blocks) {
+            if (block.getLast().compareTo(lo) < 0) {
+                before.add(block);
+            } else if (block.getFirst().compareTo(hi) > 0) {
+                after.add(block);
+            } else {
+                List<Comparable> values = block.getValues();
+                int from = block.getFirst().compareTo(lo) >= 0 ? 0 : PartitionQuery.lowerBound(values, lo);
+                int to = block.getLast().compareTo(hi) <= 0 ? values.size() : PartitionQuery.upperBound(values, hi);
+                if (from > 0) {
+                    before.add(block.slice(0, from));
+                }
+                if (from == 0 && to == values.size()) {
+                    middle.add(block);
+                } else if (from < to) {
+                    middle.add(block.slice(from, to));
+                }
+                if (to < values.size()) {
+                    after.add(block.slice(Math.max(from, to), values.size()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge the values of two groups of non-empty blocks into new blocks.
+     * Equal int or long values are the same, so combining them just keeps one.
+     *
+     * Int and long blocks are slices of arrays, which are merged in place,
+     * see {@link #mergeIntBlocks}. The values of other blocks are copied into
+     * a scratch array of the {@link BufferArena} of the current thread,
+     * which is given back after the merge. So the output array is the only
+     * array allocated.
+     */
+    private static List<Comparable> mergeBlockValues(List inputList1, List inputList2, MergeSortMetrics metrics,
+                                                     BinaryOperator<Comparable> combiner) {
+        long count1 = countValues(inputList1);
+        int outputLength = toArrayLength(count1 + countValues(inputList2));
+        int length1 = (int) count1, length2 = outputLength - length1;
+        int listNum = inputList1.size() + inputList2.size();
+        metrics.recordValuesCopied(outputLength);
+        if (inputList1.get(0) instanceof IntBlock && inputList2.get(0) instanceof IntBlock) {
+            int[] outputValues = new int[outputLength];
+            mergeIntBlocks(inputList1, inputList2, outputValues);
+            int length = combiner == null ? outputValues.length
+                : combineAdjacentInts(outputValues, outputValues.length, combiner);
+            return splitIntoIntBlocks(outputValues, length, listNum);
+        } else if (inputList1.get(0) instanceof LongBlock && inputList2.get(0) instanceof LongBlock) {
+            long[] outputValues = new long[length1 + length2];
+            mergeLongBlocks(inputList1, inputList2, outputValues);
+            int length = combiner == null ? outputValues.length
+                : combineAdjacentLongs(outputValues, outputValues.length, combiner);
+            return splitIntoLongBlocks(outputValues, length, listNum);
+        } else {
+            BufferArena arena = BufferArena.current();
+            Comparable[] values1 = arena.takeValues(length1), values2 = arena.takeValues(length2);
+            try {
+                Comparable[] outputValues = new Comparable[outputLength];
+                copyBlocks(inputList1, values1);
+                copyBlocks(inputList2, values2);
+                // Split big merges into pieces merged by several threads
+                if (ParallelMerge.shouldSplit(outputValues.length)) {
+                    ParallelMerge.mergeValues(values1, length1, values2, length2, outputValues);
+                } else {
+                    mergeSortValues(values1, length1, values2, length2, outputValues);
+                }
+                List<Comparable> outputValueList = Arrays.asList(outputValues);
+                if (combiner != null) {
+                    outputValueList = outputValueList.subList(0, combineAdjacent(outputValueList, combiner));
+                }
+                return splitIntoContainers(outputValueList, listNum);
+            } finally {
+                arena.giveBack(values1, length1);
+                arena.giveBack(values2, length2);
+            }
         }
     }
 
@@ -168,14 +418,11 @@ public class MergeSortJob implements Runnable {
      * @param listNum count of result list
      * @return block list or partition list
      */
-    private static List<Comparable> splitIntoContainers(List<Comparable> elements, int listNum) {
+    static List<Comparable> splitIntoContainers(List<Comparable> elements, int listNum) {
         List<List<Comparable>> outputList = new ArrayList<>();
 
         int totalSize = elements.size();
-        int eachSize = 0;
-        if (totalSize > 0) {
-            eachSize = listNum / totalSize;
-        }
+        int eachSize = totalSize / listNum;
 
         // group elements
         for (int i = 0; ; i += eachSize) {
@@ -187,7 +434,13 @@ public class MergeSortJob implements Runnable {
             }
         }
 
-        if (elements.get(0) instanceof Block) {
+        if (elements.get(0) instanceof IntBlock) {
+            // int block list -> int partition list
+            return outputList.stream().map(list -> new IntPartition((List) list)).collect(Collectors.toList());
+        } else if (elements.get(0) instanceof LongBlock) {
+            // long block list -> long partition list
+            return outputList.stream().map(list -> new LongPartition((List) list)).collect(Collectors.toList());
+        } else if (elements.get(0) instanceof Block) {
             // block list -> partition list
             return outputList.stream().map(list -> new Partition(list)).collect(Collectors.toList());
         } else {
@@ -195,4 +448,341 @@ public class MergeSortJob implements Runnable {
             return outputList.stream().map(list -> new Block(list)).collect(Collectors.toList());
         }
     }
+
+    /**
+     * @return the total count of values in the containers
+     */
+    static long countValues(List<? extends ComparableContainer> containers) {
+        long totalSize = 0;
+        for (ComparableContainer container : containers) {
+            totalSize += container.getValueCount();
+        }
+        return totalSize;
+    }
+
+    /**
+     * @return count as the length of an array which holds that many values
+     * @throws IllegalArgumentException if an array can't hold that many values
+     */
+    static int toArrayLength(long count) {
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException(count + " values don't fit in an array");
+        }
+        return (int) count;
+    }
+
+    /**
+     * Merge the values of two groups of int blocks into outputArray, reading
+     * the slices of the blocks directly.
+     *
+     * At each step, the current block whose last value is smaller is merged
+     * to its end, with the values of the other current block which come
+     * before that last value. Equal values are taken from the first group
+     * first. Each step merges two array slices with {@link ParallelMerge}.
+     */
+    private static void mergeIntBlocks(List<IntBlock> blockList1, List<IntBlock> blockList2, int[] outputArray) {
+        int index1 = 0, index2 = 0, outputIndex = 0;
+        int from1 = blockList1.get(0).getFrom(), from2 = blockList2.get(0).getFrom();
+        while (index1 < blockList1.size() && index2 < blockList2.size()) {
+            IntBlock block1 = blockList1.get(index1), block2 = blockList2.get(index2);
+            int to1 = block1.getTo(), to2 = block2.getTo();
+            if (block1.getLastInt() <= block2.getLastInt()) {
+                to2 = PartitionQuery.lowerBound(block2.getArray(), from2, to2, block1.getLastInt());
+            } else {
+                to1 = PartitionQuery.upperBound(block1.getArray(), from1, to1, block2.getLastInt());
+            }
+            ParallelMerge.mergeInts(block1.getArray(), from1, to1, block2.getArray(), from2, to2, outputArray,
+                outputIndex);
+            outputIndex += to1 - from1 + to2 - from2;
+            if (to1 == block1.getTo()) {
+                index1++;
+                from1 = index1 < blockList1.size() ? blockList1.get(index1).getFrom() : 0;
+            } else {
+                from1 = to1;
+            }
+            if (to2 == block2.getTo()) {
+                index2++;
+                from2 = index2 < blockList2.size() ? blockList2.get(index2).getFrom() : 0;
+            } else {
+                from2 = to2;
+            }
+        }
+
+        // Copy the rest of the group which is left.
+        List<IntBlock> restList = index1 < blockList1.size() ? blockList1 : blockList2;
+        int restIndex = index1 < blockList1.size() ? index1 : index2;
+        int restFrom = index1 < blockList1.size() ? from1 : from2;
+        for (; restIndex < restList.size(); restIndex++) {
+            IntBlock block = restList.get(restIndex);
+            System.arraycopy(block.getArray(), restFrom, outputArray, outputIndex, block.getTo() - restFrom);
+            outputIndex += block.getTo() - restFrom;
+            restFrom = restIndex + 1 < restList.size() ? restList.get(restIndex + 1).getFrom() : 0;
+        }
+    }
+
+    /**
+     * Same as {@link #mergeIntBlocks}, for long blocks.
+     */
+    private static void mergeLongBlocks(List<LongBlock> blockList1, List<LongBlock> blockList2,
+                                        long[] outputArray) {
+        int index1 = 0, index2 = 0, outputIndex = 0;
+        int from1 = blockList1.get(0).getFrom(), from2 = blockList2.get(0).getFrom();
+        while (index1 < blockList1.size() && index2 < blockList2.size()) {
+            LongBlock block1 = blockList1.get(index1), block2 = blockList2.get(index2);
+            int to1 = block1.getTo(), to2 = block2.getTo();
+            if (block1.getLastLong() <= block2.getLastLong()) {
+                to2 = PartitionQuery.lowerBound(block2.getArray(), from2, to2, block1.getLastLong());
+            } else {
+                to1 = PartitionQuery.upperBound(block1.getArray(), from1, to1, block2.getLastLong());
+            }
+            ParallelMerge.mergeLongs(block1.getArray(), from1, to1, block2.getArray(), from2, to2, outputArray,
+                outputIndex);
+            outputIndex += to1 - from1 + to2 - from2;
+            if (to1 == block1.getTo()) {
+                index1++;
+                from1 = index1 < blockList1.size() ? blockList1.get(index1).getFrom() : 0;
+            } else {
+                from1 = to1;
+            }
+            if (to2 == block2.getTo()) {
+                index2++;
+                from2 = index2 < blockList2.size() ? blockList2.get(index2).getFrom() : 0;
+            } else {
+                from2 = to2;
+            }
+        }
+
+        // Copy the rest of the group which is left.
+        List<LongBlock> restList = index1 < blockList1.size() ? blockList1 : blockList2;
+        int restIndex = index1 < blockList1.size() ? index1 : index2;
+        int restFrom = index1 < blockList1.size() ? from1 : from2;
+        for (; restIndex < restList.size(); restIndex++) {
+            LongBlock block = restList.get(restIndex);
+            System.arraycopy(block.getArray(), restFrom, outputArray, outputIndex, block.getTo() - restFrom);
+            outputIndex += block.getTo() - restFrom;
+            restFrom = restIndex + 1 < restList.size() ? restList.get(restIndex + 1).getFrom() : 0;
+        }
+    }
+
+    /**
+     * Concatenate the values of blocks into the head of an array.
+     */
+    private static void copyBlocks(List<Block> blockList, Comparable[] values) {
+        int offset = 0;
+        for (Block block : blockList) {
+            List<Comparable> blockValues = block.getValues();
+            for (int i = 0; i < blockValues.size(); i++) {
+                values[offset++] = blockValues.get(i);
+            }
+        }
+    }
+
+    /**
+     * Split int values into int blocks which share the same array.
+     *
+     * @param values sorted values
+     * @param listNum count of result blocks
+     * @return int block list
+     */
+    static List<Comparable> splitIntoIntBlocks(int[] values, int listNum) {
+        return splitIntoIntBlocks(values, values.length, listNum);
+    }
+
+    /**
+     * Same as {@link #splitIntoIntBlocks(int[], int)}, for values [0, length).
+     */
+    static List<Comparable> splitIntoIntBlocks(int[] values, int length, int listNum) {
+        List<Comparable> outputList = new ArrayList<>(listNum);
+        int eachSize = length / listNum;
+        for (int i = 0; i < listNum - 1; i++) {
+            outputList.add(new IntBlock(values, i * eachSize, (i + 1) * eachSize));
+        }
+        outputList.add(new IntBlock(values, (listNum - 1) * eachSize, length));
+        return outputList;
+    }
+
+    /**
+     * Split long values into long blocks which share the same array.
+     *
+     * @param values sorted values
+     * @param listNum count of result blocks
+     * @return long block list
+     */
+    static List<Comparable> splitIntoLongBlocks(long[] values, int listNum) {
+        return splitIntoLongBlocks(values, values.length, listNum);
+    }
+
+    /**
+     * Same as {@link #splitIntoLongBlocks(long[], int)}, for values [0, length).
+     */
+    static List<Comparable> splitIntoLongBlocks(long[] values, int length, int listNum) {
+        List<Comparable> outputList = new ArrayList<>(listNum);
+        int eachSize = length / listNum;
+        for (int i = 0; i < listNum - 1; i++) {
+            outputList.add(new LongBlock(values, i * eachSize, (i + 1) * eachSize));
+        }
+        outputList.add(new LongBlock(values, (listNum - 1) * eachSize, length));
+        return outputList;
+    }
+
+    /**
+     * Combine adjacent values which compare equal in place, from left to right.
+     *
+     * @param values sorted values
+     * @param combiner combines the earlier value and the later one
+     * @return the count of values left at the head of the list
+     */
+    static int combineAdjacent(List<Comparable> values, BinaryOperator<Comparable> combiner) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        int length = 1;
+        for (int i = 1; i < values.size(); i++) {
+            Comparable value = values.get(i);
+            if (values.get(length - 1).compareTo(value) == 0) {
+                values.set(length - 1, combiner.apply(values.get(length - 1), value));
+            } else {
+                values.set(length++, value);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Combine the values of a partition which compare equal, within its
+     * blocks and across them, before it's merged: the merge only combines
+     * values of different inputs. A partition without equal values is
+     * returned as it is. Otherwise its values are copied, combined, and
+     * split into as many blocks.
+     *
+     * @param partition sorted partition
+     * @param combiner combines the earlier value and the later one
+     * @return a partition whose values are unique
+     */
+    static Partition combinePartition(Partition partition, BinaryOperator<Comparable> combiner) {
+        List<Block> blockList = partition.getBlockList();
+        if (!hasEqualValues(blockList)) {
+            return partition;
+        }
+        if (partition instanceof IntPartition) {
+            int[] values = ((IntPartition) partition).toIntArray();
+            int length = combineAdjacentInts(values, values.length, combiner);
+            return new IntPartition((List) splitIntoIntBlocks(values, length, blockList.size()));
+        } else if (partition instanceof LongPartition) {
+            long[] values = ((LongPartition) partition).toLongArray();
+            int length = combineAdjacentLongs(values, values.length, combiner);
+            return new LongPartition((List) splitIntoLongBlocks(values, length, blockList.size()));
+        } else {
+            List<Comparable> values = partition.getValueList();
+            return new Partition(splitIntoContainers(values.subList(0, combineAdjacent(values, combiner)),
+                blockList.size()));
+        }
+    }
+
+    /**
+     * @return whether any adjacent values of the sorted blocks compare equal
+     */
+    private static boolean hasEqualValues(List<Block> blockList) {
+        Comparable last = null;
+        for (Block block : blockList) {
+            if (block.getFirst() == null) {
+                continue;
+            }
+            if (last != null && last.compareTo(block.getFirst()) == 0) {
+                return true;
+            }
+            if (block instanceof IntBlock) {
+                IntBlock intBlock = (IntBlock) block;
+                int[] array = intBlock.getArray();
+                for (int i = intBlock.getFrom() + 1; i < intBlock.getTo(); i++) {
+                    if (array[i] == array[i - 1]) {
+                        return true;
+                    }
+                }
+            } else if (block instanceof LongBlock) {
+                LongBlock longBlock = (LongBlock) block;
+                long[] array = longBlock.getArray();
+                for (int i = longBlock.getFrom() + 1; i < longBlock.getTo(); i++) {
+                    if (array[i] == array[i - 1]) {
+                        return true;
+                    }
+                }
+            } else {
+                List<Comparable> values = block.getValues();
+                for (int i = 1; i < values.size(); i++) {
+                    if (values.get(i - 1).compareTo(values.get(i)) == 0) {
+                        return true;
+                    }
+                }
+            }
+            last = block.getLast();
+        }
+        return false;
+    }
+
+    /**
+     * Same as {@link #combineAdjacent(List, BinaryOperator)}, for int values
+     * [0, length). Only equal values are boxed for the combiner, whose result
+     * must be an int equal to them, because it takes their place in order.
+     *
+     * @return the count of values left at the head of the array
+     * @throws IllegalArgumentException if the combiner returns another value
+     */
+    static int combineAdjacentInts(int[] values, int length, BinaryOperator<Comparable> combiner) {
+        if (length == 0) {
+            return 0;
+        }
+        int uniqueLength = 1;
+        for (int i = 1; i < length; i++) {
+            if (values[i] != values[uniqueLength - 1]) {
+                values[uniqueLength++] = values[i];
+            } else {
+                checkCombined(combiner.apply(values[uniqueLength - 1], values[i]), values[i]);
+            }
+        }
+        return uniqueLength;
+    }
+
+    /**
+     * Same as {@link #combineAdjacentInts(int[], int, BinaryOperator)}, for long values.
+     */
+    static int combineAdjacentLongs(long[] values, int length, BinaryOperator<Comparable> combiner) {
+        if (length == 0) {
+            return 0;
+        }
+        int uniqueLength = 1;
+        for (int i = 1; i < length; i++) {
+            if (values[i] != values[uniqueLength - 1]) {
+                values[uniqueLength++] = values[i];
+            } else {
+                checkCombined(combiner.apply(values[uniqueLength - 1], values[i]), values[i]);
+            }
+        }
+        return uniqueLength;
+    }
+
+    private static void checkCombined(Comparable combined, Comparable value) {
+        if (!value.equals(combined)) {
+            throw new IllegalArgumentException("Combiner of int or long values returned " + combined
+                + " for " + value + ", which must be kept as an equal value");
+        }
+    }
+
+    /**
+     * Same as {@link ComparableContainer#compareTo}, except that containers
+     * which touch each other are equal if inclusive.
+     */
+    private static int compareContainers(ComparableContainer container1, ComparableContainer container2,
+                                         boolean inclusive) {
+        int result = container1.compareTo(container2);
+        if (!inclusive || container1.getFirst() == null || container2.getFirst() == null) {
+            return result;
+        }
+        if (result < 0 && container1.getLast().compareTo(container2.getFirst()) == 0) {
+            return 0;
+        } else if (result > 0 && container1.getFirst().compareTo(container2.getLast()) == 0) {
+            return 0;
+        }
+        return result;
+    }
 }
@@ -1,10 +1,26 @@
 package com.company;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Entrance for sorting partitions. Use multi-threads to do sorting.
@@ -12,10 +28,11 @@ import java.util.stream.Collectors;
 public class MergeSortK {
 
     /* Thread pool configurations */
-    private static final int CORE_POOL_SIZE = 2;
-    private static final int MAX_POOL_SIZE = 2;
     private static final int KEEP_ALIVE_TIME = 5000;
 
+    /* Overlap ratio from which AUTO picks the radix sort, or the K-way merge for other values */
+    private static final double HEAVY_OVERLAP_RATIO = 0.5;
+
     /**
      * Sort partitions, each of which is originally sorted by blocks.
      *
@@ -23,19 +40,621 @@ public class MergeSortK {
      * @return sorted value list
      */
     public static List sortPartitions(List<Partition> partitions) {
+        return sortPartitions(partitions, MergeStrategy.PAIRWISE);
+    }
+
+    /**
+     * Sort partitions, each of which is originally sorted by blocks.
+     *
+     * @param partitions partitions to be sorted
+     * @param strategy how to merge partitions
+     * @return sorted value list
+     */
+    public static List sortPartitions(List<Partition> partitions, MergeStrategy strategy) {
+        SortConfig config = new SortConfig();
+        config.setStrategy(strategy);
+        return sortPartitions(partitions, config);
+    }
+
+    /**
+     * Sort partitions, each of which is originally sorted by blocks.
+     *
+     * @param partitions partitions to be sorted
+     * @param config strategy, scheduler and parallelism
+     * @return sorted value list
+     * @throws IllegalArgumentException if the config combines values with a strategy or scheduler
+     *         which can't keep the order of partitions, see {@link SortConfig#setCombiner}
+     */
+    public static List sortPartitions(List<Partition> partitions, SortConfig config) {
         if (partitions.size() == 0) {
             return new ArrayList();
         }
-        if (partitions.size() == 1) {
+        if (partitions.size() == 1 && config.getCombiner() == null) {
             return partitions.get(0).getValueList();
         }
 
-        // Put each partition into a single list
-        List<List<Partition>> partitionLists = partitions.stream().map(Arrays::asList).collect(Collectors.toList());
+        List<Partition> sortedPartitions = mergePartitions(partitions, config);
+
+        // Return sorted result
+        Comparable[] values = new Comparable[MergeSortJob.toArrayLength(MergeSortJob.countValues(sortedPartitions))];
+        writeToArray(sortedPartitions, OutputSink.of(values), config);
+        // A mutable list, like the other paths return.
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+    /**
+     * Sort int partitions, each of which is originally sorted by blocks.
+     * Values are never boxed during merging.
+     *
+     * @param partitions partitions to be sorted
+     * @return sorted value array
+     */
+    public static int[] sortIntPartitions(List<IntPartition> partitions) {
+        return sortIntPartitions(partitions, MergeStrategy.PAIRWISE);
+    }
+
+    /**
+     * Sort int partitions, each of which is originally sorted by blocks.
+     * Values are never boxed during merging.
+     *
+     * @param partitions partitions to be sorted
+     * @param strategy how to merge partitions
+     * @return sorted value array
+     */
+    public static int[] sortIntPartitions(List<IntPartition> partitions, MergeStrategy strategy) {
+        SortConfig config = new SortConfig();
+        config.setStrategy(strategy);
+        return sortIntPartitions(partitions, config);
+    }
+
+    /**
+     * Sort int partitions, each of which is originally sorted by blocks.
+     * Values are never boxed during merging.
+     *
+     * @param partitions partitions to be sorted
+     * @param config strategy, scheduler and parallelism
+     * @return sorted value array
+     * @throws IllegalArgumentException if the config combines values with a strategy or scheduler
+     *         which can't keep the order of partitions, see {@link SortConfig#setCombiner}
+     */
+    public static int[] sortIntPartitions(List<IntPartition> partitions, SortConfig config) {
+        if (partitions.size() == 0) {
+            return new int[0];
+        }
+        if (partitions.size() == 1 && config.getCombiner() == null) {
+            return partitions.get(0).toIntArray();
+        }
+
+        List<Partition> sortedPartitions = mergePartitions(partitions, config);
+
+        int[] result = new int[MergeSortJob.toArrayLength(MergeSortJob.countValues(sortedPartitions))];
+        writeToArray(sortedPartitions, OutputSink.of(result), config);
+        return result;
+    }
+
+    /**
+     * Sort long partitions, each of which is originally sorted by blocks.
+     * Values are never boxed during merging.
+     *
+     * @param partitions partitions to be sorted
+     * @return sorted value array
+     */
+    public static long[] sortLongPartitions(List<LongPartition> partitions) {
+        return sortLongPartitions(partitions, MergeStrategy.PAIRWISE);
+    }
+
+    /**
+     * Sort long partitions, each of which is originally sorted by blocks.
+     * Values are never boxed during merging.
+     *
+     * @param partitions partitions to be sorted
+     * @param strategy how to merge partitions
+     * @return sorted value array
+     */
+    public static long[] sortLongPartitions(List<LongPartition> partitions, MergeStrategy strategy) {
+        SortConfig config = new SortConfig();
+        config.setStrategy(strategy);
+        return sortLongPartitions(partitions, config);
+    }
 
+    /**
+     * Sort long partitions, each of which is originally sorted by blocks.
+     * Values are never boxed during merging.
+     *
+     * @param partitions partitions to be sorted
+     * @param config strategy, scheduler and parallelism
+     * @return sorted value array
+     * @throws IllegalArgumentException if the config combines values with a strategy or scheduler
+     *         which can't keep the order of partitions, see {@link SortConfig#setCombiner}
+     */
+    public static long[] sortLongPartitions(List<LongPartition> partitions, SortConfig config) {
+        if (partitions.size() == 0) {
+            return new long[0];
+        }
+        if (partitions.size() == 1 && config.getCombiner() == null) {
+            return partitions.get(0).toLongArray();
+        }
+
+        List<Partition> sortedPartitions = mergePartitions(partitions, config);
+
+        long[] result = new long[MergeSortJob.toArrayLength(MergeSortJob.countValues(sortedPartitions))];
+        writeToArray(sortedPartitions, OutputSink.of(result), config);
+        return result;
+    }
+
+    /**
+     * Sort partitions, each of which is originally sorted by blocks, and
+     * write the sorted values to a sink, e.g. a preallocated array, a
+     * ByteBuffer or a FileChannel. Slices of the sorted partitions are
+     * copied to the sink in parallel, without building a value list.
+     *
+     * @param partitions partitions to be sorted
+     * @param config strategy, scheduler and parallelism, without a combiner
+     * @param sink destination of the sorted values
+     * @return count of values written
+     * @throws IOException if the sink can't write a value
+     * @throws IllegalArgumentException if the config has a combiner, which
+     *         needs the values of the whole result at once
+     */
+    public static long sortPartitions(List<? extends Partition> partitions, SortConfig config, OutputSink sink)
+        throws IOException {
+        if (config.getCombiner() != null) {
+            throw new IllegalArgumentException("A combiner can't be used with an output sink");
+        }
+        List<? extends Partition> sortedPartitions = partitions.size() < 2 ? partitions
+            : mergePartitions(partitions, config);
+        return writeOutput(sortedPartitions, sink, config);
+    }
+
+    /**
+     * Sort records which aren't Comparable, or not in their natural order.
+     *
+     * @param partitions partitions -> blocks -> records, each block sorted by the comparator
+     * @param comparator order of records
+     * @return sorted record list
+     */
+    public static <T> List<T> sortPartitions(List<? extends List<? extends List<? extends T>>> partitions,
+                                             Comparator<? super T> comparator) {
+        return sortPartitions(partitions, KeyOrder.<T>of(comparator), new SortConfig());
+    }
+
+    /**
+     * Sort records by a key extracted from each of them.
+     *
+     * @param partitions partitions -> blocks -> records, each block sorted by the key
+     * @param keyExtractor key of records
+     * @return sorted record list
+     */
+    public static <T, K extends Comparable<? super K>> List<T> sortPartitionsBy(
+        List<? extends List<? extends List<? extends T>>> partitions, Function<? super T, ? extends K> keyExtractor) {
+        return sortPartitions(partitions, KeyOrder.<T, K>comparing(keyExtractor), new SortConfig());
+    }
+
+    /**
+     * Sort records in the order. Each record is wrapped once with its key
+     * prefix, so most comparisons while merging compare the prefixes only.
+     *
+     * @param partitions partitions -> blocks -> records, each block sorted in the order
+     * @param order comparator and key prefix of records
+     * @param config strategy, scheduler and parallelism
+     * @return sorted record list
+     * @throws IllegalArgumentException if the config combines values with a strategy or scheduler
+     *         which can't keep the order of partitions, see {@link SortConfig#setCombiner}
+     */
+    public static <T> List<T> sortPartitions(List<? extends List<? extends List<? extends T>>> partitions,
+                                             KeyOrder<T> order, SortConfig config) {
+        List<Partition> keyedPartitions = new ArrayList<>(partitions.size());
+        for (List<? extends List<? extends T>> blocks : partitions) {
+            List<Block<KeyedValue<T>>> keyedBlocks = new ArrayList<>(blocks.size());
+            for (List<? extends T> values : blocks) {
+                keyedBlocks.add(Block.of(values, order));
+            }
+            keyedPartitions.add(new Partition<>(keyedBlocks));
+        }
+
+        List<KeyedValue<T>> keyedValues = sortPartitions(keyedPartitions, config);
+        List<T> result = new ArrayList<>(keyedValues.size());
+        for (KeyedValue<T> keyedValue : keyedValues) {
+            result.add(keyedValue.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Sort the values within [lo, hi]. Only the slices of partitions and
+     * blocks within the range are merged. See {@link PartitionQuery}.
+     *
+     * @param partitions partitions to be queried
+     * @param lo the least value of the range, or null if unbounded
+     * @param hi the biggest value of the range, or null if unbounded
+     * @return sorted value list
+     */
+    public static List sortRange(List<? extends Partition> partitions, Comparable lo, Comparable hi) {
+        return sortRange(partitions, lo, hi, new SortConfig());
+    }
+
+    /**
+     * Sort the values within [lo, hi]. Only the slices of partitions and
+     * blocks within the range are merged. See {@link PartitionQuery}.
+     *
+     * @param partitions partitions to be queried
+     * @param lo the least value of the range, or null if unbounded
+     * @param hi the biggest value of the range, or null if unbounded
+     * @param config strategy, scheduler and parallelism
+     * @return sorted value list
+     * @throws IllegalArgumentException if the config combines values with a strategy or scheduler
+     *         which can't keep the order of partitions, see {@link SortConfig#setCombiner}
+     */
+    public static List sortRange(List<? extends Partition> partitions, Comparable lo, Comparable hi,
+                                 SortConfig config) {
+        return sortPartitions(PartitionQuery.sliceRange(partitions, lo, hi), config);
+    }
+
+    /**
+     * Sort the n least values. Blocks are pruned by their bounds first, so
+     * only the values up to a bound of the n-th least value are merged.
+     *
+     * @param partitions partitions to be queried
+     * @param n count of least values
+     * @return sorted value list of at most n values
+     */
+    public static List sortSmallest(List<? extends Partition> partitions, int n) {
+        return sortSmallest(partitions, n, new SortConfig());
+    }
+
+    /**
+     * Sort the n least values. Blocks are pruned by their bounds first, so
+     * only the values up to a bound of the n-th least value are merged.
+     *
+     * @param partitions partitions to be queried
+     * @param n count of least values
+     * @param config strategy, scheduler and parallelism
+     * @return sorted value list of at most n values
+     * @throws IllegalArgumentException if the config combines values with a strategy or scheduler
+     *         which can't keep the order of partitions, see {@link SortConfig#setCombiner}
+     */
+    public static List sortSmallest(List<? extends Partition> partitions, int n, SortConfig config) {
+        if (n <= 0) {
+            return new ArrayList();
+        }
+        List result = sortRange(partitions, null, PartitionQuery.findUpperBound(partitions, n), config);
+        return result.size() > n ? new ArrayList(result.subList(0, n)) : result;
+    }
+
+    /**
+     * Iterate sorted values of partitions lazily. See {@link SortedIterator}.
+     *
+     * @param partitions partitions to be sorted
+     * @return iterator of sorted values
+     */
+    public static <T extends Comparable> Iterator<T> iteratePartitions(List<? extends Partition> partitions) {
+        return iteratePartitions(partitions, new SortConfig());
+    }
+
+    /**
+     * Iterate sorted values of partitions lazily. See {@link SortedIterator}.
+     * Intersecting partitions are merged on the shared pool of the config,
+     * or on the common pool if there's none, and up to parallelism runs are
+     * merged ahead of the consumer.
+     *
+     * @param partitions partitions to be sorted
+     * @param config shared pool and parallelism, without a combiner
+     * @return iterator of sorted values
+     * @throws IllegalArgumentException if the config has a combiner, which
+     *         the lazy merge doesn't apply
+     */
+    public static <T extends Comparable> Iterator<T> iteratePartitions(List<? extends Partition> partitions,
+                                                                      SortConfig config) {
+        if (config.getCombiner() != null) {
+            throw new IllegalArgumentException("A combiner can't be used to iterate partitions lazily");
+        }
+        ForkJoinPool pool = config.getForkJoinPool() != null ? config.getForkJoinPool() : ForkJoinPool.commonPool();
+        return new SortedIterator<>(partitions, pool, config.getParallelism());
+    }
+
+    /**
+     * Same as {@link #iteratePartitions(List, SortConfig)}, as an ordered stream.
+     *
+     * @param partitions partitions to be sorted
+     * @param config shared pool and parallelism, without a combiner
+     * @return stream of sorted values
+     */
+    public static <T extends Comparable> Stream<T> streamPartitions(List<? extends Partition> partitions,
+                                                                   SortConfig config) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iteratePartitions(partitions, config),
+            Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Measure how much partitions overlap. A partition overlaps if its least
+     * value is less than the biggest value of any partition before it in
+     * the order of least values.
+     *
+     * @param partitions partitions to be measured
+     * @return ratio of overlapping partitions among non-empty partitions, between 0 and 1
+     */
+    public static double measureOverlap(List<? extends Partition> partitions) {
+        List<Partition> nonEmptyPartitions = partitions.stream()
+            .filter(partition -> partition.getFirst() != null)
+            .sorted((partition1, partition2) -> partition1.getFirst().compareTo(partition2.getFirst()))
+            .collect(Collectors.toList());
+        if (nonEmptyPartitions.size() < 2) {
+            return 0;
+        }
+
+        int overlapCount = 0;
+        Comparable lastBiggest = nonEmptyPartitions.get(0).getLast();
+        for (int i = 1; i < nonEmptyPartitions.size(); i++) {
+            Partition partition = nonEmptyPartitions.get(i);
+            if (partition.getFirst().compareTo(lastBiggest) < 0) {
+                overlapCount++;
+            }
+            if (partition.getLast().compareTo(lastBiggest) > 0) {
+                lastBiggest = partition.getLast();
+            }
+        }
+        return (double) overlapCount / (nonEmptyPartitions.size() - 1);
+    }
+
+    /**
+     * Merge at least 2 partitions with the configured strategy and scheduler.
+     * Partitions are planned into clusters first; partitions which don't
+     * intersect any other are output as they are, and each cluster is merged
+     * independently.
+     *
+     * The counters of all jobs are added up and reported to the listener of
+     * the config when the sort is finished.
+     *
+     * @param partitions partitions to be sorted
+     * @param config strategy, scheduler and parallelism
+     * @return sorted partition list
+     * @throws CancellationException if the sort is cancelled or interrupted
+     * @throws IllegalArgumentException if the config has a combiner, and a
+     *         strategy or scheduler which can't keep the order of partitions
+     */
+    private static List<Partition> mergePartitions(List<? extends Partition> partitions, SortConfig config) {
+        if (config.getCombiner() != null) {
+            if (config.getStrategy() != MergeStrategy.PAIRWISE && config.getStrategy() != MergeStrategy.AUTO) {
+                throw new IllegalArgumentException("A combiner can't be used with the " + config.getStrategy()
+                    + " strategy, only with PAIRWISE or AUTO");
+            }
+            if (config.getScheduler() == Scheduler.THREAD_POOL) {
+                throw new IllegalArgumentException("A combiner can't be used with the THREAD_POOL scheduler");
+            }
+        }
+        MergeSortMetrics metrics = new MergeSortMetrics();
+        MergeSortListener listener = new AggregatingListener(metrics, config.getListener());
+        // The merge tree of PAIRWISE is the only one which combines values in the order of partitions.
+        MergeStrategy strategy = config.getCombiner() != null ? MergeStrategy.PAIRWISE : config.getStrategy();
+        if (strategy == MergeStrategy.AUTO) {
+            strategy = measureOverlap(partitions) >= HEAVY_OVERLAP_RATIO ? MergeStrategy.RADIX : MergeStrategy.PAIRWISE;
+        }
+
+        SortEvent event = new SortEvent();
+        event.begin();
+        long startNanos = System.nanoTime();
+
+        List<Partition> result = mergePartitions(partitions, config, strategy, listener);
+
+        metrics.setWallNanos(System.nanoTime() - startNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.partitions = partitions.size();
+            event.values = partitions.stream().mapToLong(Partition::getValueCount).sum();
+            event.strategy = strategy.name();
+            event.jobs = metrics.getJobCount();
+            event.valuesCopied = metrics.getValuesCopied();
+            event.commit();
+        }
+        if (config.getListener() != null) {
+            config.getListener().onSortFinished(metrics);
+        }
+        return result;
+    }
+
+    private static List<Partition> mergePartitions(List<? extends Partition> partitions, SortConfig config,
+                                                   MergeStrategy strategy, MergeSortListener listener) {
+        // Equal values of touching partitions are combined by the merge tree too.
+        List<List<Partition>> clusters = OverlapPlanner.plan(partitions, config.getCombiner() != null);
+        if (config.getCombiner() != null) {
+            // The combiner sees values in the order of partitions.
+            Map<Partition, Integer> indexes = new IdentityHashMap<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                indexes.put(partitions.get(i), i);
+            }
+            clusters.forEach(cluster -> cluster.sort(Comparator.comparing(indexes::get)));
+        }
+
+        if (strategy == MergeStrategy.PAIRWISE && config.getScheduler() == Scheduler.THREAD_POOL) {
+            // Each cluster uses all threads of its own thread pool, one cluster after another.
+            List<Partition> result = new ArrayList<>();
+            for (List<Partition> cluster : clusters) {
+                if (cluster.size() == 1) {
+                    result.addAll(cluster);
+                    continue;
+                }
+                result.addAll(mergeWithThreadPool(toSingletonLists(cluster), config.getParallelism(), listener,
+                    config.getCancellation()));
+            }
+            return result;
+        }
+        if (strategy == MergeStrategy.PAIRWISE && config.getScheduler() == Scheduler.VIRTUAL_THREAD
+            && VirtualThreadMerge.isVirtual()) {
+            return VirtualThreadMerge.mergeClusters(clusters, listener, config.getCancellation(),
+                config.getCombiner());
+        }
+
+        return invokeOnForkJoinPool(new MergeClustersTask(clusters, strategy, config.getParallelism(), listener,
+            config.getCancellation(), config.getCombiner()), config);
+    }
+
+    /**
+     * Write sorted partitions to a sink with the parallelism of the config,
+     * on the same pool as the merge, see {@link #invokeOnForkJoinPool}.
+     */
+    private static long writeOutput(List<? extends Partition> partitions, OutputSink sink, SortConfig config)
+        throws IOException {
+        ForkJoinPool pool = config.getForkJoinPool();
+        if (pool == null && config.isDefaultParallelism()) {
+            pool = ForkJoinPool.commonPool();
+        }
+        if (pool != null && ForkJoinTask.getPool() == pool) {
+            return sink.write(partitions, config.getParallelism());
+        }
+        try {
+            return invokeOnForkJoinPool(ForkJoinTask.adapt(() -> {
+                try {
+                    return sink.write(partitions, config.getParallelism());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }), config);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Same as {@link #writeOutput}, for sinks of arrays, which never throw IOException.
+     */
+    private static void writeToArray(List<Partition> partitions, OutputSink sink, SortConfig config) {
+        try {
+            writeOutput(partitions, sink, config);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Put each partition into a single list.
+     */
+    private static List<List<Partition>> toSingletonLists(List<Partition> partitions) {
+        return partitions.stream().map(Arrays::asList).collect(Collectors.toList());
+    }
+
+    /**
+     * Add up the counters of each job, and pass them on to the listener of the config.
+     */
+    private static class AggregatingListener implements MergeSortListener {
+
+        private final MergeSortMetrics  metrics;
+        private final MergeSortListener listener;
+
+        AggregatingListener(MergeSortMetrics metrics, MergeSortListener listener){
+            this.metrics = metrics;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onJobFinished(MergeSortMetrics jobMetrics) {
+            metrics.add(jobMetrics);
+            if (listener != null) {
+                listener.onJobFinished(jobMetrics);
+            }
+        }
+    }
+
+    /**
+     * Merge all clusters in parallel, and concatenate them in order.
+     */
+    private static class MergeClustersTask extends RecursiveTask<List<Partition>> {
+
+        private final List<List<Partition>> clusters;
+        private final MergeStrategy         strategy;
+        // Count of ranges cut by the RANGE strategy, or of chunks radix sorted in parallel, at most.
+        private final int                   parallelism;
+        private final MergeSortListener     listener;
+        private final SortCancellation      cancellation;
+        private final BinaryOperator<Comparable> combiner;
+
+        MergeClustersTask(List<List<Partition>> clusters, MergeStrategy strategy, int parallelism,
+                          MergeSortListener listener, SortCancellation cancellation,
+                          BinaryOperator<Comparable> combiner){
+            this.clusters = clusters;
+            this.strategy = strategy;
+            this.parallelism = parallelism;
+            this.listener = listener;
+            this.cancellation = cancellation;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected List<Partition> compute() {
+            List<ForkJoinTask<List<Partition>>> tasks = new ArrayList<>(clusters.size());
+            long forkNanos = System.nanoTime();
+            // A single partition is output as it is, unless its own values are combined.
+            for (List<Partition> cluster : clusters) {
+                if (cluster.size() > 1 || combiner != null) {
+                    tasks.add(ForkJoinTask.adapt(() -> mergeCluster(cluster, forkNanos)));
+                }
+            }
+            ForkJoinTask.invokeAll(tasks);
+
+            List<Partition> result = new ArrayList<>();
+            Iterator<ForkJoinTask<List<Partition>>> taskIterator = tasks.iterator();
+            for (List<Partition> cluster : clusters) {
+                if (cluster.size() > 1 || combiner != null) {
+                    result.addAll(taskIterator.next().join());
+                } else {
+                    result.addAll(cluster);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @param forkNanos when the task of the cluster is forked, which is the queue time of its jobs
+         */
+        private List<Partition> mergeCluster(List<Partition> cluster, long forkNanos) {
+            if (strategy == MergeStrategy.RADIX && RadixSortJob.shouldSort(cluster)) {
+                RadixSortJob job = new RadixSortJob(cluster, parallelism, listener, cancellation, forkNanos);
+                job.run();
+                return job.getOutputList();
+            } else if (strategy == MergeStrategy.K_WAY || strategy == MergeStrategy.RADIX) {
+                KWayMergeJob job = new KWayMergeJob(toSingletonLists(cluster), listener, cancellation, forkNanos);
+                job.run();
+                return job.getOutputList();
+            } else if (strategy == MergeStrategy.RANGE) {
+                long valueCount = cluster.stream().mapToLong(Partition::getValueCount).sum();
+                int rangeCount = RangePartitionedMerge.rangeCount(valueCount, parallelism);
+                return RangePartitionedMerge.merge(cluster, rangeCount, listener, cancellation);
+            }
+            return new MergeSortTask(toSingletonLists(cluster), listener, cancellation, combiner, forkNanos).invoke();
+        }
+    }
+
+    /**
+     * Run the task on a ForkJoinPool. A shared pool is used if one is
+     * configured, and the common pool is used for the default parallelism.
+     * Otherwise a pool is created for this sort only.
+     */
+    private static <T> T invokeOnForkJoinPool(ForkJoinTask<T> task, SortConfig config) {
+        ForkJoinPool pool = config.getForkJoinPool();
+        if (pool != null) {
+            return pool.invoke(task);
+        }
+        if (config.isDefaultParallelism()) {
+            return ForkJoinPool.commonPool().invoke(task);
+        }
+
+        pool = new ForkJoinPool(config.getParallelism());
+        try {
+            return pool.invoke(task);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Run the merge tree on a {@link MergeSortThreadPoolExecutor} created for this sort.
+     *
+     * @throws CancellationException if the sort is cancelled or the current thread is interrupted
+     */
+    private static List<Partition> mergeWithThreadPool(List<List<Partition>> partitionLists, int poolSize,
+                                                       MergeSortListener listener, SortCancellation cancellation) {
         // Create a thread pool
-        MergeSortThreadPoolExecutor threadPoolExecutor = new MergeSortThreadPoolExecutor(CORE_POOL_SIZE, MAX_POOL_SIZE,
-                KEEP_ALIVE_TIME, partitionLists);
+        MergeSortThreadPoolExecutor threadPoolExecutor = new MergeSortThreadPoolExecutor(poolSize, poolSize,
+                KEEP_ALIVE_TIME, partitionLists, listener, cancellation);
         threadPoolExecutor.prestartAllCoreThreads();
 
         // Start sorting
@@ -43,11 +662,17 @@ public class MergeSortK {
         try {
             threadPoolExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
         } catch (InterruptedException e) {
-            System.err.println("interrupted");
-            return new ArrayList();
+            threadPoolExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
         }
 
-        // Return sorted result
-        return threadPoolExecutor.getSortResult();
+        Throwable failure = threadPoolExecutor.getFailure();
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return threadPoolExecutor.getSortedPartitions();
     }
 }
@@ -0,0 +1,23 @@
+package com.company;
+
+/**
+ * Listener of a sort. It's called by worker threads, so it must be thread-safe.
+ */
+public interface MergeSortListener {
+
+    /**
+     * Called after each merge job.
+     *
+     * @param metrics counters of the job
+     */
+    default void onJobFinished(MergeSortMetrics metrics) {
+    }
+
+    /**
+     * Called once after the whole sort.
+     *
+     * @param metrics counters of all jobs of the sort
+     */
+    default void onSortFinished(MergeSortMetrics metrics) {
+    }
+}
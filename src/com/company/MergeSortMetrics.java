@@ -0,0 +1,171 @@
+package com.company;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counters of where merging time goes.
+ *
+ * Each job counts into its own instance without locking, and the instances
+ * are added up into the metrics of the whole sort when jobs finish.
+ *
+ * A shortcut is a container output as a whole because it doesn't intersect
+ * the other input. A merge is a group of intersecting containers degraded to
+ * the next level: partitions to blocks, or blocks to values.
+ */
+public class MergeSortMetrics {
+
+    private long partitionShortcuts;
+    private long blockShortcuts;
+    private long partitionMerges;
+    private long blockMerges;
+    private long valuesCopied;
+    private long conflictQueueLengthTotal;
+    private long conflictQueueLengthMax;
+    private long jobCount;
+    private long queueWaitNanos;
+    private long mergeNanos;
+    private long wallNanos;
+    // Merge time of each worker thread.
+    private final Map<String, Long> threadBusyNanos = new HashMap<>();
+
+    /**
+     * Count a container output as a whole.
+     */
+    void recordShortcut(Object container) {
+        if (container instanceof Partition) {
+            partitionShortcuts++;
+        } else {
+            blockShortcuts++;
+        }
+    }
+
+    /**
+     * Count a group of intersecting containers degraded to the next level.
+     *
+     * @param container one of the containers
+     * @param queueLength count of the containers in the conflict queues
+     */
+    void recordMerge(Object container, int queueLength) {
+        if (container instanceof Partition) {
+            partitionMerges++;
+        } else {
+            blockMerges++;
+        }
+        conflictQueueLengthTotal += queueLength;
+        conflictQueueLengthMax = Math.max(conflictQueueLengthMax, queueLength);
+    }
+
+    /**
+     * Count values written by a value-level merge.
+     */
+    void recordValuesCopied(long count) {
+        valuesCopied += count;
+    }
+
+    /**
+     * Count a finished job.
+     */
+    void recordJob(long queueWaitNanos, long mergeNanos, String threadName) {
+        this.jobCount++;
+        this.queueWaitNanos += queueWaitNanos;
+        this.mergeNanos += mergeNanos;
+        threadBusyNanos.merge(threadName, mergeNanos, Long::sum);
+    }
+
+    synchronized void setWallNanos(long wallNanos) {
+        this.wallNanos = wallNanos;
+    }
+
+    /**
+     * Add up the counters of another instance.
+     */
+    synchronized void add(MergeSortMetrics other) {
+        synchronized (other) {
+            partitionShortcuts += other.partitionShortcuts;
+            blockShortcuts += other.blockShortcuts;
+            partitionMerges += other.partitionMerges;
+            blockMerges += other.blockMerges;
+            valuesCopied += other.valuesCopied;
+            conflictQueueLengthTotal += other.conflictQueueLengthTotal;
+            conflictQueueLengthMax = Math.max(conflictQueueLengthMax, other.conflictQueueLengthMax);
+            jobCount += other.jobCount;
+            queueWaitNanos += other.queueWaitNanos;
+            mergeNanos += other.mergeNanos;
+            other.threadBusyNanos.forEach((thread, nanos) -> threadBusyNanos.merge(thread, nanos, Long::sum));
+        }
+    }
+
+    public synchronized long getPartitionShortcuts() {
+        return partitionShortcuts;
+    }
+
+    public synchronized long getBlockShortcuts() {
+        return blockShortcuts;
+    }
+
+    public synchronized long getPartitionMerges() {
+        return partitionMerges;
+    }
+
+    public synchronized long getBlockMerges() {
+        return blockMerges;
+    }
+
+    public synchronized long getValuesCopied() {
+        return valuesCopied;
+    }
+
+    public synchronized long getConflictQueueLengthTotal() {
+        return conflictQueueLengthTotal;
+    }
+
+    public synchronized long getConflictQueueLengthMax() {
+        return conflictQueueLengthMax;
+    }
+
+    public synchronized long getJobCount() {
+        return jobCount;
+    }
+
+    public synchronized long getQueueWaitNanos() {
+        return queueWaitNanos;
+    }
+
+    public synchronized long getMergeNanos() {
+        return mergeNanos;
+    }
+
+    /**
+     * @return wall time of the whole sort, or 0 for a single job
+     */
+    public synchronized long getWallNanos() {
+        return wallNanos;
+    }
+
+    public synchronized Map<String, Long> getThreadBusyNanos() {
+        return Collections.unmodifiableMap(new HashMap<>(threadBusyNanos));
+    }
+
+    /**
+     * @return busy time of each thread divided by the wall time of the sort
+     */
+    public synchronized Map<String, Double> getThreadUtilization() {
+        Map<String, Double> utilization = new HashMap<>();
+        if (wallNanos > 0) {
+            threadBusyNanos.forEach((thread, nanos) -> utilization.put(thread, (double) nanos / wallNanos));
+        }
+        return utilization;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "shortcuts: " + partitionShortcuts + " partitions, " + blockShortcuts + " blocks; "
+            + "merges: " + partitionMerges + " partition groups, " + blockMerges + " block groups; "
+            + "values copied: " + valuesCopied + "; "
+            + "conflict queue length: " + conflictQueueLengthTotal + " total, " + conflictQueueLengthMax + " max; "
+            + "jobs: " + jobCount + ", queue wait: " + queueWaitNanos / 1000 + "us, merge: " + mergeNanos / 1000
+            + "us, wall: " + wallNanos / 1000 + "us; threads: " + threadBusyNanos.size();
+    }
+}
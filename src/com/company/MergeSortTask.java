@@ -0,0 +1,100 @@
+package com.company;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Recursive merge tree task for ForkJoinPool.
+ *
+ * The partition lists are split into two halves, the left half is forked,
+ * the right half is computed by the current thread, and then both sorted
+ * lists are merged by a {@link MergeSortJob}. Idle workers steal the forked
+ * halves, so no lock is needed to schedule jobs.
+ *
+ * The queue wait of a job is the time its task waited in a deque, from its
+ * fork until a worker ran it. The time its halves take to merge before the
+ * job starts isn't waiting.
+ */
+public class MergeSortTask extends RecursiveTask<List<Partition>> {
+
+    private final List<List<Partition>> partitionLists;
+    private final int                   from, to;
+    private final MergeSortListener     listener;
+    private final SortCancellation      cancellation;
+    private final BinaryOperator<Comparable> combiner;
+    // Time when the task is forked or submitted.
+    private final long                  forkNanos;
+
+    public MergeSortTask(List<List<Partition>> partitionLists){
+        this(partitionLists, null);
+    }
+
+    public MergeSortTask(List<List<Partition>> partitionLists, MergeSortListener listener){
+        this(partitionLists, listener, SortCancellation.NONE);
+    }
+
+    public MergeSortTask(List<List<Partition>> partitionLists, MergeSortListener listener,
+                         SortCancellation cancellation){
+        this(partitionLists, listener, cancellation, null);
+    }
+
+    /**
+     * @param combiner combines values which compare equal, the one of the
+     *                 earlier list first; or null to keep all of them
+     */
+    public MergeSortTask(List<List<Partition>> partitionLists, MergeSortListener listener,
+                         SortCancellation cancellation, BinaryOperator<Comparable> combiner){
+        this(partitionLists, listener, cancellation, combiner, System.nanoTime());
+    }
+
+    /**
+     * @param forkNanos System.nanoTime() when the task is forked, for tasks which are created when they start
+     */
+    MergeSortTask(List<List<Partition>> partitionLists, MergeSortListener listener, SortCancellation cancellation,
+                  BinaryOperator<Comparable> combiner, long forkNanos){
+        this(partitionLists, 0, partitionLists.size(), listener, cancellation, combiner, forkNanos);
+    }
+
+    private MergeSortTask(List<List<Partition>> partitionLists, int from, int to, MergeSortListener listener,
+                          SortCancellation cancellation, BinaryOperator<Comparable> combiner, long forkNanos){
+        this.forkNanos = forkNanos;
+        this.partitionLists = partitionLists;
+        this.from = from;
+        this.to = to;
+        this.listener = listener;
+        this.cancellation = cancellation;
+        this.combiner = combiner;
+    }
+
+    @Override
+    protected List<Partition> compute() {
+        long waitNanos = System.nanoTime() - forkNanos;
+        if (to - from == 1) {
+            List<Partition> partitionList = partitionLists.get(from);
+            if (combiner != null) {
+                // Values of the same partition are never merged with each other.
+                partitionList = partitionList.stream().map(partition -> MergeSortJob.combinePartition(partition,
+                    combiner)).collect(Collectors.toList());
+            }
+            return partitionList;
+        }
+
+        int middle = (from + to) >>> 1;
+        long childForkNanos = System.nanoTime();
+        MergeSortTask leftTask = new MergeSortTask(partitionLists, from, middle, listener, cancellation, combiner,
+            childForkNanos);
+        MergeSortTask rightTask = new MergeSortTask(partitionLists, middle, to, listener, cancellation, combiner,
+            childForkNanos);
+        leftTask.fork();
+        List<Partition> rightList = rightTask.compute();
+        List<Partition> leftList = leftTask.join();
+
+        // The job starts right away, so it's reported as queued as long as the task waited.
+        MergeSortJob job = new MergeSortJob(leftList, rightList, listener, cancellation, combiner,
+            System.nanoTime() - waitNanos);
+        job.run();
+        return job.getOutputList();
+    }
+}
@@ -1,8 +1,14 @@
 package com.company;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -12,28 +18,65 @@ import java.util.concurrent.TimeUnit;
  * 2. Use worker threads to consume jobs.
  * 3. Every two jobs produce one new job. Put the new job back to the queue.
  *
+ * Lists are paired in the order of their value counts, i.e. the two smallest
+ * lists are always merged first, like building a Huffman tree. A pair waits
+ * while a running job will output a list smaller than the bigger of the two,
+ * so a big merged list waits until the other lists have grown to its size,
+ * instead of being copied again with each small list. The count of values
+ * copied is the least for skewed partition sizes too.
+ *
  * One possible work path:
- * Data: (3), (1), (5), (2), (4), Threads: 2
+ * Data: (3), (1), (5), (2), (4, 6), Threads: 2
  * Thread1: (3) + (1) => [(1), (3)]
  * Thread2: (5) + (2) => [(2), (5)]
- * Thread1: (4) + [(1), (3)] => [(1), (3), (4)]
- * Thread1: [(2), (5)] + [(1), (3), (4)] => [(1), (2), (3), (4), (5)]
+ * Thread1: (4, 6) + [(1), (3)] => [(1), (3), (4), (6)]
+ * Thread1: [(2), (5)] + [(1), (3), (4), (6)] => [(1), (2), (3), (4), (5), (6)]
  */
 public class MergeSortThreadPoolExecutor extends ThreadPoolExecutor {
 
-    // Queue stores sorted lists.
-    private List<List<Partition>> partitionLists;
+    // Queue stores sorted lists, the smallest first.
+    private final PriorityQueue<SizedList> partitionLists = new PriorityQueue<>(
+        Comparator.comparingLong((SizedList list) -> list.valueCount).thenComparingLong(list -> list.sequence));
+    // Value count of the output of each running job.
+    private final Map<MergeSortJob, Long> runningJobs = new IdentityHashMap<>();
+    // Count of lists put into the queue, which orders lists of the same size.
+    private long       listSequence;
+    // Count of merge jobs needed, i.e. the count of lists minus 1.
+    private final int  totalJobCount;
+    private int        finishedJobCount;
     // The total value count in all lists.
-    private int        totalValueCount;
+    private final long totalValueCount;
+    // Count of values output by finished jobs, i.e. copied or moved as a whole.
+    private long       mergedValueCount;
+    // Listener passed to each job, may be null.
+    private final MergeSortListener listener;
+    private final SortCancellation  cancellation;
+    // The first exception thrown by a job.
+    private volatile Throwable      failure;
 
     public MergeSortThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
                                        List<List<Partition>> partitionLists){
+        this(corePoolSize, maximumPoolSize, keepAliveTime, partitionLists, null);
+    }
+
+    public MergeSortThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                       List<List<Partition>> partitionLists, MergeSortListener listener){
+        this(corePoolSize, maximumPoolSize, keepAliveTime, partitionLists, listener, SortCancellation.NONE);
+    }
+
+    public MergeSortThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+                                       List<List<Partition>> partitionLists, MergeSortListener listener,
+                                       SortCancellation cancellation){
         super(corePoolSize,
             maximumPoolSize,
             keepAliveTime,
             TimeUnit.MILLISECONDS,
-            new ArrayBlockingQueue<>(partitionLists.size() / 2));
+            new ArrayBlockingQueue<>(Math.max(1, partitionLists.size() / 2)));
 
+        this.listener = listener;
+        this.cancellation = cancellation;
+        this.totalJobCount = Math.max(0, partitionLists.size() - 1);
+        this.totalValueCount = partitionLists.stream().mapToLong(MergeSortJob::countValues).sum();
         initPartitionLists(partitionLists);
     }
 
@@ -43,8 +86,7 @@ public class MergeSortThreadPoolExecutor extends ThreadPoolExecutor {
      * @param inputLists original 2d array.
      */
     private void initPartitionLists(List<List<Partition>> inputLists) {
-        totalValueCount = inputLists.stream().map(List::size).reduce(0, Integer::sum);
-        partitionLists = new LinkedList<>(inputLists);
+        inputLists.forEach(this::offer);
     }
 
     /**
@@ -52,9 +94,14 @@ public class MergeSortThreadPoolExecutor extends ThreadPoolExecutor {
      */
     public void start() {
         List<Runnable> jobs = new ArrayList<>(partitionLists.size() / 2);
-        Runnable job;
-        while ((job = peekNewJob()) != null) {
-            jobs.add(job);
+        synchronized (this) {
+            if (isFinished()) {
+                shutdown();
+            }
+            Runnable job;
+            while ((job = peekNewJob()) != null) {
+                jobs.add(job);
+            }
         }
         // Remove all nodes from partitionLists and then start running.
         // Don't do it simultaneously.
@@ -62,32 +109,83 @@ public class MergeSortThreadPoolExecutor extends ThreadPoolExecutor {
     }
 
     /**
-     * Get the sorted result after it's done.
+     * Get the sorted result after it's done. Slices of the sorted partitions
+     * are copied into one array in parallel on the common pool.
      *
      * @return the sorted list.
      */
     public List getSortResult() {
-        List result = new ArrayList();
-        for (List<Partition> partitionList : partitionLists) {
-            for (Partition partition : partitionList) {
-                result.addAll(partition.getValueList());
-            }
+        List<Partition> sortedPartitions = getSortedPartitions();
+        Comparable[] values = new Comparable[MergeSortJob.toArrayLength(MergeSortJob.countValues(sortedPartitions))];
+        try {
+            OutputSink.of(values).write(sortedPartitions, getCorePoolSize());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ArrayList<>(Arrays.asList(values));
+    }
+
+    /**
+     * Get the sorted partitions after it's done.
+     *
+     * @return the sorted partition list.
+     */
+    public List<Partition> getSortedPartitions() {
+        List<Partition> result = new ArrayList<>();
+        for (SizedList partitionList : partitionLists) {
+            result.addAll(partitionList.partitions);
         }
         return result;
     }
 
     /**
-     * Judge if it's all finished according to the merged result.
+     * @return the first exception thrown by a job, or null if none
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Judge if it's all finished, i.e. all lists are merged into one.
      *
      * @return true if finished or false otherwise.
      */
-    private boolean isFinished() {
-        return partitionLists.size() == 1 && partitionLists.get(0).size() == totalValueCount;
+    public synchronized boolean isFinished() {
+        return finishedJobCount == totalJobCount;
+    }
+
+    /**
+     * @return count of merge jobs finished so far
+     */
+    public synchronized int getFinishedJobCount() {
+        return finishedJobCount;
+    }
+
+    /**
+     * @return count of merge jobs of the whole sort, i.e. the count of input lists minus 1
+     */
+    public int getTotalJobCount() {
+        return totalJobCount;
+    }
+
+    /**
+     * @return count of values output by the merge jobs finished so far. A
+     *         value is counted once for each merge it goes through.
+     */
+    public synchronized long getMergedValueCount() {
+        return mergedValueCount;
+    }
+
+    /**
+     * @return count of values in all lists
+     */
+    public long getTotalValueCount() {
+        return totalValueCount;
     }
 
     /**
      * Append the new list to the queue after each worker finishes.
-     * If there's at least 2 lists in the queue, produce a new job, and consume it.
+     * While the two smallest lists in the queue can be paired, produce new jobs, and consume them.
      *
      * @param r the finished job
      * @param t exceptions
@@ -99,19 +197,28 @@ public class MergeSortThreadPoolExecutor extends ThreadPoolExecutor {
         // Add lock to this code to make it atomic, preventing from two
         // threads checking queue size simultaneously and both stop.
         synchronized (this) {
-            if (t == null && r instanceof MergeSortJob) {
+            if (t != null) {
+                // The merge tree can't be finished without the output of this job.
+                if (failure == null) {
+                    failure = t;
+                }
+                shutdownNow();
+            } else if (r instanceof MergeSortJob && failure == null) {
                 // Get the new sorted list, put it back to the queue.
                 List<Partition> outputList = ((MergeSortJob) r).getOutputList();
-                partitionLists.add(outputList);
+                runningJobs.remove(r);
+                offer(outputList);
+                finishedJobCount++;
+                mergedValueCount += MergeSortJob.countValues(outputList);
 
                 // If it's the very last one, shutdown.
                 if (isFinished()) {
                     shutdown();
                 }
 
-                // Produce a new job and consume it.
-                Runnable job = peekNewJob();
-                if (job != null) {
+                // Produce new jobs and consume them, since a pair may have waited for this list.
+                Runnable job;
+                while ((job = peekNewJob()) != null) {
                     execute(job);
                 }
             }
@@ -119,14 +226,46 @@ public class MergeSortThreadPoolExecutor extends ThreadPoolExecutor {
     }
 
     /**
-     * Combine two list into one job. Always peek lists from the head.
+     * Combine the two smallest lists into one job, unless a running job will
+     * output a list smaller than the bigger of them.
      *
      * @return A job if there's one, or null if none.
      */
     private Runnable peekNewJob() {
-        if (partitionLists.size() > 1) {
-            return new MergeSortJob(partitionLists.remove(0), partitionLists.remove(0));
+        if (partitionLists.size() < 2) {
+            return null;
+        }
+        SizedList list1 = partitionLists.poll();
+        SizedList list2 = partitionLists.peek();
+        for (long runningValueCount : runningJobs.values()) {
+            if (runningValueCount < list2.valueCount) {
+                partitionLists.add(list1);
+                return null;
+            }
+        }
+        partitionLists.poll();
+        MergeSortJob job = new MergeSortJob(list1.partitions, list2.partitions, listener, cancellation);
+        runningJobs.put(job, list1.valueCount + list2.valueCount);
+        return job;
+    }
+
+    private void offer(List<Partition> partitions) {
+        partitionLists.add(new SizedList(partitions, MergeSortJob.countValues(partitions), listSequence++));
+    }
+
+    /**
+     * A sorted partition list in the queue, with its value count cached.
+     */
+    private static class SizedList {
+
+        private final List<Partition> partitions;
+        private final long            valueCount;
+        private final long            sequence;
+
+        SizedList(List<Partition> partitions, long valueCount, long sequence){
+            this.partitions = partitions;
+            this.valueCount = valueCount;
+            this.sequence = sequence;
         }
-        return null;
     }
 }
@@ -0,0 +1,31 @@
+package com.company;
+
+/**
+ * How partitions are merged.
+ */
+public enum MergeStrategy {
+    /**
+     * Merge two partition lists at a time in a merge tree, with multi-threads.
+     */
+    PAIRWISE,
+    /**
+     * Merge all partitions at once with a loser tree. Each value is moved only once.
+     */
+    K_WAY,
+    /**
+     * Cut partitions into key ranges by sampled splitters, and K-way merge
+     * the ranges in parallel. Parallelism doesn't drop as the merge goes on.
+     */
+    RANGE,
+    /**
+     * Radix sort each cluster of int or long partitions which cover about
+     * the same key range, see {@link RadixSortJob}, and K-way merge the
+     * other clusters.
+     */
+    RADIX,
+    /**
+     * Pick RADIX if partitions overlap heavily, otherwise PAIRWISE. Always
+     * PAIRWISE for a combiner, see {@link SortConfig#setCombiner}.
+     */
+    AUTO
+}
@@ -0,0 +1,385 @@
+package com.company;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Destination of the sorted partitions, e.g. a preallocated array, a
+ * ByteBuffer or a FileChannel.
+ *
+ * The offset of each block in the output is known before any value is
+ * copied: it's the prefix sum of the value counts of the blocks before it.
+ * So the output is cut into one slice of about the same size for each
+ * thread, blocks are sliced at the cuts, and the slices are copied in
+ * parallel, each straight into its own range of the output. No list of
+ * values is built on the way.
+ */
+public abstract class OutputSink {
+
+    /* Each slice copied by one task has about this many values at least */
+    private static final int MIN_SLICE_SIZE = 1 << 12;
+    /* Values of int and long sinks encoded into a ByteBuffer at a time, when writing to a channel */
+    private static final int CHANNEL_BUFFER_VALUES = 1 << 13;
+
+    /**
+     * Write sorted partitions to this sink, copying slices of about the same
+     * size in parallel on the current ForkJoinPool, or on the common pool if
+     * the current thread isn't in one.
+     *
+     * @param partitions sorted partitions
+     * @param parallelism count of slices copied in parallel at most
+     * @return count of values written
+     * @throws IOException if a value can't be written
+     */
+    public final long write(List<? extends Partition> partitions, int parallelism) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        for (Partition partition : partitions) {
+            blocks.addAll(partition.getBlockList());
+        }
+        // offsets[i] is the offset of blocks[i] in the output, offsets[blocks.size()] is the value count.
+        long[] offsets = new long[blocks.size() + 1];
+        for (int i = 0; i < blocks.size(); i++) {
+            offsets[i + 1] = offsets[i] + blocks.get(i).getValueCount();
+        }
+        long valueCount = offsets[blocks.size()];
+        begin(valueCount);
+
+        int sliceCount = (int) Math.max(1, Math.min(parallelism, valueCount / MIN_SLICE_SIZE));
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(sliceCount);
+        for (int slice = 0; slice < sliceCount; slice++) {
+            long from = valueCount * slice / sliceCount, to = valueCount * (slice + 1) / sliceCount;
+            tasks.add(ForkJoinTask.adapt(() -> writeSlice(blocks, offsets, from, to)));
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        end(valueCount);
+        return valueCount;
+    }
+
+    /**
+     * Write values [from, to) of the output, cutting the blocks at both ends.
+     */
+    private void writeSlice(List<Block> blocks, long[] offsets, long from, long to) {
+        // The last block which starts at or before from
+        int index = upperBound(offsets, from) - 1;
+        try {
+            for (; index < blocks.size() && offsets[index] < to; index++) {
+                Block block = blocks.get(index);
+                int sliceFrom = (int) (Math.max(from, offsets[index]) - offsets[index]);
+                int sliceTo = (int) (Math.min(to, offsets[index + 1]) - offsets[index]);
+                if (sliceFrom < sliceTo) {
+                    writeBlock(sliceFrom == 0 && sliceTo == block.getValueCount() ? block
+                        : block.slice(sliceFrom, sliceTo), offsets[index] + sliceFrom);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the index of the first offset bigger than key
+     */
+    private static int upperBound(long[] offsets, long key) {
+        int from = 0, to = offsets.length;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (offsets[middle] <= key) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    /**
+     * Called before any block is written.
+     *
+     * @param valueCount count of values to be written
+     */
+    protected void begin(long valueCount) {
+    }
+
+    /**
+     * Write the values of a block, which may be called by several threads at
+     * the same time for blocks at different offsets.
+     *
+     * @param block block or slice of a block
+     * @param offset index of its first value in the output
+     * @throws IOException if a value can't be written
+     */
+    protected abstract void writeBlock(Block block, long offset) throws IOException;
+
+    /**
+     * Called after all blocks are written.
+     *
+     * @param valueCount count of values written
+     */
+    protected void end(long valueCount) {
+    }
+
+    /**
+     * @param array output from index 0, which must be long enough
+     */
+    public static OutputSink of(Object[] array) {
+        return new OutputSink() {
+            @Override
+            protected void begin(long valueCount) {
+                checkArrayLength(array.length, valueCount);
+            }
+
+            @Override
+            protected void writeBlock(Block block, long offset) {
+                List values = block.getValues();
+                for (int i = 0; i < values.size(); i++) {
+                    array[(int) offset + i] = values.get(i);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param array output from index 0, which must be long enough
+     */
+    public static OutputSink of(int[] array) {
+        return new OutputSink() {
+            @Override
+            protected void begin(long valueCount) {
+                checkArrayLength(array.length, valueCount);
+            }
+
+            @Override
+            protected void writeBlock(Block block, long offset) {
+                copyInts(block, array, (int) offset);
+            }
+        };
+    }
+
+    /**
+     * @param array output from index 0, which must be long enough
+     */
+    public static OutputSink of(long[] array) {
+        return new OutputSink() {
+            @Override
+            protected void begin(long valueCount) {
+                checkArrayLength(array.length, valueCount);
+            }
+
+            @Override
+            protected void writeBlock(Block block, long offset) {
+                copyLongs(block, array, (int) offset);
+            }
+        };
+    }
+
+    /**
+     * Write int values in the byte order of the buffer, from its position.
+     * The position is moved past the values when all of them are written.
+     *
+     * @throws BufferOverflowException if the buffer has too few bytes remaining
+     */
+    public static OutputSink ofInts(ByteBuffer buffer) {
+        return new ByteBufferSink(buffer, Integer.BYTES) {
+            @Override
+            protected void writeBlock(Block block, long offset) {
+                putInts(view(offset).asIntBuffer(), block, 0, block.getValueCount());
+            }
+        };
+    }
+
+    /**
+     * Write long values in the byte order of the buffer, from its position.
+     * The position is moved past the values when all of them are written.
+     *
+     * @throws BufferOverflowException if the buffer has too few bytes remaining
+     */
+    public static OutputSink ofLongs(ByteBuffer buffer) {
+        return new ByteBufferSink(buffer, Long.BYTES) {
+            @Override
+            protected void writeBlock(Block block, long offset) {
+                putLongs(view(offset).asLongBuffer(), block, 0, block.getValueCount());
+            }
+        };
+    }
+
+    /**
+     * Write int values in big-endian order to a file, from a position. The
+     * position of the channel is not used or moved.
+     *
+     * @param channel channel which is open for writing
+     * @param position byte offset in the file of the first value
+     */
+    public static OutputSink ofInts(FileChannel channel, long position) {
+        return new OutputSink() {
+            @Override
+            protected void writeBlock(Block block, long offset) throws IOException {
+                ByteBuffer buffer = ByteBuffer.allocate(
+                    Math.min(block.getValueCount(), CHANNEL_BUFFER_VALUES) * Integer.BYTES);
+                for (int from = 0; from < block.getValueCount(); from += CHANNEL_BUFFER_VALUES) {
+                    int to = Math.min(block.getValueCount(), from + CHANNEL_BUFFER_VALUES);
+                    buffer.clear();
+                    putInts(buffer.asIntBuffer(), block, from, to);
+                    buffer.limit((to - from) * Integer.BYTES);
+                    writeFully(channel, buffer, position + (offset + from) * Integer.BYTES);
+                }
+            }
+        };
+    }
+
+    /**
+     * Write long values in big-endian order to a file, from a position. The
+     * position of the channel is not used or moved.
+     *
+     * @param channel channel which is open for writing
+     * @param position byte offset in the file of the first value
+     */
+    public static OutputSink ofLongs(FileChannel channel, long position) {
+        return new OutputSink() {
+            @Override
+            protected void writeBlock(Block block, long offset) throws IOException {
+                ByteBuffer buffer = ByteBuffer.allocate(
+                    Math.min(block.getValueCount(), CHANNEL_BUFFER_VALUES) * Long.BYTES);
+                for (int from = 0; from < block.getValueCount(); from += CHANNEL_BUFFER_VALUES) {
+                    int to = Math.min(block.getValueCount(), from + CHANNEL_BUFFER_VALUES);
+                    buffer.clear();
+                    putLongs(buffer.asLongBuffer(), block, from, to);
+                    buffer.limit((to - from) * Long.BYTES);
+                    writeFully(channel, buffer, position + (offset + from) * Long.BYTES);
+                }
+            }
+        };
+    }
+
+    /**
+     * Sink writing to the absolute positions of a ByteBuffer, so threads don't share its position.
+     */
+    private abstract static class ByteBufferSink extends OutputSink {
+
+        private final ByteBuffer buffer;
+        private final int        valueBytes;
+        // Position of the buffer when the sink starts writing.
+        private int              start;
+
+        ByteBufferSink(ByteBuffer buffer, int valueBytes){
+            this.buffer = buffer;
+            this.valueBytes = valueBytes;
+        }
+
+        @Override
+        protected void begin(long valueCount) {
+            if (valueCount > buffer.remaining() / valueBytes) {
+                throw new BufferOverflowException();
+            }
+            start = buffer.position();
+        }
+
+        /**
+         * @return a view of the buffer from the value at offset, in the same byte order
+         */
+        ByteBuffer view(long offset) {
+            ByteBuffer view = buffer.duplicate().order(buffer.order());
+            view.position(start + (int) offset * valueBytes);
+            return view;
+        }
+
+        @Override
+        protected void end(long valueCount) {
+            buffer.position(start + (int) valueCount * valueBytes);
+        }
+    }
+
+    private static void checkArrayLength(int length, long valueCount) {
+        if (valueCount > length) {
+            throw new IllegalArgumentException("Array of length " + length + " can't hold " + valueCount + " values");
+        }
+    }
+
+    /**
+     * Copy the values of a block into dest, from offset.
+     */
+    private static void copyInts(Block block, int[] dest, int offset) {
+        if (block instanceof IntBlock) {
+            ((IntBlock) block).copyTo(dest, offset);
+            return;
+        }
+        List values = block.getValues();
+        for (int i = 0; i < values.size(); i++) {
+            dest[offset + i] = ((Number) values.get(i)).intValue();
+        }
+    }
+
+    /**
+     * Copy the values of a block into dest, from offset.
+     */
+    private static void copyLongs(Block block, long[] dest, int offset) {
+        if (block instanceof LongBlock) {
+            ((LongBlock) block).copyTo(dest, offset);
+            return;
+        } else if (block instanceof MappedLongBlock) {
+            MappedLongBlock mappedBlock = (MappedLongBlock) block;
+            LongBuffer source = mappedBlock.getBuffer().duplicate();
+            source.position(mappedBlock.getFrom());
+            source.get(dest, offset, mappedBlock.size());
+            return;
+        }
+        List values = block.getValues();
+        for (int i = 0; i < values.size(); i++) {
+            dest[offset + i] = ((Number) values.get(i)).longValue();
+        }
+    }
+
+    /**
+     * Put values [from, to) of a block into dest, without copying an int block first.
+     */
+    private static void putInts(IntBuffer dest, Block block, int from, int to) {
+        if (block instanceof IntBlock) {
+            IntBlock intBlock = (IntBlock) block;
+            dest.put(intBlock.getArray(), intBlock.getFrom() + from, to - from);
+            return;
+        }
+        List values = block.getValues();
+        for (int i = from; i < to; i++) {
+            dest.put(((Number) values.get(i)).intValue());
+        }
+    }
+
+    /**
+     * Put values [from, to) of a block into dest, without copying a long block first.
+     */
+    private static void putLongs(LongBuffer dest, Block block, int from, int to) {
+        if (block instanceof LongBlock) {
+            LongBlock longBlock = (LongBlock) block;
+            dest.put(longBlock.getArray(), longBlock.getFrom() + from, to - from);
+            return;
+        } else if (block instanceof MappedLongBlock) {
+            MappedLongBlock mappedBlock = (MappedLongBlock) block;
+            LongBuffer source = mappedBlock.getBuffer().duplicate();
+            source.limit(mappedBlock.getFrom() + to).position(mappedBlock.getFrom() + from);
+            dest.put(source);
+            return;
+        }
+        List values = block.getValues();
+        for (int i = from; i < to; i++) {
+            dest.put(((Number) values.get(i)).longValue());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Plan which partitions need merging before any value is touched.
+ *
+ * Partitions are sorted by their least values, and their [first, last]
+ * intervals are swept from left to right. A partition whose least value is
+ * less than the biggest value of the current cluster joins the cluster;
+ * otherwise it starts a new one. Clusters don't intersect each other, so
+ * they can be merged independently, and a cluster with one partition needs
+ * no merging at all.
+ *
+ * Planning costs O(K * logK) for K partitions.
+ */
+public class OverlapPlanner {
+
+    /**
+     * Group partitions into clusters of intersecting partitions. Empty
+     * partitions are dropped.
+     *
+     * @param partitions partitions to be planned
+     * @return clusters in the order of values. Partitions in each cluster are
+     *         in the order of their least values.
+     */
+    public static List<List<Partition>> plan(List<? extends Partition> partitions) {
+        return planContainers(partitions, false);
+    }
+
+    /**
+     * Same as {@link #plan(List)}. If inclusive, partitions which only touch
+     * at a bound, i.e. the least value of one equals the biggest value of
+     * another, are in the same cluster too, so equal values are always merged
+     * by one merge tree, e.g. to be combined in the order of partitions.
+     */
+    public static List<List<Partition>> plan(List<? extends Partition> partitions, boolean inclusive) {
+        return planContainers(partitions, inclusive);
+    }
+
+    /**
+     * Same as {@link #plan(List)}, for any kind of container, e.g. blocks or
+     * block indexes read from file footers.
+     */
+    public static <C extends ComparableContainer> List<List<C>> planContainers(List<? extends C> containers) {
+        return planContainers(containers, false);
+    }
+
+    private static <C extends ComparableContainer> List<List<C>> planContainers(List<? extends C> containers,
+                                                                              boolean inclusive) {
+        List<C> sortedContainers = containers.stream()
+            .filter(container -> container.getFirst() != null)
+            .sorted((container1, container2) -> container1.getFirst().compareTo(container2.getFirst()))
+            .collect(Collectors.toList());
+
+        List<List<C>> clusters = new ArrayList<>();
+        List<C> cluster = null;
+        Comparable lastBiggest = null;
+        for (C container : sortedContainers) {
+            int result = cluster == null ? 1 : container.getFirst().compareTo(lastBiggest);
+            if (result > 0 || (result == 0 && !inclusive)) {
+                // No intersection with the current cluster, start a new one
+                cluster = new ArrayList<>();
+                clusters.add(cluster);
+                lastBiggest = container.getLast();
+            } else if (container.getLast().compareTo(lastBiggest) > 0) {
+                lastBiggest = container.getLast();
+            }
+            cluster.add(container);
+        }
+        return clusters;
+    }
+}
@@ -0,0 +1,250 @@
+package com.company;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Merge two sorted inputs with several threads.
+ *
+ * The output is cut into P pieces of equal length. For the start of each
+ * piece, a binary search finds how many values come from each input (its
+ * co-rank), so each piece merges independent slices of both inputs into its
+ * own slice of the output.
+ *
+ * Equal values are taken from the first input first.
+ */
+public class ParallelMerge {
+
+    /* Merges with fewer values than this are done by the current thread */
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    /* Each piece has at least this many values */
+    private static final int MIN_PIECE_SIZE = 1 << 14;
+
+    /**
+     * @return true if a merge of totalSize values is split into several pieces
+     */
+    public static boolean shouldSplit(int totalSize) {
+        return pieceCount(totalSize) > 1;
+    }
+
+    /**
+     * Merge two sorted int arrays.
+     */
+    public static int[] mergeInts(int[] inputArray1, int[] inputArray2) {
+        int[] outputArray = new int[inputArray1.length + inputArray2.length];
+        mergeInts(inputArray1, inputArray1.length, inputArray2, inputArray2.length, outputArray);
+        return outputArray;
+    }
+
+    /**
+     * Merge inputArray1[0, length1) and inputArray2[0, length2) into outputArray from 0.
+     */
+    public static void mergeInts(int[] inputArray1, int length1, int[] inputArray2, int length2, int[] outputArray) {
+        mergeInts(inputArray1, 0, length1, inputArray2, 0, length2, outputArray, 0);
+    }
+
+    /**
+     * Merge inputArray1[from1, to1) and inputArray2[from2, to2) into outputArray from outputFrom.
+     */
+    public static void mergeInts(int[] inputArray1, int from1, int to1, int[] inputArray2, int from2, int to2,
+                                 int[] outputArray, int outputFrom) {
+        int totalSize = to1 - from1 + to2 - from2;
+        int pieceCount = pieceCount(totalSize);
+        if (pieceCount <= 1) {
+            MergeKernel.mergeInts(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+            return;
+        }
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[pieceCount];
+        int[] coRanks = new int[pieceCount + 1];
+        for (int piece = 0; piece <= pieceCount; piece++) {
+            coRanks[piece] = from1 + coRankInts(diagonal(totalSize, piece, pieceCount), inputArray1, from1, to1,
+                inputArray2, from2, to2);
+        }
+        for (int piece = 0; piece < pieceCount; piece++) {
+            int from = diagonal(totalSize, piece, pieceCount);
+            int to = diagonal(totalSize, piece + 1, pieceCount);
+            int pieceFrom1 = coRanks[piece], pieceTo1 = coRanks[piece + 1];
+            int pieceFrom2 = from2 + from - (pieceFrom1 - from1), pieceTo2 = from2 + to - (pieceTo1 - from1);
+            tasks[piece] = ForkJoinTask.adapt(() -> MergeKernel.mergeInts(inputArray1, pieceFrom1, pieceTo1,
+                inputArray2, pieceFrom2, pieceTo2, outputArray, outputFrom + from));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Merge two sorted long arrays.
+     */
+    public static long[] mergeLongs(long[] inputArray1, long[] inputArray2) {
+        long[] outputArray = new long[inputArray1.length + inputArray2.length];
+        mergeLongs(inputArray1, inputArray1.length, inputArray2, inputArray2.length, outputArray);
+        return outputArray;
+    }
+
+    /**
+     * Merge inputArray1[0, length1) and inputArray2[0, length2) into outputArray from 0.
+     */
+    public static void mergeLongs(long[] inputArray1, int length1, long[] inputArray2, int length2,
+                                  long[] outputArray) {
+        mergeLongs(inputArray1, 0, length1, inputArray2, 0, length2, outputArray, 0);
+    }
+
+    /**
+     * Merge inputArray1[from1, to1) and inputArray2[from2, to2) into outputArray from outputFrom.
+     */
+    public static void mergeLongs(long[] inputArray1, int from1, int to1, long[] inputArray2, int from2, int to2,
+                                  long[] outputArray, int outputFrom) {
+        int totalSize = to1 - from1 + to2 - from2;
+        int pieceCount = pieceCount(totalSize);
+        if (pieceCount <= 1) {
+            MergeKernel.mergeLongs(inputArray1, from1, to1, inputArray2, from2, to2, outputArray, outputFrom);
+            return;
+        }
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[pieceCount];
+        int[] coRanks = new int[pieceCount + 1];
+        for (int piece = 0; piece <= pieceCount; piece++) {
+            coRanks[piece] = from1 + coRankLongs(diagonal(totalSize, piece, pieceCount), inputArray1, from1, to1,
+                inputArray2, from2, to2);
+        }
+        for (int piece = 0; piece < pieceCount; piece++) {
+            int from = diagonal(totalSize, piece, pieceCount);
+            int to = diagonal(totalSize, piece + 1, pieceCount);
+            int pieceFrom1 = coRanks[piece], pieceTo1 = coRanks[piece + 1];
+            int pieceFrom2 = from2 + from - (pieceFrom1 - from1), pieceTo2 = from2 + to - (pieceTo1 - from1);
+            tasks[piece] = ForkJoinTask.adapt(() -> MergeKernel.mergeLongs(inputArray1, pieceFrom1, pieceTo1,
+                inputArray2, pieceFrom2, pieceTo2, outputArray, outputFrom + from));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Merge two sorted value lists.
+     */
+    public static List<Comparable> mergeValues(List<? extends Comparable> inputList1,
+                                               List<? extends Comparable> inputList2) {
+        Comparable[] outputArray = new Comparable[inputList1.size() + inputList2.size()];
+        mergeValues(inputList1.toArray(new Comparable[0]), inputList1.size(),
+            inputList2.toArray(new Comparable[0]), inputList2.size(), outputArray);
+        return Arrays.asList(outputArray);
+    }
+
+    /**
+     * Merge inputArray1[0, length1) and inputArray2[0, length2) into outputArray from 0.
+     */
+    public static void mergeValues(Comparable[] inputArray1, int length1, Comparable[] inputArray2, int length2,
+                                   Comparable[] outputArray) {
+        int totalSize = length1 + length2;
+        int pieceCount = Math.max(pieceCount(totalSize), 1);
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[pieceCount];
+        int[] coRanks = new int[pieceCount + 1];
+        for (int piece = 0; piece <= pieceCount; piece++) {
+            coRanks[piece] = coRankValues(diagonal(totalSize, piece, pieceCount), inputArray1, length1,
+                inputArray2, length2);
+        }
+        for (int piece = 0; piece < pieceCount; piece++) {
+            int from = diagonal(totalSize, piece, pieceCount);
+            int to = diagonal(totalSize, piece + 1, pieceCount);
+            int from1 = coRanks[piece], to1 = coRanks[piece + 1];
+            tasks[piece] = ForkJoinTask.adapt(() -> mergeValues(inputArray1, from1, to1,
+                inputArray2, from - from1, to - to1, outputArray, from));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Merge inputArray1[from1, to1) and inputArray2[from2, to2) into outputArray from outputFrom.
+     */
+    private static void mergeValues(Comparable[] inputArray1, int from1, int to1,
+                                    Comparable[] inputArray2, int from2, int to2,
+                                    Comparable[] outputArray, int outputFrom) {
+        int index1 = from1, index2 = from2, outputIndex = outputFrom;
+        while (index1 < to1 && index2 < to2) {
+            Comparable value1 = inputArray1[index1], value2 = inputArray2[index2];
+            if (value1.compareTo(value2) <= 0) {
+                outputArray[outputIndex++] = value1;
+                index1++;
+            } else {
+                outputArray[outputIndex++] = value2;
+                index2++;
+            }
+        }
+        System.arraycopy(inputArray1, index1, outputArray, outputIndex, to1 - index1);
+        System.arraycopy(inputArray2, index2, outputArray, outputIndex + to1 - index1, to2 - index2);
+    }
+
+    /**
+     * Find how many of the first diagonal output values come from inputArray1[from1, to1).
+     * That's the least i where inputArray2[from2 + diagonal - i - 1] < inputArray1[from1 + i].
+     */
+    static int coRankInts(int diagonal, int[] inputArray1, int from1, int to1, int[] inputArray2, int from2,
+                          int to2) {
+        int low = Math.max(0, diagonal - (to2 - from2)), high = Math.min(diagonal, to1 - from1);
+        while (low < high) {
+            int i = (low + high) >>> 1, j = diagonal - i;
+            if (j == 0 || inputArray2[from2 + j - 1] < inputArray1[from1 + i]) {
+                high = i;
+            } else {
+                low = i + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Same as {@link #coRankInts(int, int[], int, int, int[], int, int)}, for long arrays.
+     */
+    static int coRankLongs(int diagonal, long[] inputArray1, int from1, int to1, long[] inputArray2, int from2,
+                           int to2) {
+        int low = Math.max(0, diagonal - (to2 - from2)), high = Math.min(diagonal, to1 - from1);
+        while (low < high) {
+            int i = (low + high) >>> 1, j = diagonal - i;
+            if (j == 0 || inputArray2[from2 + j - 1] < inputArray1[from1 + i]) {
+                high = i;
+            } else {
+                low = i + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find how many of the first diagonal output values come from inputArray1[0, length1).
+     * That's the least i where inputArray2[diagonal - i - 1] < inputArray1[i].
+     */
+    private static int coRankValues(int diagonal, Comparable[] inputArray1, int length1,
+                                    Comparable[] inputArray2, int length2) {
+        int low = Math.max(0, diagonal - length2), high = Math.min(diagonal, length1);
+        while (low < high) {
+            int i = (low + high) >>> 1, j = diagonal - i;
+            if (j == 0 || inputArray2[j - 1].compareTo(inputArray1[i]) < 0) {
+                high = i;
+            } else {
+                low = i + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the output index where the piece starts
+     */
+    private static int diagonal(int totalSize, int piece, int pieceCount) {
+        return (int) ((long) totalSize * piece / pieceCount);
+    }
+
+    /**
+     * Use the parallelism of the pool which runs the current task, or of the
+     * common pool otherwise.
+     */
+    private static int pieceCount(int totalSize) {
+        if (totalSize < PARALLEL_THRESHOLD) {
+            return 1;
+        }
+        ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+        return Math.min(pool.getParallelism(), totalSize / MIN_PIECE_SIZE);
+    }
+}
@@ -4,14 +4,37 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * Partition containing sorted blocks.
+ * Partition containing sorted blocks. The block list must not be modified
+ * after the partition is built, because the bounds are cached.
  */
 public class Partition<T extends Comparable> extends ComparableContainer<T> {
 
     private List<Block<T>> blockList;
+    private T              first, last;
+    private int            valueCount;
 
     public Partition(List<Block<T>> blockList){
         this.blockList = blockList;
+        for (Block<T> block : blockList) {
+            if (block.getFirst() != null) {
+                if (first == null) {
+                    first = block.getFirst();
+                }
+                last = block.getLast();
+            }
+            valueCount += block.getValueCount();
+        }
+    }
+
+    /**
+     * Build a partition whose bounds are known, without reading its blocks,
+     * e.g. blocks which are only created when they are read.
+     */
+    protected Partition(List<Block<T>> blockList, T first, T last, int valueCount){
+        this.blockList = blockList;
+        this.first = first;
+        this.last = last;
+        this.valueCount = valueCount;
     }
 
     public List<Block<T>> getBlockList() {
@@ -19,31 +42,23 @@ public class Partition<T extends Comparable> extends ComparableContainer<T> {
     }
 
     public List<T> getValueList() {
-        List<T> valueList = new ArrayList<>();
+        List<T> valueList = new ArrayList<>(valueCount);
         blockList.forEach(block -> valueList.addAll(block.getValues()));
         return valueList;
     }
 
     @Override
     public T getFirst() {
-        for (Block<T> block : blockList) {
-            T first = block.getFirst();
-            if (first != null) {
-                return first;
-            }
-        }
-        return null;
+        return first;
     }
 
     @Override
     public T getLast() {
-        for (int i = blockList.size() - 1; i >= 0; i--) {
-            Block<T> block = blockList.get(i);
-            T last = block.getLast();
-            if (last != null) {
-                return last;
-            }
-        }
-        return null;
+        return last;
+    }
+
+    @Override
+    public int getValueCount() {
+        return valueCount;
     }
 }
@@ -0,0 +1,85 @@
+package com.company;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary file format of a long partition.
+ *
+ * <pre>
+ * magic (4 bytes)
+ * block 0 ... block N-1
+ * footer: N entries of
+ *     offset (8 bytes), length (4 bytes), count (4 bytes), min (8 bytes), max (8 bytes)
+ * trailer:
+ *     footer offset (8 bytes), N (4 bytes), magic (4 bytes)
+ * </pre>
+ *
+ * A block stores its first value as a zigzag varint, and every following
+ * value as the unsigned varint delta from the previous one. Sorted values
+ * have small deltas, so most of them take 1 or 2 bytes.
+ *
+ * The footer can be read without touching any block, so partitions can be
+ * planned from their block bounds alone. Multi-byte fields are big-endian.
+ */
+public class PartitionFile {
+
+    static final int MAGIC = 0x53504631; // "SPF1"
+    static final int INDEX_ENTRY_SIZE = 32;
+    static final int TRAILER_SIZE = 16;
+    /* A varint of a long takes at most 10 bytes */
+    static final int MAX_VARINT_SIZE = 10;
+
+    /**
+     * Encode sorted values[from, to) into the buffer.
+     */
+    static void encodeBlock(long[] values, int from, int to, ByteBuffer buffer) {
+        writeVarLong(buffer, (values[from] << 1) ^ (values[from] >> 63));
+        encodeDeltas(values, from + 1, to, buffer);
+    }
+
+    /**
+     * Encode sorted values[from, to) into the buffer as deltas from their
+     * previous values, i.e. go on encoding a block whose values before from
+     * are encoded already.
+     */
+    static void encodeDeltas(long[] values, int from, int to, ByteBuffer buffer) {
+        for (int i = from; i < to; i++) {
+            writeVarLong(buffer, values[i] - values[i - 1]);
+        }
+    }
+
+    /**
+     * Decode count values from the buffer.
+     */
+    static long[] decodeBlock(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        if (count == 0) {
+            return values;
+        }
+        long zigzag = readVarLong(buffer);
+        values[0] = (zigzag >>> 1) ^ -(zigzag & 1);
+        for (int i = 1; i < count; i++) {
+            values[i] = values[i - 1] + readVarLong(buffer);
+        }
+        return values;
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
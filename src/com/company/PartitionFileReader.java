@@ -0,0 +1,173 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read a long partition in the {@link PartitionFile} format. Only the footer
+ * is read when the file is opened; blocks are read on demand.
+ */
+public class PartitionFileReader implements AutoCloseable {
+
+    private final Path             path;
+    private final FileChannel      channel;
+    private final List<BlockIndex> blockIndexes;
+
+    public PartitionFileReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            this.blockIndexes = readFooter();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return bounds and positions of all blocks, in order
+     */
+    public List<BlockIndex> getBlockIndexes() {
+        return blockIndexes;
+    }
+
+    /**
+     * Read and decode one block.
+     */
+    public LongBlock readBlock(BlockIndex blockIndex) throws IOException {
+        return new LongBlock(PartitionFile.decodeBlock(readRawBlock(blockIndex), blockIndex.getValueCount()));
+    }
+
+    /**
+     * Read the encoded bytes of one block without decoding them.
+     */
+    public ByteBuffer readRawBlock(BlockIndex blockIndex) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(blockIndex.getLength());
+        readFully(buffer, blockIndex.getOffset());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Read and decode all blocks.
+     */
+    public LongPartition readPartition() throws IOException {
+        List<LongBlock> blockList = new ArrayList<>(blockIndexes.size());
+        for (BlockIndex blockIndex : blockIndexes) {
+            blockList.add(readBlock(blockIndex));
+        }
+        return new LongPartition(blockList);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<BlockIndex> readFooter() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < Integer.BYTES + PartitionFile.TRAILER_SIZE) {
+            throw new IOException("Too small for a partition file: " + path);
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(PartitionFile.TRAILER_SIZE);
+        readFully(trailer, fileSize - PartitionFile.TRAILER_SIZE);
+        trailer.flip();
+        long footerOffset = trailer.getLong();
+        int blockCount = trailer.getInt();
+        if (trailer.getInt() != PartitionFile.MAGIC) {
+            throw new IOException("Not a partition file: " + path);
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate(blockCount * PartitionFile.INDEX_ENTRY_SIZE);
+        readFully(footer, footerOffset);
+        footer.flip();
+        List<BlockIndex> indexes = new ArrayList<>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            indexes.add(new BlockIndex(this, footer.getLong(), footer.getInt(), footer.getInt(), footer.getLong(),
+                footer.getLong()));
+        }
+        return Collections.unmodifiableList(indexes);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of partition file: " + path);
+            }
+            position += count;
+        }
+    }
+
+    /**
+     * Footer entry of a block. It compares with other containers by the
+     * block bounds, so blocks can be planned before they're read.
+     */
+    public static class BlockIndex extends ComparableContainer<Long> {
+
+        private final PartitionFileReader reader;
+        private final long                offset;
+        private final int                 length, valueCount;
+        private final long                min, max;
+        private final Long                first, last;
+
+        BlockIndex(PartitionFileReader reader, long offset, int length, int valueCount, long min, long max){
+            this.reader = reader;
+            this.offset = offset;
+            this.length = length;
+            this.valueCount = valueCount;
+            this.min = min;
+            this.max = max;
+            this.first = valueCount > 0 ? min : null;
+            this.last = valueCount > 0 ? max : null;
+        }
+
+        /**
+         * @return the reader of the file containing the block
+         */
+        public PartitionFileReader getReader() {
+            return reader;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public Long getFirst() {
+            return first;
+        }
+
+        @Override
+        public Long getLast() {
+            return last;
+        }
+
+        @Override
+        public int getValueCount() {
+            return valueCount;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sort partition files into one partition file.
+ *
+ * Blocks are planned from the file footers only. A block which doesn't
+ * intersect any other is copied as raw bytes without decoding. Each cluster
+ * of intersecting blocks is decoded and sorted by {@link MergeSortK}, so only
+ * one cluster is held on the heap at a time.
+ */
+public class PartitionFileSort {
+
+    /**
+     * @param inputPaths partition files to be sorted
+     * @param outputPath the sorted partition file
+     * @param blockSize count of values in each merged block of the output
+     * @throws IOException if files can't be read or written
+     */
+    public static void sort(List<Path> inputPaths, Path outputPath, int blockSize) throws IOException {
+        List<PartitionFileReader> readers = new ArrayList<>(inputPaths.size());
+        try {
+            List<PartitionFileReader.BlockIndex> blockIndexes = new ArrayList<>();
+            for (Path inputPath : inputPaths) {
+                PartitionFileReader reader = new PartitionFileReader(inputPath);
+                readers.add(reader);
+                blockIndexes.addAll(reader.getBlockIndexes());
+            }
+
+            List<List<PartitionFileReader.BlockIndex>> clusters = OverlapPlanner.planContainers(blockIndexes);
+            try (PartitionFileWriter writer = new PartitionFileWriter(outputPath)) {
+                for (List<PartitionFileReader.BlockIndex> cluster : clusters) {
+                    if (cluster.size() == 1) {
+                        PartitionFileReader.BlockIndex blockIndex = cluster.get(0);
+                        writer.writeRawBlock(blockIndex, blockIndex.getReader().readRawBlock(blockIndex));
+                    } else {
+                        writer.writeValues(MergeSortK.sortLongPartitions(readCluster(cluster)), blockSize);
+                    }
+                }
+            }
+        } finally {
+            for (PartitionFileReader reader : readers) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Decode the blocks of a cluster. Blocks of the same file don't intersect,
+     * so they make up one partition.
+     */
+    private static List<LongPartition> readCluster(List<PartitionFileReader.BlockIndex> cluster) throws IOException {
+        Map<PartitionFileReader, List<LongBlock>> blockLists = new LinkedHashMap<>();
+        for (PartitionFileReader.BlockIndex blockIndex : cluster) {
+            PartitionFileReader reader = blockIndex.getReader();
+            blockLists.computeIfAbsent(reader, key -> new ArrayList<>()).add(reader.readBlock(blockIndex));
+        }
+
+        List<LongPartition> partitions = new ArrayList<>(blockLists.size());
+        for (List<LongBlock> blockList : blockLists.values()) {
+            partitions.add(new LongPartition(blockList));
+        }
+        return partitions;
+    }
+}
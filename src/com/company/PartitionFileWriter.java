@@ -0,0 +1,133 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write a long partition in the {@link PartitionFile} format. Blocks are
+ * appended in order and must not intersect; the footer is written on close.
+ */
+public class PartitionFileWriter implements AutoCloseable {
+
+    /* Values encoded into the buffer at a time, before it's written to the channel */
+    private static final int BUFFER_VALUES = 1 << 13;
+
+    private final FileChannel                         channel;
+    private final List<PartitionFileReader.BlockIndex> blockIndexes = new ArrayList<>();
+    private final ByteBuffer                          buffer =
+        ByteBuffer.allocate(BUFFER_VALUES * PartitionFile.MAX_VARINT_SIZE);
+    private long                                      position;
+
+    public PartitionFileWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(PartitionFile.MAGIC);
+        header.flip();
+        writeFully(header);
+    }
+
+    /**
+     * Encode sorted values[from, to) as one block. Empty blocks are skipped.
+     * Up to BUFFER_VALUES values are encoded into the buffer of the writer
+     * at a time, and written before the next ones are encoded.
+     *
+     * @throws IOException if the block can't be written, or its encoded length doesn't fit in the footer
+     */
+    public void writeBlock(long[] values, int from, int to) throws IOException {
+        if (from == to) {
+            return;
+        }
+        long offset = position;
+        for (int chunkFrom = from; chunkFrom < to; chunkFrom += BUFFER_VALUES) {
+            int chunkTo = Math.min(to, chunkFrom + BUFFER_VALUES);
+            buffer.clear();
+            if (chunkFrom == from) {
+                PartitionFile.encodeBlock(values, chunkFrom, chunkTo, buffer);
+            } else {
+                PartitionFile.encodeDeltas(values, chunkFrom, chunkTo, buffer);
+            }
+            buffer.flip();
+            writeFully(buffer);
+        }
+        long length = position - offset;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Block of " + length + " bytes is too long for the footer");
+        }
+        blockIndexes.add(new PartitionFileReader.BlockIndex(null, offset, (int) length, to - from,
+            values[from], values[to - 1]));
+    }
+
+    /**
+     * Encode the values of a long block as one block.
+     */
+    public void writeBlock(LongBlock block) throws IOException {
+        writeBlock(block.getArray(), block.getFrom(), block.getTo());
+    }
+
+    /**
+     * Cut sorted values into blocks of blockSize values.
+     */
+    public void writeValues(long[] values, int blockSize) throws IOException {
+        for (int from = 0; from < values.length; from += blockSize) {
+            writeBlock(values, from, Math.min(from + blockSize, values.length));
+        }
+    }
+
+    /**
+     * Write the blocks of sorted long partitions, e.g. the partitions merged
+     * by {@link MergeSortK}.
+     */
+    public void writePartitions(List<? extends Partition> partitions) throws IOException {
+        for (Partition partition : partitions) {
+            for (Object block : partition.getBlockList()) {
+                writeBlock((LongBlock) block);
+            }
+        }
+    }
+
+    /**
+     * Copy an encoded block from another file without decoding it.
+     *
+     * @param blockIndex index of the block in the other file
+     * @param bytes encoded bytes of the block
+     */
+    public void writeRawBlock(PartitionFileReader.BlockIndex blockIndex, ByteBuffer bytes) throws IOException {
+        blockIndexes.add(new PartitionFileReader.BlockIndex(null, position, blockIndex.getLength(),
+            blockIndex.getValueCount(), blockIndex.getMin(), blockIndex.getMax()));
+        writeFully(bytes.duplicate());
+    }
+
+    /**
+     * Write the footer and the trailer, and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            ByteBuffer footer = ByteBuffer.allocate(
+                blockIndexes.size() * PartitionFile.INDEX_ENTRY_SIZE + PartitionFile.TRAILER_SIZE);
+            for (PartitionFileReader.BlockIndex blockIndex : blockIndexes) {
+                footer.putLong(blockIndex.getOffset())
+                    .putInt(blockIndex.getLength())
+                    .putInt(blockIndex.getValueCount())
+                    .putLong(blockIndex.getMin())
+                    .putLong(blockIndex.getMax());
+            }
+            footer.putLong(position).putInt(blockIndexes.size()).putInt(PartitionFile.MAGIC);
+            footer.flip();
+            writeFully(footer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+}
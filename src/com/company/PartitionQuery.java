@@ -0,0 +1,261 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Prune partitions and blocks for range and top-N queries, so only the
+ * slices which can be in the result are merged.
+ *
+ * Containers are skipped by their bounds. Blocks of a partition are sorted,
+ * so the first block which can contribute is found by a binary search, and
+ * so are the first and last values inside each of these blocks. Slices of
+ * int, long and mapped blocks share the arrays or buffers of their blocks.
+ */
+public class PartitionQuery {
+
+    /**
+     * Slice the values within [lo, hi] out of the partitions.
+     *
+     * @param partitions partitions to be queried
+     * @param lo the least value of the range, or null if unbounded
+     * @param hi the biggest value of the range, or null if unbounded
+     * @return non-empty partitions of the slices, each of which is sorted by blocks
+     */
+    public static List<Partition> sliceRange(List<? extends Partition> partitions, Comparable lo, Comparable hi) {
+        List<Partition> slicedPartitions = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (partition.getFirst() == null || (lo != null && partition.getLast().compareTo(lo) < 0)
+                || (hi != null && partition.getFirst().compareTo(hi) > 0)) {
+                continue;
+            }
+
+            List<Block> blockList = partition.getBlockList();
+            List<Block> slicedBlocks = new ArrayList<>();
+            for (int index = lo == null ? 0 : lowerBlock(blockList, lo); index < blockList.size(); index++) {
+                Block block = blockList.get(index);
+                if (block.getFirst() == null) {
+                    continue;
+                }
+                if (hi != null && block.getFirst().compareTo(hi) > 0) {
+                    break;
+                }
+                Block slicedBlock = sliceBlock(block, lo, hi);
+                if (slicedBlock.getValueCount() > 0) {
+                    slicedBlocks.add(slicedBlock);
+                }
+            }
+            if (!slicedBlocks.isEmpty()) {
+                slicedPartitions.add(newPartition(partition, slicedBlocks));
+            }
+        }
+        return slicedPartitions;
+    }
+
+    /**
+     * Find a value which is at least the n-th least value of the partitions,
+     * without reading values. Blocks are taken in the order of their biggest
+     * values until they hold n values, so there are at least n values which
+     * are less than or equal to the biggest value of the last taken block.
+     *
+     * @param partitions partitions to be queried
+     * @param n count of least values
+     * @return the bound, or null if the partitions have less than n values
+     */
+    public static Comparable findUpperBound(List<? extends Partition> partitions, int n) {
+        // Cursors of partitions, ordered by the biggest values of their current blocks.
+        PriorityQueue<BlockCursor> cursors = new PriorityQueue<>(
+            (cursor1, cursor2) -> cursor1.block().getLast().compareTo(cursor2.block().getLast()));
+        for (Partition partition : partitions) {
+            BlockCursor cursor = new BlockCursor(partition.getBlockList());
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+
+        long count = 0;
+        while (!cursors.isEmpty()) {
+            BlockCursor cursor = cursors.poll();
+            Block block = cursor.block();
+            count += block.getValueCount();
+            if (count >= n) {
+                return block.getLast();
+            }
+            if (cursor.next()) {
+                cursors.add(cursor);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the least index of a block whose biggest value is at least lo,
+     *         or an index before it where all blocks in between are empty
+     */
+    private static int lowerBlock(List<Block> blockList, Comparable lo) {
+        int low = 0, high = blockList.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1, index = middle;
+            // Skip empty blocks, which have no bounds.
+            while (index < high && blockList.get(index).getLast() == null) {
+                index++;
+            }
+            if (index < high && blockList.get(index).getLast().compareTo(lo) < 0) {
+                low = index + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Slice the values within [lo, hi] out of a non-empty block.
+     */
+    private static Block sliceBlock(Block block, Comparable lo, Comparable hi) {
+        if ((lo == null || block.getFirst().compareTo(lo) >= 0) && (hi == null || block.getLast().compareTo(hi) <= 0)) {
+            return block;
+        }
+
+        List<Comparable> values = block.getValues();
+        int from = lo == null ? 0 : lowerBound(values, lo);
+        int to = hi == null ? values.size() : upperBound(values, hi);
+        return block.slice(from, Math.max(from, to));
+    }
+
+    /**
+     * Keep int and long partitions primitive, so they're merged without boxing.
+     */
+    @SuppressWarnings("unchecked")
+    static Partition newPartition(Partition partition, List<Block> blocks) {
+        if (partition instanceof IntPartition) {
+            return new IntPartition((List) blocks);
+        } else if (partition instanceof LongPartition) {
+            return new LongPartition((List) blocks);
+        }
+        return new Partition(blocks);
+    }
+
+    /**
+     * @return the least index whose value is at least key
+     */
+    static int lowerBound(List<Comparable> values, Comparable key) {
+        int low = 0, high = values.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values.get(middle).compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the least index whose value is bigger than key
+     */
+    static int upperBound(List<Comparable> values, Comparable key) {
+        int low = 0, high = values.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values.get(middle).compareTo(key) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the least index in [from, to) whose value is at least key, or to
+     */
+    static int lowerBound(int[] values, int from, int to, int key) {
+        int low = from, high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the least index in [from, to) whose value is bigger than key, or to
+     */
+    static int upperBound(int[] values, int from, int to, int key) {
+        int low = from, high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Same as {@link #lowerBound(int[], int, int, int)}, for long values.
+     */
+    static int lowerBound(long[] values, int from, int to, long key) {
+        int low = from, high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Same as {@link #upperBound(int[], int, int, int)}, for long values.
+     */
+    static int upperBound(long[] values, int from, int to, long key) {
+        int low = from, high = to;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Cursor over the non-empty blocks of a partition.
+     */
+    private static class BlockCursor {
+
+        private final List<Block> blockList;
+        private int               index = -1;
+
+        BlockCursor(List<Block> blockList){
+            this.blockList = blockList;
+        }
+
+        Block block() {
+            return blockList.get(index);
+        }
+
+        boolean next() {
+            while (++index < blockList.size()) {
+                if (blockList.get(index).getFirst() != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntConsumer;
+
+/**
+ * Job for sorting a cluster of int or long partitions with an LSD radix sort
+ * instead of a merge tree.
+ *
+ * When every partition of a cluster covers about its whole key range, no
+ * partition or block can be output as a whole, and a merge tree copies all
+ * values at each of its logK levels. A radix sort copies them once for each
+ * digit of the key range instead, i.e. at most 3 times for ints and 6 times
+ * for longs with 11-bit digits, whatever K is.
+ *
+ * Keys are sorted relative to the least key of the cluster, so only the
+ * digits spanned by the key range are sorted. Each pass counts the digits of
+ * each chunk of values in parallel, and then scatters each chunk in parallel
+ * into its own slots of the target array. The sorted values are cut back
+ * into as many blocks and partitions as the cluster had.
+ */
+public class RadixSortJob implements Runnable {
+
+    /* Bits of the digit sorted by each pass */
+    private static final int DIGIT_BITS = 11;
+    private static final int RADIX = 1 << DIGIT_BITS;
+    private static final int DIGIT_MASK = RADIX - 1;
+    /* Each chunk counted and scattered by one task has about this many values at least */
+    private static final int MIN_CHUNK_SIZE = 1 << 14;
+    /* Smaller clusters are merged, because the counts of digits cost more than they save */
+    private static final int MIN_VALUE_COUNT = 1 << 16;
+    /* Coverage from which a cluster is radix sorted, see {@link #measureCoverage(List)} */
+    private static final double MIN_COVERAGE = 0.75;
+
+    private final List<Partition>   cluster;
+    private final int               parallelism;
+    private List<Partition>         outputList;
+    private final MergeSortListener listener;
+    private final SortCancellation  cancellation;
+    private final MergeSortMetrics  metrics = new MergeSortMetrics();
+    // Time when the job is put into the queue, or forked.
+    private final long              queuedNanos;
+
+    /**
+     * @param cluster intersecting int partitions or long partitions
+     * @param parallelism count of chunks sorted in parallel at most
+     * @param listener notified when the job is finished, or null
+     * @param cancellation checked before each pass
+     */
+    public RadixSortJob(List<Partition> cluster, int parallelism, MergeSortListener listener,
+                        SortCancellation cancellation){
+        this(cluster, parallelism, listener, cancellation, System.nanoTime());
+    }
+
+    /**
+     * @param queuedNanos System.nanoTime() when the job is forked, for jobs which are created when they start
+     */
+    RadixSortJob(List<Partition> cluster, int parallelism, MergeSortListener listener, SortCancellation cancellation,
+                 long queuedNanos){
+        this.queuedNanos = queuedNanos;
+        this.cluster = cluster;
+        this.parallelism = parallelism;
+        this.listener = listener;
+        this.cancellation = cancellation;
+    }
+
+    public List<Partition> getOutputList() {
+        return outputList;
+    }
+
+    /**
+     * @return counters of this job, available after it's finished
+     */
+    public MergeSortMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Whether a cluster is radix sorted rather than merged: its partitions
+     * are all int partitions or all long partitions, it has enough values,
+     * they overlap over most of their key range, and the merge tree would
+     * have at least as many levels as the radix sort has passes.
+     *
+     * @param cluster cluster of intersecting partitions
+     */
+    public static boolean shouldSort(List<? extends Partition> cluster) {
+        if (cluster.size() < 2 || MergeSortJob.countValues(cluster) < MIN_VALUE_COUNT) {
+            return false;
+        }
+        Class<?> partitionClass = cluster.get(0).getClass();
+        if (partitionClass != IntPartition.class && partitionClass != LongPartition.class) {
+            return false;
+        }
+        for (Partition partition : cluster) {
+            if (partition.getClass() != partitionClass) {
+                return false;
+            }
+        }
+        if (measureCoverage(cluster) < MIN_COVERAGE) {
+            return false;
+        }
+        int mergeLevels = 32 - Integer.numberOfLeadingZeros(cluster.size() - 1);
+        return mergeLevels >= passCount(keyRange(cluster));
+    }
+
+    /**
+     * Measure how much the partitions of a cluster overlap: the mean width
+     * of their [first, last] intervals, relative to the width of the cluster.
+     * It's 1 if every partition covers the whole cluster, and near 0 if the
+     * partitions only overlap at their ends.
+     *
+     * @param cluster non-empty int partitions or long partitions
+     * @return coverage between 0 and 1
+     */
+    static double measureCoverage(List<? extends Partition> cluster) {
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, totalWidth = 0;
+        for (Partition partition : cluster) {
+            double first = ((Number) partition.getFirst()).doubleValue();
+            double last = ((Number) partition.getLast()).doubleValue();
+            min = Math.min(min, first);
+            max = Math.max(max, last);
+            totalWidth += last - first;
+        }
+        return max == min ? 1 : totalWidth / cluster.size() / (max - min);
+    }
+
+    @Override
+    public void run() {
+        MergeJobEvent event = new MergeJobEvent();
+        event.begin();
+        long startNanos = System.nanoTime();
+
+        int blockCount = 0;
+        for (Partition partition : cluster) {
+            blockCount += partition.getBlockList().size();
+        }
+        List<Comparable> outputBlockList = cluster.get(0) instanceof IntPartition
+            ? sortInts(blockCount) : sortLongs(blockCount);
+        outputList = (List) MergeSortJob.splitIntoContainers(outputBlockList, cluster.size());
+
+        long endNanos = System.nanoTime();
+        metrics.recordJob(startNanos - queuedNanos, endNanos - startNanos, Thread.currentThread().getName());
+        event.end();
+        if (event.shouldCommit()) {
+            event.jobType = "radix";
+            event.inputContainers = cluster.size();
+            event.outputContainers = outputList.size();
+            event.valuesCopied = metrics.getValuesCopied();
+            event.queueWait = startNanos - queuedNanos;
+            event.commit();
+        }
+        if (listener != null) {
+            listener.onJobFinished(metrics);
+        }
+    }
+
+    private List<Comparable> sortInts(int blockCount) {
+        int valueCount = MergeSortJob.toArrayLength(MergeSortJob.countValues(cluster));
+        int min = Integer.MAX_VALUE;
+        int[] values = new int[valueCount];
+        int offset = 0;
+        for (Partition partition : cluster) {
+            min = Math.min(min, (Integer) partition.getFirst());
+            offset = ((IntPartition) partition).copyTo(values, offset);
+        }
+
+        BufferArena arena = BufferArena.current();
+        int[] source = values, target = arena.takeInts(valueCount);
+        int[] chunkBounds = chunkBounds(valueCount);
+        int[][] counts = new int[chunkBounds.length - 1][RADIX];
+        int passCount = passCount(keyRange(cluster));
+        for (int pass = 0; pass < passCount; pass++) {
+            cancellation.check();
+            sortIntDigit(source, target, min, pass * DIGIT_BITS, chunkBounds, counts);
+            int[] sorted = target;
+            target = source;
+            source = sorted;
+        }
+        arena.giveBack(target);
+        metrics.recordValuesCopied((long) valueCount * (passCount + 1));
+        return MergeSortJob.splitIntoIntBlocks(source, valueCount, blockCount);
+    }
+
+    private List<Comparable> sortLongs(int blockCount) {
+        int valueCount = MergeSortJob.toArrayLength(MergeSortJob.countValues(cluster));
+        long min = Long.MAX_VALUE;
+        long[] values = new long[valueCount];
+        int offset = 0;
+        for (Partition partition : cluster) {
+            min = Math.min(min, (Long) partition.getFirst());
+            offset = ((LongPartition) partition).copyTo(values, offset);
+        }
+
+        BufferArena arena = BufferArena.current();
+        long[] source = values, target = arena.takeLongs(valueCount);
+        int[] chunkBounds = chunkBounds(valueCount);
+        int[][] counts = new int[chunkBounds.length - 1][RADIX];
+        int passCount = passCount(keyRange(cluster));
+        for (int pass = 0; pass < passCount; pass++) {
+            cancellation.check();
+            sortLongDigit(source, target, min, pass * DIGIT_BITS, chunkBounds, counts);
+            long[] sorted = target;
+            target = source;
+            source = sorted;
+        }
+        arena.giveBack(target);
+        metrics.recordValuesCopied((long) valueCount * (passCount + 1));
+        return MergeSortJob.splitIntoLongBlocks(source, valueCount, blockCount);
+    }
+
+    /**
+     * Move source[0, chunkBounds[last]) into target, ordered by the digit of
+     * (value - min) at shift, keeping the order of values with equal digits.
+     */
+    private void sortIntDigit(int[] source, int[] target, int min, int shift, int[] chunkBounds, int[][] counts) {
+        forEachChunk(chunkBounds, chunk -> {
+            int[] chunkCounts = counts[chunk];
+            Arrays.fill(chunkCounts, 0);
+            for (int i = chunkBounds[chunk]; i < chunkBounds[chunk + 1]; i++) {
+                chunkCounts[((source[i] - min) >>> shift) & DIGIT_MASK]++;
+            }
+        });
+        toOffsets(counts);
+        forEachChunk(chunkBounds, chunk -> {
+            int[] offsets = counts[chunk];
+            for (int i = chunkBounds[chunk]; i < chunkBounds[chunk + 1]; i++) {
+                target[offsets[((source[i] - min) >>> shift) & DIGIT_MASK]++] = source[i];
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #sortIntDigit}, for long values.
+     */
+    private void sortLongDigit(long[] source, long[] target, long min, int shift, int[] chunkBounds,
+                               int[][] counts) {
+        forEachChunk(chunkBounds, chunk -> {
+            int[] chunkCounts = counts[chunk];
+            Arrays.fill(chunkCounts, 0);
+            for (int i = chunkBounds[chunk]; i < chunkBounds[chunk + 1]; i++) {
+                chunkCounts[(int) ((source[i] - min) >>> shift) & DIGIT_MASK]++;
+            }
+        });
+        toOffsets(counts);
+        forEachChunk(chunkBounds, chunk -> {
+            int[] offsets = counts[chunk];
+            for (int i = chunkBounds[chunk]; i < chunkBounds[chunk + 1]; i++) {
+                target[offsets[(int) ((source[i] - min) >>> shift) & DIGIT_MASK]++] = source[i];
+            }
+        });
+    }
+
+    /**
+     * Replace the count of each digit of each chunk with the offset where
+     * the chunk writes its first value of that digit: values of smaller
+     * digits come first, and values of the same digit in chunk order.
+     */
+    private static void toOffsets(int[][] counts) {
+        int offset = 0;
+        for (int digit = 0; digit < RADIX; digit++) {
+            for (int[] chunkCounts : counts) {
+                int count = chunkCounts[digit];
+                chunkCounts[digit] = offset;
+                offset += count;
+            }
+        }
+    }
+
+    /**
+     * @return bounds of the chunks of valueCount values, at most one chunk for each thread
+     */
+    private int[] chunkBounds(int valueCount) {
+        int chunkCount = Math.max(1, Math.min(parallelism, valueCount / MIN_CHUNK_SIZE));
+        int[] chunkBounds = new int[chunkCount + 1];
+        for (int chunk = 0; chunk <= chunkCount; chunk++) {
+            chunkBounds[chunk] = (int) ((long) valueCount * chunk / chunkCount);
+        }
+        return chunkBounds;
+    }
+
+    /**
+     * Run the action for each chunk on the current ForkJoinPool, and wait for all of them.
+     */
+    private static void forEachChunk(int[] chunkBounds, IntConsumer action) {
+        int chunkCount = chunkBounds.length - 1;
+        if (chunkCount == 1) {
+            action.accept(0);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int index = chunk;
+            tasks.add(ForkJoinTask.adapt(() -> action.accept(index)));
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * @return biggest key minus least key of the cluster, as an unsigned long
+     */
+    private static long keyRange(List<? extends Partition> cluster) {
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (Partition partition : cluster) {
+            min = Math.min(min, ((Number) partition.getFirst()).longValue());
+            max = Math.max(max, ((Number) partition.getLast()).longValue());
+        }
+        return max - min;
+    }
+
+    /**
+     * @return count of digits needed to sort keys which differ by at most keyRange
+     */
+    private static int passCount(long keyRange) {
+        int bits = 64 - Long.numberOfLeadingZeros(keyRange);
+        return (bits + DIGIT_BITS - 1) / DIGIT_BITS;
+    }
+}
@@ -0,0 +1,161 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Merge a cluster of partitions by key ranges instead of a merge tree.
+ *
+ * Keys are sampled evenly from all partitions, and P-1 splitters are picked
+ * from the sorted samples. Each block is cut at the splitters by binary
+ * searches, so range r holds the values within [splitter r-1, splitter r) of
+ * every partition. The P ranges are K-way merged in parallel, each into its
+ * own slot of the output, so all P workers are busy from the start to the end,
+ * and each value is moved only once.
+ *
+ * Equal values are in the same range, so ranges don't intersect each other.
+ */
+public class RangePartitionedMerge {
+
+    /* Samples taken for each range */
+    private static final int OVERSAMPLING = 16;
+    /* Each range has about this many values at least */
+    private static final int MIN_RANGE_SIZE = 1 << 14;
+
+    /**
+     * @param valueCount count of values to be merged
+     * @param parallelism count of worker threads
+     * @return count of ranges to cut valueCount values into
+     */
+    public static int rangeCount(long valueCount, int parallelism) {
+        return (int) Math.max(1, Math.min(parallelism, valueCount / MIN_RANGE_SIZE));
+    }
+
+    /**
+     * Merge intersecting partitions in parallel on the current ForkJoinPool.
+     *
+     * @param partitions partitions to be merged, each of which is sorted by blocks
+     * @param rangeCount count of ranges, i.e. of parallel K-way merges
+     * @param listener notified when each range is merged, or null
+     * @param cancellation checked before each container
+     * @return sorted partition list
+     */
+    public static List<Partition> merge(List<? extends Partition> partitions, int rangeCount,
+                                        MergeSortListener listener, SortCancellation cancellation) {
+        List<Comparable> splitters = pickSplitters(partitions, rangeCount);
+
+        // slices.get(r) holds the non-empty slices of partitions in range r.
+        List<List<List<Partition>>> slices = new ArrayList<>(splitters.size() + 1);
+        for (int range = 0; range <= splitters.size(); range++) {
+            slices.add(new ArrayList<>());
+        }
+        for (Partition partition : partitions) {
+            List<List<Block>> rangeBlocks = sliceByRanges(partition.getBlockList(), splitters);
+            for (int range = 0; range < rangeBlocks.size(); range++) {
+                if (!rangeBlocks.get(range).isEmpty()) {
+                    slices.get(range).add(Collections.singletonList(
+                        PartitionQuery.newPartition(partition, rangeBlocks.get(range))));
+                }
+            }
+        }
+
+        List<List<Partition>> outputs = new ArrayList<>(Collections.nCopies(slices.size(), null));
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(slices.size());
+        long forkNanos = System.nanoTime();
+        for (int range = 0; range < slices.size(); range++) {
+            List<List<Partition>> rangeSlices = slices.get(range);
+            int index = range;
+            if (rangeSlices.size() <= 1) {
+                outputs.set(index, rangeSlices.isEmpty() ? Collections.emptyList() : rangeSlices.get(0));
+                continue;
+            }
+            tasks.add(ForkJoinTask.adapt(() -> {
+                KWayMergeJob job = new KWayMergeJob(rangeSlices, listener, cancellation, forkNanos);
+                job.run();
+                outputs.set(index, job.getOutputList());
+            }));
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        List<Partition> outputList = new ArrayList<>();
+        outputs.forEach(outputList::addAll);
+        return outputList;
+    }
+
+    /**
+     * Sample keys evenly from all partitions, and pick at most rangeCount-1
+     * distinct splitters which cut the samples into equal parts.
+     *
+     * @return splitters in ascending order
+     */
+    static List<Comparable> pickSplitters(List<? extends Partition> partitions, int rangeCount) {
+        if (rangeCount <= 1) {
+            return Collections.emptyList();
+        }
+        long valueCount = 0;
+        for (Partition partition : partitions) {
+            valueCount += partition.getValueCount();
+        }
+        long stride = Math.max(1, valueCount / ((long) rangeCount * OVERSAMPLING));
+
+        List<Comparable> samples = new ArrayList<>();
+        long position = 0;
+        for (Partition partition : partitions) {
+            for (Block block : (List<Block>) partition.getBlockList()) {
+                List<Comparable> values = block.getValues();
+                for (long index = (stride - position % stride) % stride; index < values.size(); index += stride) {
+                    samples.add(values.get((int) index));
+                }
+                position += values.size();
+            }
+        }
+        samples.sort(null);
+
+        List<Comparable> splitters = new ArrayList<>(rangeCount - 1);
+        for (int range = 1; range < rangeCount && !samples.isEmpty(); range++) {
+            Comparable splitter = samples.get((int) ((long) range * samples.size() / rangeCount));
+            if (splitters.isEmpty() || splitters.get(splitters.size() - 1).compareTo(splitter) < 0) {
+                splitters.add(splitter);
+            }
+        }
+        return splitters;
+    }
+
+    /**
+     * Cut sorted blocks at the splitters. Values equal to a splitter go to
+     * the range after it. Blocks which are in one range are kept as they are.
+     *
+     * @return splitters.size() + 1 lists of non-empty blocks
+     */
+    static List<List<Block>> sliceByRanges(List<Block> blocks, List<Comparable> splitters) {
+        List<List<Block>> rangeBlocks = new ArrayList<>(splitters.size() + 1);
+        for (int range = 0; range <= splitters.size(); range++) {
+            rangeBlocks.add(new ArrayList<>());
+        }
+
+        int range = 0;
+        for (Block block : blocks) {
+            if (block.getFirst() == null) {
+                continue;
+            }
+            // Skip the ranges which end before the block.
+            while (range < splitters.size() && splitters.get(range).compareTo(block.getFirst()) <= 0) {
+                range++;
+            }
+            List<Comparable> values = block.getValues();
+            int from = 0;
+            while (range < splitters.size() && splitters.get(range).compareTo(block.getLast()) <= 0) {
+                int to = PartitionQuery.lowerBound(values, splitters.get(range));
+                if (to > from) {
+                    rangeBlocks.get(range).add(block.slice(from, to));
+                }
+                range++;
+                from = to;
+            }
+            rangeBlocks.get(range).add(from == 0 ? block : block.slice(from, values.size()));
+        }
+        return rangeBlocks;
+    }
+}
@@ -0,0 +1,20 @@
+package com.company;
+
+/**
+ * How merge jobs of the pairwise merge tree are run.
+ */
+public enum Scheduler {
+    /**
+     * Jobs are produced and consumed through the queue of {@link MergeSortThreadPoolExecutor}.
+     */
+    THREAD_POOL,
+    /**
+     * The merge tree is split recursively into {@link MergeSortTask}s on a work-stealing ForkJoinPool.
+     */
+    FORK_JOIN,
+    /**
+     * Each merge job runs on its own virtual thread, see {@link VirtualThreadMerge}.
+     * Before Java 21, jobs run like FORK_JOIN instead.
+     */
+    VIRTUAL_THREAD
+}
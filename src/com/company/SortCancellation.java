@@ -0,0 +1,51 @@
+package com.company;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancellation flag of a sort. Merge jobs check it before each container
+ * they take, so a cancelled sort stops within one group of intersecting
+ * containers, and its jobs throw {@link CancellationException}.
+ */
+public class SortCancellation {
+
+    /* Never cancelled, used when a sort has no cancellation. It's shared by all such sorts, so it can't be cancelled. */
+    static final SortCancellation NONE = new SortCancellation() {
+        @Override
+        public void cancel() {
+            throw new UnsupportedOperationException("A sort without its own cancellation can't be cancelled");
+        }
+    };
+
+    // Cancels this one too, may be null.
+    private final SortCancellation parent;
+    private volatile boolean       cancelled;
+
+    public SortCancellation(){
+        this(null);
+    }
+
+    /**
+     * @param parent whose cancellation cancels this one too, or null
+     */
+    SortCancellation(SortCancellation parent){
+        this.parent = parent;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+
+    /**
+     * @throws CancellationException if the sort is cancelled
+     */
+    void check() {
+        if (isCancelled()) {
+            throw new CancellationException("sort is cancelled");
+        }
+    }
+}
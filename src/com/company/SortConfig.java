@@ -0,0 +1,119 @@
+package com.company;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BinaryOperator;
+
+/**
+ * Configurations for {@link MergeSortK}.
+ */
+public class SortConfig {
+
+    private MergeStrategy strategy = MergeStrategy.PAIRWISE;
+    private Scheduler     scheduler = Scheduler.FORK_JOIN;
+    // 0 means the count of available processors.
+    private int           parallelism;
+    // Shared pool reused across sorts. If null, one is chosen by parallelism.
+    private ForkJoinPool  forkJoinPool;
+    // Notified of each merge job and of the whole sort, may be null.
+    private MergeSortListener listener;
+    // Cancels the sort from another thread, may be null.
+    private SortCancellation  cancellation;
+    // Combines values which compare equal, may be null.
+    private BinaryOperator    combiner;
+
+    /**
+     * @return a copy of this config, which can be modified independently
+     */
+    public SortConfig copy() {
+        SortConfig config = new SortConfig();
+        config.strategy = strategy;
+        config.scheduler = scheduler;
+        config.parallelism = parallelism;
+        config.forkJoinPool = forkJoinPool;
+        config.listener = listener;
+        config.cancellation = cancellation;
+        config.combiner = combiner;
+        return config;
+    }
+
+    public MergeStrategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(MergeStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void setScheduler(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public int getParallelism() {
+        if (forkJoinPool != null) {
+            return forkJoinPool.getParallelism();
+        }
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isDefaultParallelism() {
+        return parallelism <= 0;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    public MergeSortListener getListener() {
+        return listener;
+    }
+
+    public void setListener(MergeSortListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the cancellation of the config, or a shared one which can't be
+     *         cancelled if none is set. Set a new SortCancellation to cancel sorts.
+     */
+    public SortCancellation getCancellation() {
+        return cancellation != null ? cancellation : SortCancellation.NONE;
+    }
+
+    public void setCancellation(SortCancellation cancellation) {
+        this.cancellation = cancellation;
+    }
+
+    @SuppressWarnings("unchecked")
+    public BinaryOperator<Comparable> getCombiner() {
+        return combiner;
+    }
+
+    /**
+     * Combine values which compare equal while merging, so the result is
+     * unique. The combiner gets the value of the earlier partition in the
+     * input list first, and its result must compare equal to both values.
+     * See {@link Combiners}.
+     *
+     * Combining uses the PAIRWISE merge tree, which keeps the order of
+     * partitions, so the strategy must be PAIRWISE, or AUTO which picks it.
+     * The scheduler must be FORK_JOIN or VIRTUAL_THREAD; sorts with other
+     * strategies or the THREAD_POOL scheduler throw IllegalArgumentException.
+     *
+     * @param combiner combines the earlier value and the later one, or null to keep all values
+     */
+    public <T extends Comparable> void setCombiner(BinaryOperator<T> combiner) {
+        this.combiner = combiner;
+    }
+}
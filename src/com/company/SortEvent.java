@@ -0,0 +1,29 @@
+package com.company;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event of a whole sort. Its duration is the wall time of the sort.
+ */
+@Name("com.company.Sort")
+@Label("Sort Partitions")
+@Category("Sort Partitions")
+public class SortEvent extends jdk.jfr.Event {
+
+    @Label("Partitions")
+    int partitions;
+
+    @Label("Values")
+    long values;
+
+    @Label("Strategy")
+    String strategy;
+
+    @Label("Jobs")
+    long jobs;
+
+    @Label("Values Copied")
+    long valuesCopied;
+}
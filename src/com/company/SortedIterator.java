@@ -0,0 +1,116 @@
+package com.company;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Iterate the sorted values of partitions lazily.
+ *
+ * Partitions are taken from a loser tree in the order of their least values,
+ * the same way as {@link KWayMergeJob}. A partition which doesn't intersect
+ * any other is iterated in place without copying. Intersecting partitions are
+ * merged on a ForkJoinPool, a few runs ahead of the consumer, so the least
+ * values are returned while bigger key ranges are still being merged.
+ */
+public class SortedIterator<T extends Comparable> implements Iterator<T> {
+
+    private final ForkJoinPool                                pool;
+    // Count of runs which are planned before they're consumed.
+    private final int                                         lookahead;
+    private final KWayMergeJob.ContainerLoserTree             tree;
+    private final List<List<ComparableContainer>>             tempLists;
+    private final Deque<CompletableFuture<List<Partition>>>   runs = new ArrayDeque<>();
+    private final MergeSortMetrics                            metrics = new MergeSortMetrics();
+    // Counters of the loser tree over partitions, which is only used by the consumer thread.
+    private final MergeSortMetrics                            planMetrics = new MergeSortMetrics();
+
+    private Iterator<Partition> partitionIterator = Collections.emptyIterator();
+    private Iterator<Block<T>>  blockIterator     = Collections.emptyIterator();
+    private Iterator<T>         valueIterator     = Collections.emptyIterator();
+
+    public SortedIterator(List<? extends Partition> partitions, ForkJoinPool pool, int lookahead){
+        List<List<Partition>> partitionLists = new ArrayList<>(partitions.size());
+        for (Partition partition : partitions) {
+            partitionLists.add(Collections.singletonList(partition));
+        }
+        this.pool = pool;
+        this.lookahead = Math.max(lookahead, 1);
+        this.tree = new KWayMergeJob.ContainerLoserTree(partitionLists);
+        this.tempLists = new ArrayList<>(partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            tempLists.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * @return counters of the runs planned and merged so far
+     */
+    public MergeSortMetrics getMetrics() {
+        MergeSortMetrics snapshot = new MergeSortMetrics();
+        snapshot.add(metrics);
+        snapshot.add(planMetrics);
+        return snapshot;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!valueIterator.hasNext()) {
+            if (blockIterator.hasNext()) {
+                valueIterator = blockIterator.next().getValues().iterator();
+            } else if (partitionIterator.hasNext()) {
+                blockIterator = partitionIterator.next().getBlockList().iterator();
+            } else {
+                planRuns();
+                if (runs.isEmpty()) {
+                    return false;
+                }
+                partitionIterator = runs.poll().join().iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return valueIterator.next();
+    }
+
+    /**
+     * Plan runs until there are enough runs ahead. A run is either one
+     * partition which is output in place, or a group of intersecting
+     * partitions which are being merged.
+     */
+    private void planRuns() {
+        while (runs.size() < lookahead && tree.winner() >= 0) {
+            Partition partition = (Partition) KWayMergeJob.pollNext(tree, tempLists, planMetrics);
+            if (partition != null) {
+                runs.add(CompletableFuture.completedFuture(Collections.singletonList(partition)));
+            } else {
+                List<List<ComparableContainer>> intersectingLists = new ArrayList<>();
+                for (List<ComparableContainer> tempList : tempLists) {
+                    if (!tempList.isEmpty()) {
+                        intersectingLists.add(new ArrayList<>(tempList));
+                        tempList.clear();
+                    }
+                }
+                runs.add(CompletableFuture.supplyAsync(() -> {
+                    MergeSortMetrics runMetrics = new MergeSortMetrics();
+                    List run = KWayMergeJob.mergeIntersectingContainers(intersectingLists, runMetrics,
+                        SortCancellation.NONE);
+                    metrics.add(runMetrics);
+                    return run;
+                }, pool));
+            }
+        }
+    }
+}
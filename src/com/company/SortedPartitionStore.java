@@ -0,0 +1,230 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Long-lived store of partitions which arrive continuously, with a sorted
+ * view at any time.
+ *
+ * Each appended partition becomes a run of level 0. A run is a sorted
+ * partition list. A background thread compacts the runs LSM-style: two runs
+ * of the same level are merged by a {@link MergeSortJob} into one run of the
+ * next level, like carrying in a binary counter. So there are O(logN) runs
+ * for N partitions, and each partition is merged O(logN) times in total,
+ * instead of re-sorting everything on each arrival.
+ *
+ * Runs are never modified. The run list is replaced as a whole when it
+ * changes, so a {@link Snapshot} is consistent and costs nothing to take.
+ */
+public class SortedPartitionStore implements AutoCloseable {
+
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sorted-partition-store-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Whether a compaction is queued but hasn't started yet.
+    private final AtomicBoolean   compactionScheduled = new AtomicBoolean();
+
+    private volatile List<Run>    runs = Collections.emptyList();
+    // The first exception thrown by a compaction, which stops compacting.
+    private volatile Throwable    failure;
+    private volatile boolean      closed;
+
+    /**
+     * Add a partition, which is sorted by blocks. Empty partitions are dropped.
+     *
+     * @throws IllegalStateException if the store is closed
+     */
+    public void append(Partition partition) {
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Store is closed");
+            }
+            if (partition.getFirst() == null) {
+                return;
+            }
+            List<Run> newRuns = new ArrayList<>(runs);
+            newRuns.add(new Run(Collections.singletonList(partition), 0));
+            runs = Collections.unmodifiableList(newRuns);
+        }
+        if (failure == null && compactionScheduled.compareAndSet(false, true)) {
+            try {
+                compactor.execute(this::compact);
+            } catch (RejectedExecutionException e) {
+                // Closed after the partition was added, which is kept without compaction.
+                compactionScheduled.set(false);
+            }
+        }
+    }
+
+    public void appendAll(List<? extends Partition> partitions) {
+        partitions.forEach(this::append);
+    }
+
+    /**
+     * @return the runs at this moment, which never change later
+     */
+    public Snapshot snapshot() {
+        List<Run> currentRuns = runs;
+        List<List<Partition>> runLists = new ArrayList<>(currentRuns.size());
+        for (Run run : currentRuns) {
+            runLists.add(run.partitions);
+        }
+        return new Snapshot(runLists);
+    }
+
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Wait until all runs appended so far are compacted.
+     *
+     * @throws IllegalStateException if a compaction failed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompaction() throws InterruptedException {
+        try {
+            // The compactor runs tasks in order, so this finishes after queued compactions.
+            compactor.submit(() -> {
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        if (failure != null) {
+            throw new IllegalStateException("compaction failed", failure);
+        }
+    }
+
+    /**
+     * Stop compacting. Snapshots can still be taken and read.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        compactor.shutdown();
+    }
+
+    /**
+     * Merge two runs of the same level until all levels are different.
+     */
+    private void compact() {
+        compactionScheduled.set(false);
+        Run[] pair;
+        while ((pair = findPair()) != null) {
+            MergeSortJob job = new MergeSortJob(pair[0].partitions, pair[1].partitions);
+            try {
+                job.run();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+                return;
+            }
+            replace(pair, new Run(job.getOutputList(), pair[0].level + 1));
+        }
+    }
+
+    /**
+     * @return the two oldest runs of the lowest level which has more than one run, or null if none
+     */
+    private synchronized Run[] findPair() {
+        Run[] pair = null;
+        for (int i = 0; i < runs.size(); i++) {
+            for (int j = i + 1; j < runs.size(); j++) {
+                Run run1 = runs.get(i), run2 = runs.get(j);
+                if (run1.level == run2.level && (pair == null || run1.level < pair[0].level)) {
+                    pair = new Run[] { run1, run2 };
+                    break;
+                }
+            }
+        }
+        return pair;
+    }
+
+    /**
+     * Replace the merged runs with the output run.
+     */
+    private synchronized void replace(Run[] pair, Run mergedRun) {
+        List<Run> newRuns = new ArrayList<>(runs.size() - 1);
+        for (Run run : runs) {
+            if (run == pair[0]) {
+                newRuns.add(mergedRun);
+            } else if (run != pair[1]) {
+                newRuns.add(run);
+            }
+        }
+        runs = Collections.unmodifiableList(newRuns);
+    }
+
+    /**
+     * A sorted partition list and the count of merges it's been through.
+     */
+    private static class Run {
+
+        private final List<Partition> partitions;
+        private final int             level;
+
+        Run(List<Partition> partitions, int level){
+            this.partitions = partitions;
+            this.level = level;
+        }
+    }
+
+    /**
+     * Runs of the store at one moment.
+     */
+    public static class Snapshot {
+
+        private final List<List<Partition>> runs;
+
+        Snapshot(List<List<Partition>> runs){
+            this.runs = Collections.unmodifiableList(runs);
+        }
+
+        /**
+         * @return sorted partition lists, which may intersect each other
+         */
+        public List<List<Partition>> getRuns() {
+            return runs;
+        }
+
+        public long getValueCount() {
+            long valueCount = 0;
+            for (List<Partition> run : runs) {
+                valueCount += MergeSortJob.countValues(run);
+            }
+            return valueCount;
+        }
+
+        /**
+         * Merge the runs with a K-way merge. Runs are left as they are.
+         *
+         * @return sorted partition list
+         */
+        public List<Partition> getSortedPartitions() {
+            if (runs.size() == 1) {
+                return runs.get(0);
+            }
+            return KWayMergeJob.mergeSortContainers(runs, new MergeSortMetrics(), SortCancellation.NONE);
+        }
+
+        /**
+         * Iterate the sorted values lazily. See {@link SortedIterator}.
+         */
+        public <T extends Comparable> Iterator<T> iterator() {
+            List<Partition> partitions = new ArrayList<>();
+            runs.forEach(partitions::addAll);
+            return new SortedIterator<>(partitions, ForkJoinPool.commonPool(),
+                ForkJoinPool.commonPool().getParallelism());
+        }
+    }
+}
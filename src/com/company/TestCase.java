@@ -2,10 +2,39 @@ package com.company;
 
 import com.sun.tools.javac.util.Assert;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 public class TestCase {
 
@@ -81,21 +110,67 @@ public class TestCase {
     }
 
     /**
-     * 1. Are the sizes of input and output equal?
-     * 2. Is the output really sorted?
-     *
-     * @param testcase original data
-     * @param result output data
+     * Convert array to int partition list.
      */
-    private static void checkResult(int[][][] testcase, List result) {
+    private static List<IntPartition> convertArrayToIntPartitionList(int[][][] arrayList) {
+        return Arrays.stream(arrayList)
+            .map(list -> new IntPartition(Arrays.stream(list).map(IntBlock::new).collect(Collectors.toList())))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Convert array to long partition list.
+     */
+    private static List<LongPartition> convertArrayToLongPartitionList(int[][][] arrayList) {
+        return Arrays.stream(arrayList)
+            .map(list -> new LongPartition(Arrays.stream(list)
+                .map(array -> new LongBlock(Arrays.stream(array).asLongStream().toArray()))
+                .collect(Collectors.toList())))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Count the values in the original data.
+     */
+    private static int countValues(int[][][] testcase) {
         int totalNum = 0;
         for (int[][] chunkData : testcase) {
             for (int[] blockData : chunkData) {
                 totalNum += blockData.length;
             }
         }
+        return totalNum;
+    }
 
-        Assert.check(totalNum == result.size());
+    /**
+     * Same as {@link #checkResult(int[][][], List)}, for int results.
+     */
+    private static void checkIntResult(int[][][] testcase, int[] result) {
+        Assert.check(countValues(testcase) == result.length);
+        for (int i = 0; i < result.length - 1; i++) {
+            Assert.check(result[i] <= result[i + 1]);
+        }
+    }
+
+    /**
+     * Same as {@link #checkResult(int[][][], List)}, for long results.
+     */
+    private static void checkLongResult(int[][][] testcase, long[] result) {
+        Assert.check(countValues(testcase) == result.length);
+        for (int i = 0; i < result.length - 1; i++) {
+            Assert.check(result[i] <= result[i + 1]);
+        }
+    }
+
+    /**
+     * 1. Are the sizes of input and output equal?
+     * 2. Is the output really sorted?
+     *
+     * @param testcase original data
+     * @param result output data
+     */
+    private static void checkResult(int[][][] testcase, List result) {
+        Assert.check(countValues(testcase) == result.size());
 
         for (int i = 0; i < result.size() - 1; i++) {
             Assert.check((Integer) result.get(i) <= (Integer) result.get(i + 1));
@@ -107,9 +182,23 @@ public class TestCase {
      * @param testcase arrays
      */
     private static void test(int[][][] testcase) {
-        List<Partition> partitionList = convertArrayToPartitionList(testcase);
-        List result = MergeSortK.sortPartitions(partitionList);
-        checkResult(testcase, result);
+        for (MergeStrategy strategy : MergeStrategy.values()) {
+            List<Partition> partitionList = convertArrayToPartitionList(testcase);
+            List result = MergeSortK.sortPartitions(partitionList, strategy);
+            checkResult(testcase, result);
+        }
+    }
+
+    /**
+     * Convert arrays to int and long partitions and then test.
+     * @param testcase arrays
+     */
+    private static void testPrimitive(int[][][] testcase) {
+        for (MergeStrategy strategy : MergeStrategy.values()) {
+            checkIntResult(testcase, MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(testcase), strategy));
+            checkLongResult(testcase,
+                MergeSortK.sortLongPartitions(convertArrayToLongPartitionList(testcase), strategy));
+        }
     }
 
     /**
@@ -118,6 +207,7 @@ public class TestCase {
     public static void cornerCasesTest() {
         for (int[][][] testcase : testcases) {
             test(testcase);
+            testPrimitive(testcase);
         }
     }
 
@@ -151,4 +241,1405 @@ public class TestCase {
             test(partitions);
         }
     }
+
+    /**
+     * Randomly produce partitions with several blocks each, and sort them
+     * as int and long partitions.
+     */
+    public static void randomPrimitiveTest() {
+        final int TEST_TIMES = 20;
+        final int MAX_PARTITION_COUNT = 200;
+        final int MAX_BLOCK_COUNT = 10;
+        final int MAX_BLOCK_SIZE = 500;
+
+        Random random = new Random();
+        for (int testTimes = 0; testTimes < TEST_TIMES; testTimes++) {
+            int[][][] partitions = new int[random.nextInt(MAX_PARTITION_COUNT)][][];
+            for (int partitionIndex = 0; partitionIndex < partitions.length; partitionIndex++) {
+                // Blocks in a partition don't intersect, so cut one sorted array into blocks
+                int blockCount = random.nextInt(MAX_BLOCK_COUNT) + 1;
+                int[] values = new int[random.nextInt(MAX_BLOCK_SIZE * blockCount)];
+                for (int valueIndex = 0; valueIndex < values.length; valueIndex++) {
+                    values[valueIndex] = random.nextInt(Integer.MAX_VALUE);
+                }
+                Arrays.sort(values);
+                int[][] blocks = new int[blockCount][];
+                for (int blockIndex = 0; blockIndex < blockCount; blockIndex++) {
+                    blocks[blockIndex] = Arrays.copyOfRange(values, values.length * blockIndex / blockCount,
+                        values.length * (blockIndex + 1) / blockCount);
+                }
+                partitions[partitionIndex] = blocks;
+            }
+
+            test(partitions);
+            testPrimitive(partitions);
+        }
+    }
+
+    /**
+     * Sort corner cases with each scheduler, including a ForkJoinPool shared
+     * by all sorts.
+     */
+    public static void schedulerTest() {
+        ForkJoinPool sharedPool = new ForkJoinPool(3);
+        try {
+            List<SortConfig> configs = new ArrayList<>();
+            for (Scheduler scheduler : Scheduler.values()) {
+                SortConfig config = new SortConfig();
+                config.setScheduler(scheduler);
+                config.setParallelism(3);
+                configs.add(config);
+            }
+            SortConfig sharedConfig = new SortConfig();
+            sharedConfig.setForkJoinPool(sharedPool);
+            configs.add(sharedConfig);
+
+            for (SortConfig config : configs) {
+                for (int[][][] testcase : testcases) {
+                    checkResult(testcase, MergeSortK.sortPartitions(convertArrayToPartitionList(testcase), config));
+                    checkIntResult(testcase,
+                        MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(testcase), config));
+                }
+            }
+        } finally {
+            sharedPool.shutdown();
+        }
+    }
+
+    /**
+     * The thread pool always merges the two smallest lists, so a big list
+     * is merged once, after the small lists are merged with each other.
+     */
+    public static void threadPoolOrderTest() throws InterruptedException {
+        Random random = new Random();
+        List<List<Partition>> partitionLists = new ArrayList<>();
+        partitionLists.add(Collections.singletonList(new IntPartition(Collections.singletonList(
+            new IntBlock(random.ints(100000).sorted().toArray())))));
+        for (int i = 0; i < 16; i++) {
+            partitionLists.add(Collections.singletonList(new IntPartition(Collections.singletonList(
+                new IntBlock(random.ints(100).sorted().toArray())))));
+        }
+        int[] expected = partitionLists.stream()
+            .flatMapToInt(partitionList -> Arrays.stream(((IntPartition) partitionList.get(0)).toIntArray()))
+            .sorted().toArray();
+
+        for (int poolSize : new int[] { 1, 4 }) {
+            MergeSortThreadPoolExecutor executor = new MergeSortThreadPoolExecutor(poolSize, poolSize, 5000,
+                partitionLists);
+            Assert.check(!executor.isFinished() && executor.getTotalJobCount() == 16);
+            Assert.check(executor.getTotalValueCount() == 101600);
+            executor.prestartAllCoreThreads();
+            executor.start();
+            Assert.check(executor.awaitTermination(60, TimeUnit.SECONDS));
+            Assert.check(executor.isFinished() && executor.getFinishedJobCount() == 16);
+            // 1600 small values are merged 4 times, and all values once more at last.
+            Assert.check(executor.getMergedValueCount() == 1600 * 4 + 101600);
+            Assert.check(Arrays.equals(executor.getSortedPartitions().stream()
+                .flatMapToInt(partition -> Arrays.stream(((IntPartition) partition).toIntArray())).toArray(),
+                expected));
+            // The result is a mutable list, like the one of MergeSortK
+            List sortResult = executor.getSortResult();
+            Assert.check(sortResult.size() == expected.length && sortResult.get(0).equals(expected[0]));
+            sortResult.add(Integer.MAX_VALUE);
+        }
+        List sorted = MergeSortK.sortPartitions(partitionLists.stream().map(partitionList -> partitionList.get(0))
+            .collect(Collectors.toList()));
+        Assert.check(sorted.size() == expected.length);
+        sorted.add(Integer.MAX_VALUE);
+
+        // A single list needs no job
+        MergeSortThreadPoolExecutor executor = new MergeSortThreadPoolExecutor(1, 1, 5000,
+            partitionLists.subList(0, 1));
+        executor.start();
+        Assert.check(executor.isFinished() && executor.awaitTermination(60, TimeUnit.SECONDS));
+        Assert.check(executor.getSortedPartitions().equals(partitionLists.get(0)));
+    }
+
+    /**
+     * Merge big overlapping inputs which are split into pieces by co-rank,
+     * and compare them with a plain sort. Few distinct values make sure
+     * equal values sit on the piece borders.
+     */
+    public static void parallelMergeTest() {
+        // Run in a pool with several workers, so merges are split even on a single core
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            pool.submit(() -> {
+                final int MAX_SIZE = 1 << 18;
+
+                Random random = new Random();
+                for (int bound : new int[] { 4, Integer.MAX_VALUE }) {
+                    int[] ints1 = random.ints(random.nextInt(MAX_SIZE), 0, bound).sorted().toArray();
+                    int[] ints2 = random.ints(random.nextInt(MAX_SIZE), 0, bound).sorted().toArray();
+                    int[] expected = IntStream.concat(Arrays.stream(ints1), Arrays.stream(ints2)).sorted().toArray();
+                    Assert.check(Arrays.equals(expected, ParallelMerge.mergeInts(ints1, ints2)));
+                    Assert.check(Arrays.equals(Arrays.stream(expected).asLongStream().toArray(), ParallelMerge.mergeLongs(
+                        Arrays.stream(ints1).asLongStream().toArray(), Arrays.stream(ints2).asLongStream().toArray())));
+                    List<Comparable> values = ParallelMerge.mergeValues(
+                        Arrays.stream(ints1).boxed().collect(Collectors.toList()),
+                        Arrays.stream(ints2).boxed().collect(Collectors.toList()));
+                    Assert.check(Arrays.equals(expected, values.stream().mapToInt(value -> (Integer) value).toArray()));
+
+                    // Slices of bigger arrays, into the middle of the output
+                    int[] padded1 = IntStream.concat(IntStream.of(-1, -1), Arrays.stream(ints1)).toArray();
+                    int[] padded2 = IntStream.concat(Arrays.stream(ints2), IntStream.of(-1)).toArray();
+                    int[] sliced = new int[expected.length + 4];
+                    ParallelMerge.mergeInts(padded1, 2, padded1.length, padded2, 0, ints2.length, sliced, 3);
+                    Assert.check(Arrays.equals(expected, Arrays.copyOfRange(sliced, 3, 3 + expected.length)));
+                    long[] slicedLongs = new long[expected.length + 4];
+                    ParallelMerge.mergeLongs(Arrays.stream(padded1).asLongStream().toArray(), 2, padded1.length,
+                        Arrays.stream(padded2).asLongStream().toArray(), 0, ints2.length, slicedLongs, 3);
+                    Assert.check(Arrays.equals(Arrays.stream(expected).asLongStream().toArray(),
+                        Arrays.copyOfRange(slicedLongs, 3, 3 + expected.length)));
+
+                    int[][][] testcase = new int[][][] { { ints1 }, { ints2 } };
+                    test(testcase);
+                    testPrimitive(testcase);
+                }
+            }).join();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Iterate and stream sorted values lazily, and compare them with the
+     * materialized result.
+     */
+    public static void streamingTest() {
+        List<int[][][]> streamingTestcases = new ArrayList<>(Arrays.asList(testcases));
+        streamingTestcases.add(new int[][][] {
+            { { 1, 2 }, { 9, 10 } },
+            { { 3, 4 }, { 5, 6 } },
+            { { 5, 7 }, { 8 } },
+            { { 11, 12 } },
+        });
+
+        for (int[][][] testcase : streamingTestcases) {
+            List expected = MergeSortK.sortPartitions(convertArrayToPartitionList(testcase));
+
+            List<Integer> iterated = new ArrayList<>();
+            Iterator<Integer> iterator = MergeSortK.iteratePartitions(convertArrayToIntPartitionList(testcase));
+            iterator.forEachRemaining(iterated::add);
+            Assert.check(expected.equals(iterated));
+
+            List streamed = MergeSortK.streamPartitions(convertArrayToPartitionList(testcase), new SortConfig())
+                .collect(Collectors.toList());
+            Assert.check(expected.equals(streamed));
+        }
+    }
+
+    /**
+     * Partitions are grouped into clusters of intersecting partitions, and
+     * empty partitions are dropped.
+     */
+    public static void plannerTest() {
+        int[][][] testcase = new int[][][] {
+            { { 9, 10 } },
+            { { 1, 2 }, { 3 } },
+            { { } },
+            { { 3, 4 }, { 5, 6 } },
+            { { 5, 7 }, { 8 } },
+            { { 11, 12 } },
+        };
+        List<List<Partition>> clusters = OverlapPlanner.plan(convertArrayToPartitionList(testcase));
+        List<Integer> clusterSizes = clusters.stream().map(List::size).collect(Collectors.toList());
+        Assert.check(clusterSizes.equals(Arrays.asList(1, 2, 1, 1)));
+        Assert.check(clusters.get(1).get(0).getFirst().equals(3));
+        test(testcase);
+        testPrimitive(testcase);
+    }
+
+    /**
+     * Sort memory-mapped partitions into a mapped file, with a heap budget
+     * small enough to need several merge passes.
+     */
+    public static void externalSortTest() throws IOException {
+        final int PARTITION_COUNT = 10;
+        final int MAX_PARTITION_SIZE = 100000;
+        final int BLOCK_SIZE = 1000;
+
+        Path directory = Files.createTempDirectory("external-sort");
+        try {
+            Random random = new Random();
+            List<MappedLongPartition> partitions = new ArrayList<>();
+            long[] expected = new long[0];
+            for (int i = 0; i < PARTITION_COUNT; i++) {
+                // Some partitions don't intersect the others
+                long base = i % 3 == 0 ? (long) i << 40 : 0;
+                long[] values = random.longs(random.nextInt(MAX_PARTITION_SIZE), base, base + (1L << 32))
+                    .sorted().toArray();
+                partitions.add(MappedLongPartition.create(directory.resolve("input" + i), values, BLOCK_SIZE));
+                expected = LongStream.concat(Arrays.stream(expected), Arrays.stream(values)).toArray();
+            }
+            Arrays.sort(expected);
+
+            ExternalMergeSort externalMergeSort = new ExternalMergeSort(directory, 3 * 1024, BLOCK_SIZE);
+            Assert.check(externalMergeSort.getMaxFanIn() == 3);
+            MappedLongPartition output = externalMergeSort.sort(partitions, directory.resolve("output"));
+            List<Long> result = output.getValueList();
+            Assert.check(Arrays.equals(expected, result.stream().mapToLong(Long::longValue).toArray()));
+
+            // Mapped blocks can be merged in memory as well
+            List<Long> inMemoryResult = MergeSortK.sortPartitions((List) partitions);
+            Assert.check(inMemoryResult.equals(result));
+
+            // Blocks are created when they are read, so the heap doesn't grow with the count of blocks
+            com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            MappedLongPartition singleValueBlocks = MappedLongPartition.open(output.getPath(), 1);
+            long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+            Assert.check(allocated < 64 * 1024);
+            Assert.check(singleValueBlocks.getBlockList().size() == result.size());
+            Assert.check(singleValueBlocks.getValueCount() == result.size());
+            Assert.check(singleValueBlocks.getLast().equals(expected[expected.length - 1]));
+            MappedLongPartition singleValueOutput = new ExternalMergeSort(directory, 3 * 1024, 1)
+                .sort(Arrays.asList(partitions.get(1), partitions.get(2)), directory.resolve("single-value-output"));
+            long[] expectedPair = LongStream.concat(partitions.get(1).getValueList().stream().mapToLong(Long::longValue),
+                partitions.get(2).getValueList().stream().mapToLong(Long::longValue)).sorted().toArray();
+            Assert.check(Arrays.equals(expectedPair,
+                singleValueOutput.getValueList().stream().mapToLong(Long::longValue).toArray()));
+        } finally {
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : paths.collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Write partition files, sort them from their footers, and read back the
+     * sorted file.
+     */
+    public static void partitionFileTest() throws IOException {
+        final int FILE_COUNT = 5;
+        final int MAX_BLOCK_COUNT = 20;
+        final int MAX_BLOCK_SIZE = 1000;
+
+        Path directory = Files.createTempDirectory("partition-file");
+        try {
+            // Extreme values survive delta encoding
+            long[] extremeValues = new long[] { Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE };
+            Path extremePath = directory.resolve("extreme");
+            try (PartitionFileWriter writer = new PartitionFileWriter(extremePath)) {
+                writer.writePartitions(Collections.singletonList(
+                    new LongPartition(Collections.singletonList(new LongBlock(extremeValues)))));
+            }
+            try (PartitionFileReader reader = new PartitionFileReader(extremePath)) {
+                Assert.check(Arrays.equals(extremeValues, reader.readPartition().toLongArray()));
+            }
+
+            // A block longer than the buffer of the writer is encoded and written in pieces
+            long[] longBlockValues = new Random().longs(20000).sorted().toArray();
+            Path longBlockPath = directory.resolve("long-block");
+            try (PartitionFileWriter writer = new PartitionFileWriter(longBlockPath)) {
+                writer.writeBlock(longBlockValues, 0, longBlockValues.length);
+            }
+            try (PartitionFileReader reader = new PartitionFileReader(longBlockPath)) {
+                Assert.check(reader.getBlockIndexes().size() == 1);
+                Assert.check(Arrays.equals(longBlockValues, reader.readPartition().toLongArray()));
+            }
+
+            Random random = new Random();
+            List<Path> inputPaths = new ArrayList<>();
+            long[] expected = new long[0];
+            for (int i = 0; i < FILE_COUNT; i++) {
+                // Blocks of the first file don't intersect any other block
+                long origin = i == 0 ? 1L << 50 : -((long) i << 40);
+                long bound = i == 0 ? origin + 1000000 : (long) i << 40;
+                long[] values = random.longs(random.nextInt(MAX_BLOCK_COUNT * MAX_BLOCK_SIZE), origin, bound)
+                    .sorted().toArray();
+                Path inputPath = directory.resolve("input" + i);
+                try (PartitionFileWriter writer = new PartitionFileWriter(inputPath)) {
+                    writer.writeValues(values, random.nextInt(MAX_BLOCK_SIZE) + 1);
+                }
+                inputPaths.add(inputPath);
+                expected = LongStream.concat(Arrays.stream(expected), Arrays.stream(values)).toArray();
+            }
+            Arrays.sort(expected);
+
+            Path outputPath = directory.resolve("output");
+            PartitionFileSort.sort(inputPaths, outputPath, MAX_BLOCK_SIZE);
+            try (PartitionFileReader reader = new PartitionFileReader(outputPath)) {
+                Assert.check(Arrays.equals(expected, reader.readPartition().toLongArray()));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : paths.collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Sort small partitions of every benchmark data shape.
+     */
+    public static void dataShapeTest() {
+        Random random = new Random();
+        for (DataShape shape : DataShape.values()) {
+            int[][][] testcase = shape.generate(random, 20, 500, 50);
+            test(testcase);
+            testPrimitive(testcase);
+        }
+    }
+
+    /**
+     * Intersecting partitions whose blocks don't intersect are merged by
+     * block shortcuts without copying values, and the listener sees each job
+     * and the whole sort. Jobs forked on a busy pool report their wait.
+     */
+    public static void metricsTest() {
+        int[][][] blockShortcutCase = new int[][][] {
+            { { 1, 2 }, { 5, 6 } },
+            { { 3, 4 }, { 7, 8 } },
+        };
+        int[][][] valueMergeCase = new int[][][] {
+            { { 1 }, { 2, 3 } },
+            { { 3, 4 } },
+            { { 1 }, { 2, 3 } },
+        };
+        for (MergeStrategy strategy : new MergeStrategy[] { MergeStrategy.PAIRWISE, MergeStrategy.K_WAY }) {
+            MergeSortMetrics metrics = sortWithListener(blockShortcutCase, strategy);
+            Assert.check(metrics.getJobCount() == 1);
+            Assert.check(metrics.getPartitionMerges() == 1);
+            Assert.check(metrics.getBlockShortcuts() == 4);
+            Assert.check(metrics.getValuesCopied() == 0);
+
+            metrics = sortWithListener(valueMergeCase, strategy);
+            Assert.check(metrics.getBlockMerges() > 0);
+            Assert.check(metrics.getValuesCopied() > 0);
+            Assert.check(metrics.getWallNanos() > 0);
+        }
+
+        // Disjoint clusters merged one after another by a single worker
+        Random random = new Random();
+        int[][][] clusters = new int[16][][];
+        for (int cluster = 0; cluster < 8; cluster++) {
+            int[][][] overlapping = DataShape.OVERLAPPING.generate(random, 2, 20000, 1000);
+            for (int partition = 0; partition < 2; partition++) {
+                int offset = cluster << 24;
+                clusters[cluster * 2 + partition] = Arrays.stream(overlapping[partition])
+                    .map(block -> Arrays.stream(block).map(value -> (value >> 8) + offset).toArray())
+                    .toArray(int[][]::new);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            for (MergeStrategy strategy : new MergeStrategy[] { MergeStrategy.PAIRWISE, MergeStrategy.K_WAY }) {
+                AtomicReference<MergeSortMetrics> sortMetrics = new AtomicReference<>();
+                SortConfig config = new SortConfig();
+                config.setStrategy(strategy);
+                config.setScheduler(Scheduler.FORK_JOIN);
+                config.setForkJoinPool(pool);
+                config.setListener(new MergeSortListener() {
+                    @Override
+                    public void onSortFinished(MergeSortMetrics metrics) {
+                        sortMetrics.set(metrics);
+                    }
+                });
+                checkIntResult(clusters, MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(clusters), config));
+                // The later of 8 clusters wait for the earlier ones, 3.5 merges on average.
+                Assert.check(sortMetrics.get().getJobCount() == 8);
+                Assert.check(sortMetrics.get().getQueueWaitNanos() > sortMetrics.get().getMergeNanos());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Sort with a listener, and check the listener is called once for each job.
+     *
+     * @return counters of the whole sort
+     */
+    private static MergeSortMetrics sortWithListener(int[][][] testcase, MergeStrategy strategy) {
+        AtomicInteger jobCount = new AtomicInteger();
+        AtomicReference<MergeSortMetrics> sortMetrics = new AtomicReference<>();
+        SortConfig config = new SortConfig();
+        config.setStrategy(strategy);
+        config.setListener(new MergeSortListener() {
+            @Override
+            public void onJobFinished(MergeSortMetrics metrics) {
+                jobCount.incrementAndGet();
+            }
+
+            @Override
+            public void onSortFinished(MergeSortMetrics metrics) {
+                Assert.check(sortMetrics.compareAndSet(null, metrics));
+            }
+        });
+        MergeSortK.sortPartitions(convertArrayToPartitionList(testcase), config);
+        Assert.check(sortMetrics.get() != null);
+        Assert.check(sortMetrics.get().getJobCount() == jobCount.get());
+        return sortMetrics.get();
+    }
+
+    /**
+     * Sort records by comparators, extracted keys and key prefixes. String
+     * keys share prefixes longer than the cached prefix, so ties are broken
+     * by the comparator.
+     */
+    public static void recordTest() {
+        Random random = new Random();
+        String[] stems = new String[] { "", "a", "abcd", "abcde", "abcdz", "zz" };
+        List<List<List<String>>> stringPartitions = new ArrayList<>();
+        List<List<List<int[]>>> recordPartitions = new ArrayList<>();
+        List<String> expectedStrings = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            List<String> strings = new ArrayList<>();
+            List<int[]> records = new ArrayList<>();
+            for (int j = 0; j < 50; j++) {
+                strings.add(stems[random.nextInt(stems.length)] + random.nextInt(100));
+                records.add(new int[] { random.nextInt(100), i * 50 + j });
+            }
+            strings.sort(Comparator.naturalOrder());
+            records.sort(Comparator.comparingInt(record -> record[0]));
+            expectedStrings.addAll(strings);
+            stringPartitions.add(cutIntoLists(strings, 7));
+            recordPartitions.add(cutIntoLists(records, 7));
+        }
+        expectedStrings.sort(Comparator.naturalOrder());
+
+        for (MergeStrategy strategy : MergeStrategy.values()) {
+            SortConfig config = new SortConfig();
+            config.setStrategy(strategy);
+            Assert.check(MergeSortK.sortPartitions(stringPartitions,
+                KeyOrder.comparingString(Function.identity()), config).equals(expectedStrings));
+            checkRecords(MergeSortK.sortPartitions(recordPartitions,
+                KeyOrder.<int[]>comparingLong(record -> record[0]), config));
+        }
+        Assert.check(MergeSortK.sortPartitions(stringPartitions, Comparator.<String>naturalOrder())
+            .equals(expectedStrings));
+        checkRecords(MergeSortK.sortPartitionsBy(recordPartitions, record -> record[0]));
+
+        // Reversed order
+        List<List<List<String>>> reversedPartitions = stringPartitions.stream()
+            .map(blocks -> {
+                List<String> strings = blocks.stream().flatMap(List::stream).sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+                return cutIntoLists(strings, 7);
+            })
+            .collect(Collectors.toList());
+        List<String> reversedStrings = new ArrayList<>(expectedStrings);
+        Collections.reverse(reversedStrings);
+        Assert.check(MergeSortK.sortPartitions(reversedPartitions, Comparator.<String>reverseOrder())
+            .equals(reversedStrings));
+    }
+
+    /**
+     * Records are sorted by keys, and each record is output once.
+     */
+    private static void checkRecords(List<int[]> records) {
+        Assert.check(records.size() == 500);
+        for (int i = 1; i < records.size(); i++) {
+            Assert.check(records.get(i - 1)[0] <= records.get(i)[0]);
+        }
+        Assert.check(records.stream().mapToInt(record -> record[1]).sorted().boxed().collect(Collectors.toList())
+            .equals(IntStream.range(0, 500).boxed().collect(Collectors.toList())));
+    }
+
+    /**
+     * Cut a sorted list into blocks.
+     */
+    private static <T> List<List<T>> cutIntoLists(List<T> values, int blockSize) {
+        List<List<T>> blocks = new ArrayList<>();
+        for (int from = 0; from < values.size(); from += blockSize) {
+            blocks.add(values.subList(from, Math.min(from + blockSize, values.size())));
+        }
+        return blocks;
+    }
+
+    /**
+     * Run concurrent sorts on one engine, and check that errors, cancellation
+     * and timeouts complete the futures exceptionally and stop the sorts.
+     */
+    public static void asyncTest() throws InterruptedException {
+        Random random = new Random();
+        try (MergeSortEngine engine = new MergeSortEngine(4)) {
+            List<int[][][]> asyncTestcases = new ArrayList<>();
+            List<CompletableFuture<List>> futures = new ArrayList<>();
+            List<CompletableFuture<int[]>> intFutures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                int[][][] testcase = DataShape.values()[i % DataShape.values().length].generate(random, 8, 100, 10);
+                asyncTestcases.add(testcase);
+                for (MergeStrategy strategy : MergeStrategy.values()) {
+                    SortConfig config = new SortConfig();
+                    config.setStrategy(strategy);
+                    config.setScheduler(Scheduler.THREAD_POOL);
+                    futures.add(engine.sortPartitionsAsync(convertArrayToPartitionList(testcase), config));
+                    intFutures.add(engine.sortIntPartitionsAsync(convertArrayToIntPartitionList(testcase), config));
+                }
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                int[][][] testcase = asyncTestcases.get(i / MergeStrategy.values().length);
+                checkResult(testcase, futures.get(i).join());
+                checkIntResult(testcase, intFutures.get(i).join());
+            }
+
+            // Errors of comparators
+            int[][][] testcase = DataShape.OVERLAPPING.generate(random, 8, 100, 10);
+            List<List<List<Integer>>> records = toNestedLists(testcase);
+            CompletableFuture<List<Integer>> failed = engine.sortAsync(config -> MergeSortK.sortPartitions(records,
+                KeyOrder.<Integer>of((value1, value2) -> {
+                    throw new IllegalStateException("broken comparator");
+                }), config), new SortConfig());
+            try {
+                failed.get();
+                Assert.error();
+            } catch (ExecutionException e) {
+                Assert.check(e.getCause() instanceof IllegalStateException);
+            }
+
+            // Cancellation and timeout of slow sorts
+            for (boolean timeout : new boolean[] { false, true }) {
+                CountDownLatch started = new CountDownLatch(1);
+                AtomicLong compareCount = new AtomicLong();
+                KeyOrder<Integer> slowOrder = KeyOrder.of((value1, value2) -> {
+                    started.countDown();
+                    compareCount.incrementAndGet();
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return Integer.compare(value1, value2);
+                });
+                CompletableFuture<List<Integer>> slow = engine.sortAsync(
+                    config -> MergeSortK.sortPartitions(records, slowOrder, config), new SortConfig());
+                if (timeout) {
+                    slow.orTimeout(50, TimeUnit.MILLISECONDS);
+                } else {
+                    started.await();
+                    Assert.check(slow.cancel(true));
+                }
+                try {
+                    slow.get();
+                    Assert.error();
+                } catch (CancellationException e) {
+                    Assert.check(!timeout);
+                } catch (ExecutionException e) {
+                    Assert.check(timeout && e.getCause() instanceof TimeoutException);
+                }
+                // The sort takes seconds if it's not stopped.
+                Assert.check(engine.getPool().awaitQuiescence(2, TimeUnit.SECONDS));
+                Assert.check(compareCount.get() < 800);
+            }
+        }
+
+        // The cancellation of a config without one is shared, so it can't be cancelled.
+        try {
+            new SortConfig().getCancellation().cancel();
+            Assert.error();
+        } catch (UnsupportedOperationException e) {
+            Assert.check(!SortCancellation.NONE.isCancelled());
+        }
+        int[][][] testcase = DataShape.OVERLAPPING.generate(random, 8, 100, 10);
+        checkResult(testcase, MergeSortK.sortPartitions(convertArrayToPartitionList(testcase), new SortConfig()));
+    }
+
+    /**
+     * Convert array to partitions -> blocks -> values.
+     */
+    private static List<List<List<Integer>>> toNestedLists(int[][][] arrayList) {
+        return Arrays.stream(arrayList)
+            .map(partition -> Arrays.stream(partition)
+                .map(block -> Arrays.stream(block).boxed().collect(Collectors.toList()))
+                .collect(Collectors.toList()))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Append partitions to a store while taking snapshots. Every snapshot is
+     * sorted, compaction keeps one run for each level, and a closed store
+     * rejects partitions.
+     */
+    public static void storeTest() throws InterruptedException {
+        Random random = new Random();
+        int[][][] testcase = DataShape.TIME_WINDOWS.generate(random, 100, 50, 10);
+        try (SortedPartitionStore store = new SortedPartitionStore()) {
+            List<Partition> partitions = convertArrayToPartitionList(testcase);
+            for (int i = 0; i < partitions.size(); i++) {
+                store.append(partitions.get(i));
+                if (i % 10 == 0) {
+                    SortedPartitionStore.Snapshot snapshot = store.snapshot();
+                    List<Integer> iterated = new ArrayList<>();
+                    snapshot.<Integer>iterator().forEachRemaining(iterated::add);
+                    Assert.check(iterated.size() == snapshot.getValueCount());
+                    checkResult(Arrays.copyOf(testcase, i + 1), iterated);
+                    checkResult(Arrays.copyOf(testcase, i + 1), toValueList(snapshot.getSortedPartitions()));
+                }
+            }
+
+            store.awaitCompaction();
+            // 100 = 0b1100100, one run for each bit
+            Assert.check(store.getRunCount() == 3);
+            SortedPartitionStore.Snapshot snapshot = store.snapshot();
+            checkResult(testcase, toValueList(snapshot.getSortedPartitions()));
+
+            // Appending after close fails without changing the store.
+            store.close();
+            try {
+                store.append(partitions.get(0));
+                Assert.error();
+            } catch (IllegalStateException e) {
+                Assert.check(store.snapshot().getValueCount() == snapshot.getValueCount());
+            }
+        }
+
+        // Counts past Integer.MAX_VALUE don't wrap, and are rejected where an array would hold the values
+        List<Partition> hugePartitions = Collections.nCopies(3, new Partition(Collections.singletonList(
+            new Block(Collections.nCopies(1 << 30, 1)))));
+        Assert.check(MergeSortJob.countValues(hugePartitions) == 3L << 30);
+        try {
+            MergeSortJob.toArrayLength(MergeSortJob.countValues(hugePartitions));
+            Assert.error();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Concatenate the values of partitions.
+     */
+    private static List toValueList(List<Partition> partitions) {
+        List values = new ArrayList();
+        partitions.forEach(partition -> values.addAll(partition.getValueList()));
+        return values;
+    }
+
+    /**
+     * Range and top-N queries return the same values as filtering and
+     * truncating the fully sorted result.
+     */
+    public static void queryTest() {
+        Random random = new Random();
+        for (DataShape shape : DataShape.values()) {
+            int[][][] testcase = shape.generate(random, 20, 200, 16);
+            List<Integer> sorted = MergeSortK.sortPartitions(convertArrayToPartitionList(testcase));
+            if (sorted.isEmpty()) {
+                continue;
+            }
+            for (int i = 0; i < 5; i++) {
+                int bound1 = sorted.get(random.nextInt(sorted.size())) + random.nextInt(3) - 1;
+                int bound2 = sorted.get(random.nextInt(sorted.size())) + random.nextInt(3) - 1;
+                int lo = Math.min(bound1, bound2), hi = Math.max(bound1, bound2);
+                List<Integer> expected = sorted.stream().filter(value -> value >= lo && value <= hi)
+                    .collect(Collectors.toList());
+                Assert.check(MergeSortK.sortRange(convertArrayToPartitionList(testcase), lo, hi).equals(expected));
+                Assert.check(MergeSortK.sortRange(convertArrayToIntPartitionList(testcase), lo, hi).equals(expected));
+                Assert.check(MergeSortK.sortRange(convertArrayToPartitionList(testcase), null, hi)
+                    .equals(sorted.stream().filter(value -> value <= hi).collect(Collectors.toList())));
+                Assert.check(MergeSortK.sortRange(convertArrayToPartitionList(testcase), lo, null)
+                    .equals(sorted.stream().filter(value -> value >= lo).collect(Collectors.toList())));
+
+                int n = random.nextInt(sorted.size() + 10);
+                List<Integer> smallest = sorted.subList(0, Math.min(n, sorted.size()));
+                Assert.check(MergeSortK.sortSmallest(convertArrayToPartitionList(testcase), n).equals(smallest));
+                Assert.check(MergeSortK.sortSmallest(convertArrayToIntPartitionList(testcase), n).equals(smallest));
+            }
+        }
+
+        // Empty blocks are skipped by binary search
+        int[][][] testcase = new int[][][] {
+            { { }, { 1, 2 }, { }, { }, { 5, 6 }, { }, { 9 }, { } },
+            { { 2, 3 }, { }, { 6, 7 } },
+        };
+        Assert.check(MergeSortK.sortRange(convertArrayToPartitionList(testcase), 3, 6).equals(Arrays.asList(3, 5, 6, 6)));
+        Assert.check(MergeSortK.sortSmallest(convertArrayToPartitionList(testcase), 3).equals(Arrays.asList(1, 2, 2)));
+    }
+
+    /**
+     * Blocks which overlap at their edges only merge the overlapping values,
+     * and the rest of the blocks are output as slices.
+     */
+    public static void overlapTest() {
+        int[][][] edgeCase = new int[][][] {
+            { IntStream.rangeClosed(1, 100).toArray() },
+            { IntStream.rangeClosed(95, 200).toArray() },
+        };
+        int[][][] nestedCase = new int[][][] {
+            { IntStream.rangeClosed(1, 100).toArray() },
+            { { 40, 45, 50 } },
+        };
+        // 95..100 of both blocks
+        Assert.check(sortWithListener(edgeCase, MergeStrategy.PAIRWISE).getValuesCopied() == 12);
+        // 40..50 of the first block, and the second block
+        Assert.check(sortWithListener(nestedCase, MergeStrategy.PAIRWISE).getValuesCopied() == 14);
+        test(edgeCase);
+        testPrimitive(edgeCase);
+        test(nestedCase);
+        testPrimitive(nestedCase);
+
+        // Long runs are galloped
+        Random random = new Random();
+        for (int i = 0; i < 100; i++) {
+            int[][][] testcase = new int[2][1][];
+            for (int j = 0; j < 2; j++) {
+                testcase[j][0] = random.ints(random.nextInt(200), 0, 1 + random.nextInt(1000)).sorted().toArray();
+            }
+            test(testcase);
+        }
+    }
+
+    /**
+     * Combine equal values across partitions, including the values at the
+     * bounds of partitions which touch each other, and within partitions.
+     */
+    public static void combineTest() {
+        Random random = new Random();
+        // The strategies which combine values in the order of partitions
+        MergeStrategy[] combiningStrategies = { MergeStrategy.PAIRWISE, MergeStrategy.AUTO };
+        for (int i = 0; i < 50; i++) {
+            int[][][] testcase = new int[1 + random.nextInt(6)][][];
+            for (int j = 0; j < testcase.length; j++) {
+                int[] values = random.ints(random.nextInt(100), 0, 1 + random.nextInt(200)).sorted().toArray();
+                testcase[j] = new int[][] { Arrays.copyOfRange(values, 0, values.length / 2),
+                                            Arrays.copyOfRange(values, values.length / 2, values.length) };
+            }
+            int[] expected = Arrays.stream(testcase).flatMap(Arrays::stream).flatMapToInt(Arrays::stream)
+                .distinct().sorted().toArray();
+            for (MergeStrategy strategy : combiningStrategies) {
+                SortConfig config = new SortConfig();
+                config.setStrategy(strategy);
+                config.setCombiner(Combiners.keepFirst());
+                Assert.check(MergeSortK.sortPartitions(convertArrayToPartitionList(testcase), config)
+                    .equals(Arrays.stream(expected).boxed().collect(Collectors.toList())));
+                Assert.check(Arrays.equals(
+                    MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(testcase), config), expected));
+                Assert.check(Arrays.equals(
+                    MergeSortK.sortLongPartitions(convertArrayToLongPartitionList(testcase), config),
+                    Arrays.stream(expected).asLongStream().toArray()));
+            }
+        }
+
+        // Sum the counts of words, partitions touch each other at "b" and "c".
+        List<List<List<String[]>>> wordPartitions = Arrays.asList(
+            Collections.singletonList(Arrays.asList(new String[] { "a", "1" }, new String[] { "b", "2" })),
+            Collections.singletonList(Arrays.asList(new String[] { "b", "3" }, new String[] { "c", "4" })),
+            Arrays.asList(Collections.singletonList(new String[] { "c", "5" }),
+                Arrays.asList(new String[] { "c", "6" }, new String[] { "d", "7" })));
+        KeyOrder<String[]> wordOrder = KeyOrder.comparingString(word -> word[0]);
+        for (MergeStrategy strategy : combiningStrategies) {
+            SortConfig config = new SortConfig();
+            config.setStrategy(strategy);
+            config.setCombiner(Combiners.<String[]>reducing(
+                (word1, word2) -> new String[] { word1[0], word1[1] + "+" + word2[1] }));
+            Assert.check(MergeSortK.sortPartitions(wordPartitions, wordOrder, config).stream()
+                .map(word -> word[0] + "=" + word[1]).collect(Collectors.toList())
+                .equals(Arrays.asList("a=1", "b=2+3", "c=4+5+6", "d=7")));
+
+            config.setCombiner(Combiners.keepFirst());
+            Assert.check(MergeSortK.sortPartitions(wordPartitions, wordOrder, config).stream()
+                .map(word -> word[1]).collect(Collectors.toList()).equals(Arrays.asList("1", "2", "4", "7")));
+            config.setCombiner(Combiners.keepLast());
+            Assert.check(MergeSortK.sortPartitions(wordPartitions, wordOrder, config).stream()
+                .map(word -> word[1]).collect(Collectors.toList()).equals(Arrays.asList("1", "3", "6", "7")));
+        }
+
+        // Every combiner is applied to int and long values, and must keep an equal value
+        int[][][] duplicates = new int[][][] { { { 1, 2, 2 }, { 3 } }, { { 2, 3 } } };
+        List<Comparable> combinedInts = new ArrayList<>();
+        SortConfig recordingConfig = new SortConfig();
+        recordingConfig.setCombiner((Comparable earlier, Comparable later) -> {
+            combinedInts.add(later);
+            return later;
+        });
+        Assert.check(Arrays.equals(MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(duplicates),
+            recordingConfig), new int[] { 1, 2, 3 }));
+        Assert.check(combinedInts.equals(Arrays.<Comparable>asList(2, 2, 3)));
+        combinedInts.clear();
+        Assert.check(Arrays.equals(MergeSortK.sortLongPartitions(convertArrayToLongPartitionList(duplicates),
+            recordingConfig), new long[] { 1, 2, 3 }));
+        Assert.check(combinedInts.size() == 3);
+        // Partitions which don't intersect any other are combined within and across their blocks
+        int[][][] disjoint = new int[][][] { { { 1, 2, 2 }, { 2, 3 } }, { { 10, 10 }, { 10 } } };
+        SortConfig keepFirstConfig = new SortConfig();
+        keepFirstConfig.setCombiner(Combiners.keepFirst());
+        Assert.check(Arrays.equals(MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(disjoint),
+            keepFirstConfig), new int[] { 1, 2, 3, 10 }));
+        Assert.check(MergeSortK.sortPartitions(convertArrayToPartitionList(disjoint), keepFirstConfig)
+            .equals(Arrays.asList(1, 2, 3, 10)));
+        SortConfig summingConfig = new SortConfig();
+        summingConfig.setCombiner((Integer earlier, Integer later) -> earlier + later);
+        try {
+            MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(duplicates), summingConfig);
+            Assert.check(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            MergeSortK.iteratePartitions(convertArrayToIntPartitionList(duplicates), summingConfig);
+            Assert.check(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // Partitions out of value order, which only touch at "b": still combined in the order of partitions
+        List<List<List<String[]>>> reversedPartitions = Arrays.asList(
+            Collections.singletonList(Arrays.asList(new String[] { "b", "P0" }, new String[] { "c", "P0" })),
+            Collections.singletonList(Arrays.asList(new String[] { "a", "P1" }, new String[] { "b", "P1" })));
+        for (MergeStrategy strategy : combiningStrategies) {
+            for (Scheduler scheduler : new Scheduler[] { Scheduler.FORK_JOIN, Scheduler.VIRTUAL_THREAD }) {
+                SortConfig config = new SortConfig();
+                config.setStrategy(strategy);
+                config.setScheduler(scheduler);
+                config.setCombiner(Combiners.keepFirst());
+                Assert.check(MergeSortK.sortPartitions(reversedPartitions, wordOrder, config).stream()
+                    .map(word -> word[0] + "=" + word[1]).collect(Collectors.toList())
+                    .equals(Arrays.asList("a=P1", "b=P0", "c=P0")));
+                config.setCombiner(Combiners.<String[]>reducing(
+                    (word1, word2) -> new String[] { word1[0], word1[1] + "+" + word2[1] }));
+                Assert.check(MergeSortK.sortPartitions(reversedPartitions, wordOrder, config).stream()
+                    .map(word -> word[0] + "=" + word[1]).collect(Collectors.toList())
+                    .equals(Arrays.asList("a=P1", "b=P0+P1", "c=P0")));
+            }
+        }
+
+        // Other strategies and the THREAD_POOL scheduler don't keep the order of partitions
+        for (MergeStrategy strategy : new MergeStrategy[] { MergeStrategy.K_WAY, MergeStrategy.RANGE,
+                                                            MergeStrategy.RADIX }) {
+            SortConfig config = new SortConfig();
+            config.setStrategy(strategy);
+            config.setCombiner(Combiners.keepFirst());
+            try {
+                MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(duplicates), config);
+                Assert.check(false);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        SortConfig threadPoolConfig = new SortConfig();
+        threadPoolConfig.setScheduler(Scheduler.THREAD_POOL);
+        threadPoolConfig.setCombiner(Combiners.keepFirst());
+        try {
+            MergeSortK.sortPartitions(reversedPartitions, wordOrder, threadPoolConfig);
+            Assert.check(false);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Cut partitions into key ranges and merge the ranges in parallel. Equal
+     * values are never split across ranges.
+     */
+    public static void rangeTest() {
+        Random random = new Random();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (DataShape shape : DataShape.values()) {
+                int[][][] testcase = shape.generate(random, 8, 1000, 50);
+                int[] expected = Arrays.stream(testcase).flatMap(Arrays::stream).flatMapToInt(Arrays::stream)
+                    .sorted().toArray();
+                for (int rangeCount = 1; rangeCount <= 8; rangeCount++) {
+                    List<Partition> partitions = convertArrayToPartitionList(testcase);
+                    List<Comparable> splitters = RangePartitionedMerge.pickSplitters(partitions, rangeCount);
+                    Assert.check(splitters.size() < Math.max(rangeCount, 1));
+                    for (Partition partition : partitions) {
+                        List<List<Block>> rangeBlocks = RangePartitionedMerge.sliceByRanges(
+                            partition.getBlockList(), splitters);
+                        for (int range = 0; range < rangeBlocks.size(); range++) {
+                            for (Block block : rangeBlocks.get(range)) {
+                                Assert.check(block.getValueCount() > 0);
+                                Assert.check(range == 0 || block.getFirst().compareTo(splitters.get(range - 1)) >= 0);
+                                Assert.check(range == splitters.size()
+                                    || block.getLast().compareTo(splitters.get(range)) < 0);
+                            }
+                        }
+                    }
+
+                    int count = rangeCount;
+                    List<Partition> sortedPartitions = pool.submit(() -> RangePartitionedMerge.merge(partitions,
+                        count, null, SortCancellation.NONE)).join();
+                    Assert.check(toValueList(sortedPartitions)
+                        .equals(Arrays.stream(expected).boxed().collect(Collectors.toList())));
+                    int[] intResult = pool.submit(() -> {
+                        List<Partition> intPartitions = RangePartitionedMerge.merge(
+                            convertArrayToIntPartitionList(testcase), count, null, SortCancellation.NONE);
+                        int[] values = new int[expected.length];
+                        int offset = 0;
+                        for (Partition partition : intPartitions) {
+                            offset = ((IntPartition) partition).copyTo(values, offset);
+                        }
+                        return values;
+                    }).join();
+                    Assert.check(Arrays.equals(intResult, expected));
+                }
+            }
+
+            // Ranges are merged by parallel jobs
+            int[][][] testcase = DataShape.OVERLAPPING.generate(random, 8, 1000, 50);
+            AtomicInteger jobCount = new AtomicInteger();
+            pool.submit(() -> RangePartitionedMerge.merge(convertArrayToPartitionList(testcase), 4,
+                new MergeSortListener() {
+                    @Override
+                    public void onJobFinished(MergeSortMetrics metrics) {
+                        jobCount.incrementAndGet();
+                    }
+                }, SortCancellation.NONE)).join();
+            Assert.check(jobCount.get() == 4);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Sort partition files with worker processes, which shuffle key ranges
+     * to each other through files.
+     */
+    public static void distributedTest() throws IOException {
+        final int WORKER_COUNT = 3;
+        final int FILES_PER_WORKER = 2;
+
+        Path directory = Files.createTempDirectory("distributed-sort");
+        try {
+            Random random = new Random();
+            List<List<Path>> workerInputs = new ArrayList<>();
+            long[] expected = new long[0];
+            for (int workerId = 0; workerId < WORKER_COUNT; workerId++) {
+                List<Path> inputPaths = new ArrayList<>();
+                for (int i = 0; i < FILES_PER_WORKER; i++) {
+                    long[] values = random.longs(random.nextInt(20000), -1000000, 1000000).sorted().toArray();
+                    Path inputPath = directory.resolve("input-" + workerId + "-" + i);
+                    try (PartitionFileWriter writer = new PartitionFileWriter(inputPath)) {
+                        writer.writeValues(values, random.nextInt(1000) + 1);
+                    }
+                    inputPaths.add(inputPath);
+                    expected = LongStream.concat(Arrays.stream(expected), Arrays.stream(values)).toArray();
+                }
+                workerInputs.add(inputPaths);
+            }
+            Arrays.sort(expected);
+
+            // A shuffle file left by a failed sort isn't merged
+            Path staleShufflePath = directory.resolve("shuffle-0-0-0");
+            try (PartitionFileWriter writer = new PartitionFileWriter(staleShufflePath)) {
+                writer.writeValues(Arrays.copyOf(expected, 10), 10);
+            }
+
+            List<Path> outputPaths = DistributedSort.sort(workerInputs, directory, 1000);
+            Assert.check(outputPaths.size() == WORKER_COUNT);
+            long[] result = new long[0];
+            for (Path outputPath : outputPaths) {
+                try (PartitionFileReader reader = new PartitionFileReader(outputPath)) {
+                    long[] values = reader.readPartition().toLongArray();
+                    // Each worker merges a part of the values, and parts don't intersect.
+                    Assert.check(values.length > 0 && values.length < expected.length);
+                    Assert.check(result.length == 0 || result[result.length - 1] <= values[0]);
+                    result = LongStream.concat(Arrays.stream(result), Arrays.stream(values)).toArray();
+                }
+            }
+            Assert.check(Arrays.equals(expected, result));
+            // The shuffle directory of the sort is deleted
+            try (Stream<Path> paths = Files.list(directory)) {
+                Assert.check(paths.filter(path -> path.getFileName().toString().startsWith("shuffle"))
+                    .collect(Collectors.toList()).equals(Collections.singletonList(staleShufflePath)));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.list(directory)) {
+                for (Path path : paths.collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Run many small sorts at the same time on virtual threads, and check
+     * that a failed merge job cancels the other jobs of its sort.
+     */
+    public static void virtualThreadTest() {
+        Random random = new Random();
+        try (MergeSortEngine engine = MergeSortEngine.ofVirtualThreads()) {
+            // Before Java 21, sorts run on the common pool instead of platform threads.
+            Assert.check((engine.getPool() == null) == VirtualThreadMerge.isVirtual());
+            List<int[][][]> testcases = new ArrayList<>();
+            List<CompletableFuture<List>> futures = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                int[][][] testcase = DataShape.values()[i % DataShape.values().length].generate(random, 4, 20, 5);
+                testcases.add(testcase);
+                SortConfig config = new SortConfig();
+                config.setScheduler(Scheduler.THREAD_POOL);
+                futures.add(engine.sortPartitionsAsync(convertArrayToPartitionList(testcase), config));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                checkResult(testcases.get(i), futures.get(i).join());
+            }
+
+            // Errors of comparators
+            List<List<List<Integer>>> records = toNestedLists(DataShape.OVERLAPPING.generate(random, 8, 100, 10));
+            CompletableFuture<List<Integer>> failed = engine.sortAsync(config -> MergeSortK.sortPartitions(records,
+                KeyOrder.<Integer>of((value1, value2) -> {
+                    throw new IllegalStateException("broken comparator");
+                }), config), new SortConfig());
+            try {
+                failed.get();
+                Assert.error();
+            } catch (ExecutionException e) {
+                Assert.check(e.getCause() instanceof IllegalStateException);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        if (!VirtualThreadMerge.isVirtual()) {
+            try {
+                VirtualThreadMerge.invokeAll(Arrays.<Supplier<Integer>>asList(() -> 1, () -> 2),
+                    new SortCancellation());
+                Assert.error();
+            } catch (UnsupportedOperationException e) {
+                return;
+            }
+        }
+        // A failed task cancels its sibling, and is thrown after the sibling stops.
+        SortCancellation scope = new SortCancellation(SortCancellation.NONE);
+        AtomicInteger stopped = new AtomicInteger();
+        try {
+            VirtualThreadMerge.invokeAll(Arrays.<Supplier<Integer>>asList(() -> {
+                while (!scope.isCancelled()) {
+                    Thread.yield();
+                }
+                stopped.incrementAndGet();
+                throw new CancellationException();
+            }, () -> {
+                throw new IllegalStateException("failed job");
+            }), scope);
+            Assert.error();
+        } catch (IllegalStateException e) {
+            Assert.check(stopped.get() == 1);
+        }
+    }
+
+    /**
+     * The branchless and SIMD merge kernels give the same output as the
+     * branchy ones, for slices of inputs with few distinct values, extreme
+     * values and long runs, and write nothing outside of their output slice.
+     * The SIMD kernel is tested if the jdk.incubator.vector module is added.
+     */
+    public static void mergeKernelTest() {
+        Random random = new Random();
+        MergeKernel.Kernel vectorKernel = MergeKernel.VECTOR_KERNEL;
+        Assert.check(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() == (vectorKernel != null));
+        for (int i = 0; i < 1000; i++) {
+            int bound = 1 + random.nextInt(i % 2 == 0 ? 10 : Integer.MAX_VALUE);
+            long[] longs1 = randomKernelInput(random, bound), longs2 = randomKernelInput(random, bound);
+            int from1 = random.nextInt(longs1.length + 1), to1 = from1 + random.nextInt(longs1.length - from1 + 1);
+            int from2 = random.nextInt(longs2.length + 1), to2 = from2 + random.nextInt(longs2.length - from2 + 1);
+            int outputFrom = random.nextInt(5), outputLength = outputFrom + to1 - from1 + to2 - from2 + 5;
+
+            long[] expectedLongs = new long[outputLength], longs = new long[outputLength];
+            Arrays.fill(expectedLongs, -7);
+            Arrays.fill(longs, -7);
+            MergeKernel.mergeLongsBranchy(longs1, from1, to1, longs2, from2, to2, expectedLongs, outputFrom);
+            MergeKernel.mergeLongsBranchless(longs1, from1, to1, longs2, from2, to2, longs, outputFrom);
+            Assert.check(Arrays.equals(expectedLongs, longs));
+            if (vectorKernel != null) {
+                Arrays.fill(longs, -7);
+                vectorKernel.mergeLongs(longs1, from1, to1, longs2, from2, to2, longs, outputFrom);
+                Assert.check(Arrays.equals(expectedLongs, longs));
+            }
+
+            int[] ints1 = Arrays.stream(longs1).mapToInt(value -> (int) (value >> 32)).toArray();
+            int[] ints2 = Arrays.stream(longs2).mapToInt(value -> (int) (value >> 32)).toArray();
+            int[] expectedInts = new int[outputLength], ints = new int[outputLength];
+            Arrays.fill(expectedInts, -7);
+            Arrays.fill(ints, -7);
+            MergeKernel.mergeIntsBranchy(ints1, from1, to1, ints2, from2, to2, expectedInts, outputFrom);
+            MergeKernel.mergeIntsBranchless(ints1, from1, to1, ints2, from2, to2, ints, outputFrom);
+            Assert.check(Arrays.equals(expectedInts, ints));
+            if (vectorKernel != null) {
+                Arrays.fill(ints, -7);
+                vectorKernel.mergeInts(ints1, from1, to1, ints2, from2, to2, ints, outputFrom);
+                Assert.check(Arrays.equals(expectedInts, ints));
+            }
+        }
+    }
+
+    /**
+     * @return sorted longs, some of which are the extreme values
+     */
+    private static long[] randomKernelInput(Random random, int bound) {
+        // Long enough for many vectors of the SIMD kernel
+        long[] values = new long[random.nextInt(random.nextBoolean() ? 100 : 1000)];
+        for (int i = 0; i < values.length; i++) {
+            int kind = random.nextInt(20);
+            values[i] = kind == 0 ? Long.MIN_VALUE : kind == 1 ? Long.MAX_VALUE
+                : ((long) random.nextInt(bound) << 32) - ((long) bound << 31);
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Scratch arrays are reused, never handed out twice, and cleared, and
+     * an arena keeps a bounded count of bytes; a degraded merge of int
+     * blocks allocates little more than its output.
+     */
+    public static void bufferArenaTest() {
+        BufferArena arena = BufferArena.current();
+        int[] ints = arena.takeInts(100);
+        Assert.check(ints.length >= 100 && arena.takeInts(100) != ints);
+        arena.giveBack(ints);
+        Assert.check(arena.takeInts(50) == ints);
+        Comparable[] values = arena.takeValues(10);
+        values[3] = 3;
+        arena.giveBack(values, 10);
+        Comparable[] reused = arena.takeValues(10);
+        Assert.check(reused == values && reused[3] == null);
+        long[] bigLongs = arena.takeLongs(1 << 21);
+        arena.giveBack(bigLongs);
+        Assert.check(arena.takeLongs(1 << 21) != bigLongs);
+        for (int i = 0; i < 8; i++) {
+            arena.giveBack(new long[1 << 20]);
+            arena.giveBack(new Comparable[1 << 20], 0);
+            arena.giveBack(new int[1 << 20]);
+            Assert.check(arena.getRetainedBytes() <= BufferArena.MAX_RETAINED_BYTES);
+        }
+
+        // Two interleaving int blocks, which are merged value by value
+        final int SIZE = 100000;
+        List<Partition> inputList1 = Collections.singletonList(new IntPartition(Collections.singletonList(
+            new IntBlock(IntStream.range(0, SIZE).map(i -> i * 2).toArray()))));
+        List<Partition> inputList2 = Collections.singletonList(new IntPartition(Collections.singletonList(
+            new IntBlock(IntStream.range(0, SIZE).map(i -> i * 2 + 1).toArray()))));
+        com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        // The output takes 2 * SIZE * 4 bytes, and the blocks are merged without copies.
+        final long MAX_ALLOCATED = 2 * SIZE * 4 * 3 / 2;
+        long allocated = Long.MAX_VALUE;
+        // Until the JIT compiles the SIMD kernel, its vectors are allocated.
+        for (int i = 0; i < 100 && allocated >= MAX_ALLOCATED; i++) {
+            long allocatedBefore = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            MergeSortJob job = new MergeSortJob(inputList1, inputList2);
+            job.run();
+            allocated = Math.min(allocated,
+                threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore);
+            Assert.check(Arrays.equals(job.getOutputList().stream()
+                .flatMapToInt(partition -> Arrays.stream(((IntPartition) partition).toIntArray())).toArray(),
+                IntStream.range(0, SIZE * 2).toArray()));
+        }
+        Assert.check(allocated < MAX_ALLOCATED);
+
+        // Groups of many small blocks with equal values, merged slice by slice
+        Random random = new Random();
+        for (int i = 0; i < 100; i++) {
+            int[][][] testcase = DataShape.DUPLICATES.generate(random, 2, 1 + random.nextInt(500),
+                1 + random.nextInt(20));
+            MergeSortJob intJob = new MergeSortJob((List) convertArrayToIntPartitionList(testcase).subList(0, 1),
+                (List) convertArrayToIntPartitionList(testcase).subList(1, 2));
+            intJob.run();
+            checkIntResult(testcase, intJob.getOutputList().stream()
+                .flatMapToInt(partition -> Arrays.stream(((IntPartition) partition).toIntArray())).toArray());
+            MergeSortJob longJob = new MergeSortJob((List) convertArrayToLongPartitionList(testcase).subList(0, 1),
+                (List) convertArrayToLongPartitionList(testcase).subList(1, 2));
+            longJob.run();
+            checkIntResult(testcase, longJob.getOutputList().stream()
+                .flatMapToLong(partition -> Arrays.stream(((LongPartition) partition).toLongArray()))
+                .mapToInt(value -> (int) value).toArray());
+        }
+    }
+
+    /**
+     * Heavily overlapping clusters of int or long partitions are radix
+     * sorted, and cut back into as many partitions and blocks.
+     */
+    public static void radixTest() {
+        Random random = new Random();
+        int[][][] overlapping = DataShape.OVERLAPPING.generate(random, 16, 8192, 512);
+        Assert.check(RadixSortJob.shouldSort(convertArrayToIntPartitionList(overlapping)));
+        Assert.check(RadixSortJob.shouldSort(convertArrayToLongPartitionList(overlapping)));
+        Assert.check(!RadixSortJob.shouldSort(convertArrayToPartitionList(overlapping)));
+        Assert.check(!RadixSortJob.shouldSort(convertArrayToIntPartitionList(Arrays.copyOf(overlapping, 2))));
+        Assert.check(!RadixSortJob.shouldSort(convertArrayToIntPartitionList(
+            DataShape.OVERLAPPING.generate(random, 16, 100, 10))));
+        Assert.check(!RadixSortJob.shouldSort(convertArrayToIntPartitionList(
+            DataShape.TIME_WINDOWS.generate(random, 16, 8192, 512))));
+        Assert.check(RadixSortJob.measureCoverage(convertArrayToIntPartitionList(overlapping)) > 0.9);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (DataShape shape : DataShape.values()) {
+                int[][][] testcase = shape.generate(random, 8, 10000, 500);
+                int[] expected = Arrays.stream(testcase).flatMap(Arrays::stream).flatMapToInt(Arrays::stream)
+                    .sorted().toArray();
+                for (int parallelism : new int[] { 1, 4 }) {
+                    List<Partition> intPartitions = new ArrayList<>(convertArrayToIntPartitionList(testcase));
+                    intPartitions.removeIf(partition -> partition.getValueCount() == 0);
+                    RadixSortJob job = new RadixSortJob(intPartitions, parallelism, null, SortCancellation.NONE);
+                    pool.submit(job).join();
+                    Assert.check(job.getOutputList().size() == intPartitions.size());
+                    Assert.check(job.getOutputList().stream().mapToInt(partition -> partition.getBlockList().size())
+                        .sum() == intPartitions.stream().mapToInt(partition -> partition.getBlockList().size()).sum());
+                    Assert.check(Arrays.equals(job.getOutputList().stream()
+                        .flatMapToInt(partition -> Arrays.stream(((IntPartition) partition).toIntArray())).toArray(),
+                        expected));
+                }
+            }
+
+            // Longs across the whole range, i.e. 6 passes
+            List<Partition> longPartitions = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                long[] values = random.longs(20000).sorted().toArray();
+                values[0] = Long.MIN_VALUE;
+                values[values.length - 1] = Long.MAX_VALUE;
+                longPartitions.add(new LongPartition(Arrays.asList(new LongBlock(values, 0, 10000),
+                    new LongBlock(values, 10000, 20000))));
+            }
+            long[] expected = longPartitions.stream()
+                .flatMapToLong(partition -> Arrays.stream(((LongPartition) partition).toLongArray())).sorted().toArray();
+            RadixSortJob job = new RadixSortJob(longPartitions, 4, null, SortCancellation.NONE);
+            pool.submit(job).join();
+            Assert.check(Arrays.equals(job.getOutputList().stream()
+                .flatMapToLong(partition -> Arrays.stream(((LongPartition) partition).toLongArray())).toArray(),
+                expected));
+
+            // AUTO radix sorts the overlapping cluster in one job
+            AtomicInteger jobCount = new AtomicInteger();
+            SortConfig config = new SortConfig();
+            config.setStrategy(MergeStrategy.AUTO);
+            config.setListener(new MergeSortListener() {
+                @Override
+                public void onJobFinished(MergeSortMetrics metrics) {
+                    jobCount.incrementAndGet();
+                }
+            });
+            int[] intExpected = Arrays.stream(overlapping).flatMap(Arrays::stream).flatMapToInt(Arrays::stream)
+                .sorted().toArray();
+            Assert.check(Arrays.equals(MergeSortK.sortIntPartitions(convertArrayToIntPartitionList(overlapping),
+                config), intExpected));
+            Assert.check(jobCount.get() == 1);
+            long[] longResult = MergeSortK.sortLongPartitions(convertArrayToLongPartitionList(overlapping), config);
+            Assert.check(Arrays.equals(longResult, Arrays.stream(intExpected).asLongStream().toArray()));
+            Assert.check(jobCount.get() == 2);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Sorted values are written to arrays, ByteBuffers and files, by
+     * parallel slices which cut blocks at any value.
+     */
+    public static void outputSinkTest() throws IOException {
+        Random random = new Random();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Path file = Files.createTempFile("output-sink", null);
+        try {
+            for (int[][][] testcase : Arrays.asList(testcases[random.nextInt(testcases.length)],
+                DataShape.OVERLAPPING.generate(random, 8, 20000, 1000), DataShape.SKEWED.generate(random, 8, 20000, 700))) {
+                int[] expected = Arrays.stream(testcase).flatMap(Arrays::stream).flatMapToInt(Arrays::stream)
+                    .sorted().toArray();
+                SortConfig config = new SortConfig();
+                config.setForkJoinPool(pool);
+                config.setParallelism(4);
+
+                int[] ints = new int[expected.length + 1];
+                Assert.check(MergeSortK.sortPartitions(convertArrayToIntPartitionList(testcase), config,
+                    OutputSink.of(ints)) == expected.length);
+                Assert.check(Arrays.equals(Arrays.copyOf(ints, expected.length), expected));
+
+                long[] longs = new long[expected.length];
+                MergeSortK.sortPartitions(convertArrayToLongPartitionList(testcase), config, OutputSink.of(longs));
+                Assert.check(Arrays.equals(longs, Arrays.stream(expected).asLongStream().toArray()));
+
+                Object[] values = new Object[expected.length];
+                MergeSortK.sortPartitions(convertArrayToPartitionList(testcase), new SortConfig(),
+                    OutputSink.of(values));
+                Assert.check(Arrays.equals(values, Arrays.stream(expected).boxed().toArray()));
+
+                for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(3 + expected.length * Long.BYTES).order(order);
+                    buffer.position(3);
+                    MergeSortK.sortPartitions(convertArrayToIntPartitionList(testcase), config,
+                        OutputSink.ofInts(buffer));
+                    Assert.check(buffer.position() == 3 + expected.length * Integer.BYTES);
+                    buffer.position(3);
+                    for (int value : expected) {
+                        Assert.check(buffer.getInt() == value);
+                    }
+                    buffer.position(3);
+                    MergeSortK.sortPartitions(convertArrayToLongPartitionList(testcase), config,
+                        OutputSink.ofLongs(buffer));
+                    Assert.check(!buffer.hasRemaining());
+                    buffer.position(3);
+                    for (int value : expected) {
+                        Assert.check(buffer.getLong() == value);
+                    }
+                }
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                    MergeSortK.sortPartitions(convertArrayToLongPartitionList(testcase), config,
+                        OutputSink.ofLongs(channel, 16));
+                    // Nothing is written for an empty result
+                    Assert.check(channel.size() == (expected.length == 0 ? 0 : 16 + expected.length * Long.BYTES));
+                    Assert.check(channel.position() == 0);
+                }
+                ByteBuffer fileBuffer = ByteBuffer.wrap(Files.readAllBytes(file));
+                fileBuffer.position(Math.min(16, fileBuffer.limit()));
+                for (int value : expected) {
+                    Assert.check(fileBuffer.getLong() == value);
+                }
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                    MergeSortK.sortPartitions(convertArrayToIntPartitionList(testcase), config,
+                        OutputSink.ofInts(channel, 0));
+                }
+                fileBuffer = ByteBuffer.wrap(Files.readAllBytes(file));
+                for (int value : expected) {
+                    Assert.check(fileBuffer.getInt() == value);
+                }
+                Assert.check(!fileBuffer.hasRemaining());
+            }
+
+            // Slices are written on the pool of the config, or on a pool of its parallelism
+            int[][][] big = DataShape.OVERLAPPING.generate(random, 4, 20000, 1000);
+            for (boolean shared : new boolean[] { true, false }) {
+                SortConfig poolConfig = new SortConfig();
+                poolConfig.setParallelism(3);
+                if (shared) {
+                    poolConfig.setForkJoinPool(pool);
+                }
+                Set<ForkJoinPool> writePools = ConcurrentHashMap.newKeySet();
+                MergeSortK.sortPartitions(convertArrayToIntPartitionList(big), poolConfig, new OutputSink() {
+                    @Override
+                    protected void writeBlock(Block block, long offset) {
+                        writePools.add(ForkJoinTask.getPool());
+                    }
+                });
+                Assert.check(writePools.size() == 1);
+                ForkJoinPool writePool = writePools.iterator().next();
+                Assert.check(shared ? writePool == pool
+                    : writePool != ForkJoinPool.commonPool() && writePool.getParallelism() == 3);
+            }
+
+            // Too short outputs and combiners are rejected before any value is written
+            int[][][] testcase = DataShape.OVERLAPPING.generate(random, 4, 100, 10);
+            try {
+                MergeSortK.sortPartitions(convertArrayToIntPartitionList(testcase), new SortConfig(),
+                    OutputSink.of(new int[399]));
+                Assert.check(false);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            SortConfig combineConfig = new SortConfig();
+            combineConfig.setCombiner(Combiners.keepFirst());
+            try {
+                MergeSortK.sortPartitions(convertArrayToIntPartitionList(testcase), combineConfig,
+                    OutputSink.of(new int[400]));
+                Assert.check(false);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
 }
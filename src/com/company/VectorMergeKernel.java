@@ -0,0 +1,173 @@
+package com.company;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD merge kernel of the jdk.incubator.vector module, see {@link MergeKernel}.
+ *
+ * It merges a vector of each input at a time with a bitonic merge network:
+ * the second vector is reversed, so the lane-wise min and max of both are
+ * two bitonic vectors, the low half and the high half of their values. Each
+ * of them is sorted by log2(lanes) compare-exchange steps between lanes
+ * which differ by a power of two. The low half is output, and the high half
+ * is merged with the next vector of the input whose next value is smaller.
+ *
+ * Equal values can be swapped, which is invisible for int and long values.
+ * Inputs shorter than a vector, and the values left when an input has less
+ * than a vector, are merged by the branchless kernel.
+ *
+ * This class is loaded reflectively by {@link MergeKernel}, only if the
+ * module is present: run with --add-modules jdk.incubator.vector.
+ */
+class VectorMergeKernel implements MergeKernel.Kernel {
+
+    private static final VectorSpecies<Integer> INT_SPECIES  = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long>    LONG_SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private static final VectorShuffle<Integer> INT_REVERSE  = VectorShuffle.fromOp(INT_SPECIES,
+        lane -> INT_SPECIES.length() - 1 - lane);
+    private static final VectorShuffle<Long>    LONG_REVERSE = VectorShuffle.fromOp(LONG_SPECIES,
+        lane -> LONG_SPECIES.length() - 1 - lane);
+
+    /* For the step of each distance 2^k: lanes exchanged with lane ^ 2^k, and lanes which keep the max */
+    private static final VectorShuffle<Integer>[] INT_EXCHANGES  = exchanges(INT_SPECIES);
+    private static final VectorMask<Integer>[]    INT_UPPERS     = uppers(INT_SPECIES);
+    private static final VectorShuffle<Long>[]    LONG_EXCHANGES = exchanges(LONG_SPECIES);
+    private static final VectorMask<Long>[]       LONG_UPPERS    = uppers(LONG_SPECIES);
+
+    @Override
+    public void mergeInts(int[] inputArray1, int from1, int to1, int[] inputArray2, int from2, int to2,
+                          int[] outputArray, int outputFrom) {
+        int lanes = INT_SPECIES.length();
+        if (to1 - from1 < lanes || to2 - from2 < lanes) {
+            MergeKernel.mergeIntsBranchless(inputArray1, from1, to1, inputArray2, from2, to2, outputArray,
+                outputFrom);
+            return;
+        }
+
+        int index1 = from1 + lanes, index2 = from2 + lanes, outputIndex = outputFrom;
+        IntVector next = IntVector.fromArray(INT_SPECIES, inputArray1, from1);
+        IntVector high = IntVector.fromArray(INT_SPECIES, inputArray2, from2);
+        while (true) {
+            IntVector reversed = high.rearrange(INT_REVERSE);
+            sortBitonic(next.min(reversed)).intoArray(outputArray, outputIndex);
+            high = sortBitonic(next.max(reversed));
+            outputIndex += lanes;
+
+            boolean take1 = index2 == to2 || index1 < to1 && inputArray1[index1] <= inputArray2[index2];
+            if (take1 ? to1 - index1 < lanes : to2 - index2 < lanes) {
+                break;
+            }
+            if (take1) {
+                next = IntVector.fromArray(INT_SPECIES, inputArray1, index1);
+                index1 += lanes;
+            } else {
+                next = IntVector.fromArray(INT_SPECIES, inputArray2, index2);
+                index2 += lanes;
+            }
+        }
+
+        // Merge the rests of the inputs after the room for the high half, and then the high half with them.
+        int[] pending = new int[lanes];
+        high.intoArray(pending, 0);
+        int restFrom = outputIndex + lanes, restTo = restFrom + to1 - index1 + to2 - index2;
+        MergeKernel.mergeIntsBranchless(inputArray1, index1, to1, inputArray2, index2, to2, outputArray, restFrom);
+        MergeKernel.mergeIntsBranchless(pending, 0, lanes, outputArray, restFrom, restTo, outputArray, outputIndex);
+    }
+
+    @Override
+    public void mergeLongs(long[] inputArray1, int from1, int to1, long[] inputArray2, int from2, int to2,
+                           long[] outputArray, int outputFrom) {
+        int lanes = LONG_SPECIES.length();
+        if (to1 - from1 < lanes || to2 - from2 < lanes) {
+            MergeKernel.mergeLongsBranchless(inputArray1, from1, to1, inputArray2, from2, to2, outputArray,
+                outputFrom);
+            return;
+        }
+
+        int index1 = from1 + lanes, index2 = from2 + lanes, outputIndex = outputFrom;
+        LongVector next = LongVector.fromArray(LONG_SPECIES, inputArray1, from1);
+        LongVector high = LongVector.fromArray(LONG_SPECIES, inputArray2, from2);
+        while (true) {
+            LongVector reversed = high.rearrange(LONG_REVERSE);
+            sortBitonic(next.min(reversed)).intoArray(outputArray, outputIndex);
+            high = sortBitonic(next.max(reversed));
+            outputIndex += lanes;
+
+            boolean take1 = index2 == to2 || index1 < to1 && inputArray1[index1] <= inputArray2[index2];
+            if (take1 ? to1 - index1 < lanes : to2 - index2 < lanes) {
+                break;
+            }
+            if (take1) {
+                next = LongVector.fromArray(LONG_SPECIES, inputArray1, index1);
+                index1 += lanes;
+            } else {
+                next = LongVector.fromArray(LONG_SPECIES, inputArray2, index2);
+                index2 += lanes;
+            }
+        }
+
+        // Merge the rests of the inputs after the room for the high half, and then the high half with them.
+        long[] pending = new long[lanes];
+        high.intoArray(pending, 0);
+        int restFrom = outputIndex + lanes, restTo = restFrom + to1 - index1 + to2 - index2;
+        MergeKernel.mergeLongsBranchless(inputArray1, index1, to1, inputArray2, index2, to2, outputArray, restFrom);
+        MergeKernel.mergeLongsBranchless(pending, 0, lanes, outputArray, restFrom, restTo, outputArray, outputIndex);
+    }
+
+    /**
+     * Sort a bitonic vector: at each distance, from half of the lanes down
+     * to 1, each pair of lanes gets the min in the lower lane.
+     */
+    private static IntVector sortBitonic(IntVector vector) {
+        for (int step = 0; step < INT_EXCHANGES.length; step++) {
+            IntVector exchanged = vector.rearrange(INT_EXCHANGES[step]);
+            vector = vector.min(exchanged).blend(vector.max(exchanged), INT_UPPERS[step]);
+        }
+        return vector;
+    }
+
+    private static LongVector sortBitonic(LongVector vector) {
+        for (int step = 0; step < LONG_EXCHANGES.length; step++) {
+            LongVector exchanged = vector.rearrange(LONG_EXCHANGES[step]);
+            vector = vector.min(exchanged).blend(vector.max(exchanged), LONG_UPPERS[step]);
+        }
+        return vector;
+    }
+
+    /**
+     * @return shuffles of lane ^ distance, for distances from half of the lanes down to 1
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> VectorShuffle<E>[] exchanges(VectorSpecies<E> species) {
+        VectorShuffle<E>[] shuffles = new VectorShuffle[Integer.numberOfTrailingZeros(species.length())];
+        for (int step = 0; step < shuffles.length; step++) {
+            int distance = species.length() >>> (step + 1);
+            shuffles[step] = VectorShuffle.fromOp(species, lane -> lane ^ distance);
+        }
+        return shuffles;
+    }
+
+    /**
+     * @return masks of the lanes which have the distance bit, i.e. the upper lane of each exchanged pair
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> VectorMask<E>[] uppers(VectorSpecies<E> species) {
+        VectorMask<E>[] masks = new VectorMask[Integer.numberOfTrailingZeros(species.length())];
+        for (int step = 0; step < masks.length; step++) {
+            int distance = species.length() >>> (step + 1);
+            long bits = 0;
+            for (int lane = 0; lane < species.length(); lane++) {
+                if ((lane & distance) != 0) {
+                    bits |= 1L << lane;
+                }
+            }
+            masks[step] = VectorMask.fromLong(species, bits);
+        }
+        return masks;
+    }
+}
@@ -0,0 +1,202 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Run the pairwise merge tree with one thread for each subtree, instead of a
+ * thread pool created for each sort.
+ *
+ * Threads are virtual threads, so thousands of small sorts can run at the
+ * same time without thousands of platform threads. They need Java 21 or
+ * later: before, the VIRTUAL_THREAD scheduler falls back to FORK_JOIN, and
+ * this class throws UnsupportedOperationException. Forked subtasks are
+ * joined like a structured concurrency scope: a task returns only after all
+ * of its subtasks are finished, and a failed subtask cancels the others.
+ *
+ * Merging is CPU-bound, so merge jobs of all sorts share one semaphore with
+ * a permit for each processor. Threads waiting for subtasks or permits hold
+ * no permit.
+ */
+public class VirtualThreadMerge {
+
+    /* Creates virtual threads, or null before Java 21 */
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    /* Merge jobs running at the same time in all sorts, at most one for each processor */
+    private static final Semaphore MERGE_PERMITS = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * @return true if the runtime has virtual threads
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    /**
+     * Merge each cluster of partitions with its own merge tree. Clusters are
+     * merged at the same time, and concatenated in order.
+     *
+     * @param clusters clusters of intersecting partitions
+     * @param listener notified of each job, or null
+     * @param cancellation cancels the merge from another thread
+     * @param combiner combines values which compare equal, or null
+     * @return sorted partition list
+     * @throws CancellationException if the merge is cancelled or interrupted
+     * @throws UnsupportedOperationException before Java 21
+     */
+    public static List<Partition> mergeClusters(List<List<Partition>> clusters, MergeSortListener listener,
+                                                SortCancellation cancellation, BinaryOperator<Comparable> combiner) {
+        // Cancelled by the caller, or by a failed task of this merge.
+        SortCancellation scope = new SortCancellation(cancellation);
+        List<Supplier<List<Partition>>> tasks = new ArrayList<>(clusters.size());
+        for (List<Partition> cluster : clusters) {
+            if (cluster.size() == 1 && combiner == null) {
+                tasks.add(() -> cluster);
+            } else {
+                tasks.add(() -> mergeTree(cluster, 0, cluster.size(), listener, scope, combiner));
+            }
+        }
+
+        List<Partition> result = new ArrayList<>();
+        invokeAll(tasks, scope).forEach(result::addAll);
+        return result;
+    }
+
+    /**
+     * Merge partitions [from, to): fork the left half, merge the right half
+     * in the current thread, and merge both sorted lists.
+     */
+    private static List<Partition> mergeTree(List<Partition> partitions, int from, int to, MergeSortListener listener,
+                                             SortCancellation scope, BinaryOperator<Comparable> combiner) {
+        if (to - from == 1) {
+            // Values of the same partition are never merged with each other.
+            return Collections.singletonList(combiner == null ? partitions.get(from)
+                : MergeSortJob.combinePartition(partitions.get(from), combiner));
+        }
+
+        int middle = (from + to) >>> 1;
+        List<List<Partition>> halves = invokeAll(Arrays.<Supplier<List<Partition>>>asList(
+            () -> mergeTree(partitions, middle, to, listener, scope, combiner),
+            () -> mergeTree(partitions, from, middle, listener, scope, combiner)), scope);
+
+        MergeSortJob job = new MergeSortJob(halves.get(1), halves.get(0), listener, scope, combiner);
+        try {
+            MERGE_PERMITS.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted");
+        }
+        try {
+            job.run();
+        } finally {
+            MERGE_PERMITS.release();
+        }
+        return job.getOutputList();
+    }
+
+    /**
+     * Run the first task in the current thread and each other task in a new
+     * thread, and wait for all of them, even if some fail.
+     *
+     * @return results in the order of tasks
+     * @throws CancellationException if the current thread is interrupted
+     * @throws UnsupportedOperationException before Java 21
+     */
+    static <T> List<T> invokeAll(List<Supplier<T>> tasks, SortCancellation scope) {
+        ThreadFactory threadFactory = threadFactory();
+        List<FutureTask<T>> forkedTasks = new ArrayList<>(tasks.size() - 1);
+        for (Supplier<T> task : tasks.subList(1, tasks.size())) {
+            FutureTask<T> forkedTask = new FutureTask<>(() -> {
+                try {
+                    return task.get();
+                } catch (RuntimeException | Error e) {
+                    // Stop the other tasks right away.
+                    scope.cancel();
+                    throw e;
+                }
+            });
+            threadFactory.newThread(forkedTask).start();
+            forkedTasks.add(forkedTask);
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        Throwable failure = null;
+        try {
+            results.add(tasks.get(0).get());
+        } catch (RuntimeException | Error e) {
+            failure = e;
+            scope.cancel();
+        }
+
+        boolean interrupted = false;
+        for (FutureTask<T> forkedTask : forkedTasks) {
+            while (true) {
+                try {
+                    results.add(forkedTask.get());
+                    break;
+                } catch (InterruptedException e) {
+                    // Stop the tasks, and still wait for them, so none of them outlives the scope.
+                    interrupted = true;
+                    scope.cancel();
+                } catch (ExecutionException e) {
+                    // Prefer the failure which cancelled the others.
+                    if (failure == null || failure instanceof CancellationException) {
+                        failure = e.getCause();
+                    }
+                    scope.cancel();
+                    break;
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+            if (failure == null) {
+                failure = new CancellationException("interrupted");
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return results;
+    }
+
+    /**
+     * @return the factory of virtual threads
+     * @throws UnsupportedOperationException before Java 21, rather than
+     *         starting an unbounded count of platform threads
+     */
+    static ThreadFactory threadFactory() {
+        if (VIRTUAL_THREAD_FACTORY == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        return VIRTUAL_THREAD_FACTORY;
+    }
+
+    /**
+     * Use Thread.ofVirtual() if the runtime has it, without requiring Java 21 to build.
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "merge-sort-job-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 21, or virtual threads are a disabled preview feature.
+            return null;
+        }
+    }
+}